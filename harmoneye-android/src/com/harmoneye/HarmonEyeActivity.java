@@ -1,89 +1,217 @@
 package com.harmoneye;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.File;
 
 import android.app.Activity;
+import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Menu;
+import android.view.MenuItem;
 import android.view.Window;
 import android.view.WindowManager;
 
 import com.harmoneye.analysis.MusicAnalyzer;
 import com.harmoneye.android.R;
-import com.harmoneye.audio.android.AudioRecordDiscovery;
-import com.harmoneye.audio.android.AudioRecordDiscovery.AudioRecordParams;
-import com.harmoneye.audio.android.SoundCapture;
+import com.harmoneye.capture.CaptureFormat;
+import com.harmoneye.capture.CaptureFormatResolver;
+import com.harmoneye.capture.RingSoundCapture;
+import com.harmoneye.schedule.AnalysisRateGovernor;
+import com.harmoneye.schedule.AnalysisScheduler;
+import com.harmoneye.schedule.Clock;
+import com.harmoneye.schedule.TimerAnalysisScheduler;
+import com.harmoneye.schedule.VsyncAnalysisScheduler;
+import com.harmoneye.trace.StartupTrace;
+import com.harmoneye.viz.gl.MyGLRenderer.DialMode;
 import com.harmoneye.viz.gl.MyGLSurfaceView;
+import com.harmoneye.viz.gl.RenderTier;
+import com.harmoneye.viz.gl.RenderTierProbe;
+import com.harmoneye.viz.gl.RenderTierResolver;
 
 public class HarmonEyeActivity extends Activity {
 
 	public static final String LOG_TAG = "HarmonEye";
 
-	private static final int TIME_PERIOD_MILLIS = 25;
+	/**
+	 * Boolean extra which makes the activity run the offscreen render
+	 * benchmark and finish, eg. from a script: am start -n
+	 * com.harmoneye.android/com.harmoneye.HarmonEyeActivity --ez
+	 * com.harmoneye.extra.OFFSCREEN_BENCHMARK true
+	 */
+	public static final String EXTRA_OFFSCREEN_BENCHMARK =
+		"com.harmoneye.extra.OFFSCREEN_BENCHMARK";
 
-	private volatile SoundCapture soundCapture;
+	/**
+	 * String extra which overrides the render tier (HIGH, MEDIUM, LOW) from
+	 * the next launch on, any other value such as AUTO clears the override,
+	 * eg.: am start -n com.harmoneye.android/com.harmoneye.HarmonEyeActivity
+	 * --es com.harmoneye.extra.RENDER_TIER LOW
+	 */
+	public static final String EXTRA_RENDER_TIER =
+		"com.harmoneye.extra.RENDER_TIER";
+
+	/**
+	 * String extra which selects how the dial is drawn (GEOMETRY, POLAR_SDF)
+	 * for this launch, eg.: am start -n
+	 * com.harmoneye.android/com.harmoneye.HarmonEyeActivity --es
+	 * com.harmoneye.extra.DIAL_MODE POLAR_SDF
+	 */
+	public static final String EXTRA_DIAL_MODE =
+		"com.harmoneye.extra.DIAL_MODE";
+
+	private static final int START_DELAY_MILLIS = 200;
+	/**
+	 * number of pause/resume cycles of the soak test from the menu, takes
+	 * about three minutes
+	 */
+	private static final int SOAK_CYCLES = 300;
+	/** bounds of the analysis period, ie. 60 Hz to 10 Hz */
+	private static final long MIN_PERIOD_NANOS = 16000000L;
+	private static final long MAX_PERIOD_NANOS = 100000000L;
+	/** fraction of time the analysis thread may be busy */
+	private static final double TARGET_DUTY_CYCLE = 0.3;
+	/** number of analysis steps to measure the cost from */
+	private static final int COST_WINDOW_SIZE = 30;
+	/** percentile of the step durations taken as the cost */
+	private static final double COST_PERCENTILE = 0.9;
+	/**
+	 * preference to render at the display rate, blending the slower analysis,
+	 * off by default since it keeps the GPU busy on every display frame
+	 */
+	private static final String KEY_INTERPOLATION = "interpolation.enabled";
+
+	private volatile RingSoundCapture soundCapture;
 	private volatile MusicAnalyzer musicAnalyzer;
 	private MyGLSurfaceView glView;
-	private Timer updateTimer;
+	private AnalysisScheduler updateScheduler;
+	/** indicates whether the activity is in the foreground, UI thread only */
+	private boolean resumed;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		StartupTrace.start();
+		int span = StartupTrace.begin("onCreate");
 
 		requestWindowFeature(Window.FEATURE_NO_TITLE);
 		getWindow().setFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN,
 			WindowManager.LayoutParams.FLAG_FULLSCREEN);
 		getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
-		glView = new MyGLSurfaceView(this);
+		final RenderTierResolver tierResolver = new RenderTierResolver(
+			getSharedPreferences(LOG_TAG, MODE_PRIVATE));
+		String tierName = getIntent().getStringExtra(EXTRA_RENDER_TIER);
+		if (tierName != null) {
+			tierResolver.setOverride(RenderTier.parse(tierName));
+		}
+
+		DialMode dialMode = getDialMode();
+		// the polar dial smooths its edges itself
+		RenderTier tier = dialMode == DialMode.POLAR_SDF ? RenderTier.LOW
+			: tierResolver.resolve();
+		glView = new MyGLSurfaceView(this, tier);
+		glView.setDialMode(dialMode);
+		glView.setInterpolationEnabled(getSharedPreferences(LOG_TAG,
+			MODE_PRIVATE).getBoolean(KEY_INTERPOLATION, false));
+
+		setContentView(glView);
+
+		if (dialMode == DialMode.GEOMETRY && tierResolver.isProbeNeeded()) {
+			// the surface keeps its tier, the probed one is used next time;
+			// it runs once the analysis is displayed, not during the intro
+			glView.probeRenderTier(new RenderTierProbe.Listener() {
+				public void onProbed(RenderTier tier) {
+					tierResolver.storeProbedTier(tier);
+				}
+			});
+		}
 
-		AudioRecordParams audioRecordParams = new AudioRecordDiscovery()
-			.findParams();
+		if (getIntent().getBooleanExtra(EXTRA_OFFSCREEN_BENCHMARK, false)) {
+			runOffscreenBenchmark(true);
+		}
 
-		musicAnalyzer = new MusicAnalyzer(glView,
-			audioRecordParams.getSampleRate(),
-			audioRecordParams.getBitsPerSample());
+		final long createdNanos = System.nanoTime();
+		final CaptureFormatResolver formatResolver = new CaptureFormatResolver(
+			getSharedPreferences(LOG_TAG, MODE_PRIVATE));
+		// the intro is displayed while probing the audio and initializing
 		new Thread(new Runnable() {
 			public void run() {
+				int span = StartupTrace.begin("resolveCaptureFormat");
+				CaptureFormat format = formatResolver.resolve();
+				StartupTrace.end(span);
+				musicAnalyzer = new MusicAnalyzer(glView,
+					format.getSampleRate(),
+					format.getBitsPerSample());
+				soundCapture = new RingSoundCapture(format);
+				Log.i(LOG_TAG, "audio ready in "
+					+ (System.nanoTime() - createdNanos) / 1000000 + " ms");
+				runOnUiThread(new Runnable() {
+					public void run() {
+						if (resumed) {
+							start();
+						}
+					}
+				});
+
+				span = StartupTrace.begin("MusicAnalyzer.initialize");
 				musicAnalyzer.initialize();
+				StartupTrace.end(span);
 			}
 		}).start();
-
-		soundCapture = new SoundCapture(musicAnalyzer, audioRecordParams);
-
-		setContentView(glView);
+		StartupTrace.end(span);
 	}
 
-	private void toggle() {
-		boolean isRunning = soundCapture.isRunning();
-		if (isRunning) {
-			stop();
-		} else {
-			Thread thread = new Thread(soundCapture);
-			thread.start();
+	private DialMode getDialMode() {
+		String name = getIntent().getStringExtra(EXTRA_DIAL_MODE);
+		if (name != null) {
+			try {
+				return DialMode.valueOf(name);
+			} catch (IllegalArgumentException e) {
+				Log.w(LOG_TAG, "unknown dial mode: " + name);
+			}
+		}
+		return DialMode.GEOMETRY;
+	}
 
-			startUpdateTimer();
+	private void start() {
+		if (soundCapture == null || soundCapture.isRunning()) {
+			return;
 		}
-		Log.i(LOG_TAG, soundCapture.isRunning() ? "running" : "stopped");
+		soundCapture.start();
+		startUpdateScheduler();
+		Log.i(LOG_TAG, "running");
 	}
 
-	private void startUpdateTimer() {
-		updateTimer = new Timer("update timer");
-		TimerTask updateTask = new TimerTask() {
+	private void startUpdateScheduler() {
+		Runnable updateStep = new Runnable() {
 			@Override
 			public void run() {
+				soundCapture.drainTo(musicAnalyzer);
 				musicAnalyzer.updateSignal();
 			}
 		};
-		updateTimer.scheduleAtFixedRate(updateTask, 200, TIME_PERIOD_MILLIS);
+		AnalysisRateGovernor governor = new AnalysisRateGovernor(Clock.SYSTEM,
+			MIN_PERIOD_NANOS, MAX_PERIOD_NANOS, TARGET_DUTY_CYCLE,
+			COST_WINDOW_SIZE, COST_PERCENTILE);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			float refreshRate = getWindowManager().getDefaultDisplay()
+				.getRefreshRate();
+			updateScheduler = new VsyncAnalysisScheduler(updateStep,
+				refreshRate, governor, START_DELAY_MILLIS);
+		} else {
+			updateScheduler = new TimerAnalysisScheduler(updateStep, governor,
+				START_DELAY_MILLIS);
+		}
+		updateScheduler.start();
 	}
 
 	private void stop() {
-		soundCapture.stop();
-		if (updateTimer != null) {
-			updateTimer.cancel();
+		if (soundCapture != null) {
+			soundCapture.stop();
+		}
+		if (updateScheduler != null) {
+			updateScheduler.stop();
+			updateScheduler = null;
 		}
 	}
 
@@ -92,7 +220,8 @@ public class HarmonEyeActivity extends Activity {
 		super.onResume();
 		Log.i(LOG_TAG, "resume");
 		glView.onResume();
-		toggle();
+		resumed = true;
+		start();
 	}
 
 	@Override
@@ -100,6 +229,7 @@ public class HarmonEyeActivity extends Activity {
 		super.onPause();
 		glView.onPause();
 		Log.i(LOG_TAG, "pause");
+		resumed = false;
 		stop();
 	}
 
@@ -110,10 +240,68 @@ public class HarmonEyeActivity extends Activity {
 		stop();
 	}
 
+	/** the results are written to the benchmark directory in the files */
+	private void runOffscreenBenchmark(boolean finishWhenDone) {
+		Runnable onFinished = null;
+		if (finishWhenDone) {
+			onFinished = new Runnable() {
+				@Override
+				public void run() {
+					finish();
+				}
+			};
+		}
+		glView.runOffscreenBenchmark(new File(getFilesDir(), "benchmark"),
+			onFinished);
+	}
+
 	@Override
 	public boolean onCreateOptionsMenu(Menu menu) {
 		// Inflate the menu; this adds items to the action bar if it is present.
 		getMenuInflater().inflate(R.menu.main, menu);
+		menu.findItem(R.id.action_interpolation).setChecked(
+			glView.isInterpolationEnabled());
 		return true;
 	}
+
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		switch (item.getItemId()) {
+		case R.id.action_profiler:
+			boolean visible = !glView.isProfilerHudVisible();
+			item.setChecked(visible);
+			glView.setProfilerHudVisible(visible);
+			return true;
+		case R.id.action_history:
+			boolean historyVisible = !glView.isHistoryVisible();
+			item.setChecked(historyVisible);
+			glView.setHistoryVisible(historyVisible);
+			return true;
+		case R.id.action_interpolation:
+			boolean interpolation = !glView.isInterpolationEnabled();
+			item.setChecked(interpolation);
+			glView.setInterpolationEnabled(interpolation);
+			getSharedPreferences(LOG_TAG, MODE_PRIVATE).edit()
+				.putBoolean(KEY_INTERPOLATION, interpolation)
+				.apply();
+			return true;
+		case R.id.action_export_profile:
+			glView.exportRenderProfile();
+			return true;
+		case R.id.action_offscreen_benchmark:
+			runOffscreenBenchmark(false);
+			return true;
+		case R.id.action_sector_graph_benchmark:
+			glView.benchmarkSectorGraph();
+			return true;
+		case R.id.action_interpolation_benchmark:
+			glView.benchmarkInterpolation();
+			return true;
+		case R.id.action_pause_resume_soak:
+			glView.runPauseResumeSoak(SOAK_CYCLES);
+			return true;
+		default:
+			return super.onOptionsItemSelected(item);
+		}
+	}
 }
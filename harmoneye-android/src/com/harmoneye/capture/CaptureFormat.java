@@ -0,0 +1,28 @@
+package com.harmoneye.capture;
+
+/**
+ * Sample rate and sample size the sound is recorded with (always mono).
+ */
+public class CaptureFormat {
+
+	private final int sampleRate;
+	private final int bitsPerSample;
+
+	public CaptureFormat(int sampleRate, int bitsPerSample) {
+		this.sampleRate = sampleRate;
+		this.bitsPerSample = bitsPerSample;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getBitsPerSample() {
+		return bitsPerSample;
+	}
+
+	@Override
+	public String toString() {
+		return sampleRate + " Hz, " + bitsPerSample + " bits";
+	}
+}
@@ -0,0 +1,140 @@
+package com.harmoneye.capture;
+
+import android.content.SharedPreferences;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.util.Log;
+
+import com.harmoneye.audio.android.AudioRecordDiscovery;
+import com.harmoneye.audio.android.AudioRecordDiscovery.AudioRecordParams;
+
+/**
+ * Finds a working capture format. The format found by the full probe is
+ * stored in the preferences together with the build fingerprint. On later
+ * launches the stored format is only validated by opening a single recorder
+ * and the full probe runs only if that fails.
+ *
+ * The probing may take a while, so it should not run on the UI thread.
+ */
+public class CaptureFormatResolver {
+
+	private static final String LOG_TAG = "CaptureFormatResolver";
+
+	private static final String KEY_FINGERPRINT = "captureFormat.fingerprint";
+	private static final String KEY_SAMPLE_RATE = "captureFormat.sampleRate";
+	private static final String KEY_BITS_PER_SAMPLE =
+		"captureFormat.bitsPerSample";
+
+	/** checks whether a format can be recorded */
+	public interface RecorderFactory {
+		boolean canRecord(CaptureFormat format);
+	}
+
+	/** tries all formats and returns the best working one */
+	public interface Prober {
+		CaptureFormat findFormat();
+	}
+
+	/** opens an {@link AudioRecord} with the format */
+	public static final RecorderFactory AUDIO_RECORD_FACTORY =
+		new RecorderFactory() {
+			@Override
+			public boolean canRecord(CaptureFormat format) {
+				int encoding = format.getBitsPerSample() == 16
+					? AudioFormat.ENCODING_PCM_16BIT
+					: AudioFormat.ENCODING_PCM_8BIT;
+				int bufferSize = AudioRecord.getMinBufferSize(
+					format.getSampleRate(), AudioFormat.CHANNEL_IN_MONO,
+					encoding);
+				if (bufferSize <= 0) {
+					return false;
+				}
+				AudioRecord record = null;
+				try {
+					record = new AudioRecord(MediaRecorder.AudioSource.MIC,
+						format.getSampleRate(),
+						AudioFormat.CHANNEL_IN_MONO,
+						encoding,
+						bufferSize);
+					return record.getState() == AudioRecord.STATE_INITIALIZED;
+				} catch (IllegalArgumentException e) {
+					return false;
+				} finally {
+					if (record != null) {
+						record.release();
+					}
+				}
+			}
+		};
+
+	/** the probe of {@link AudioRecordDiscovery} */
+	public static final Prober AUDIO_RECORD_DISCOVERY = new Prober() {
+		@Override
+		public CaptureFormat findFormat() {
+			AudioRecordParams params = new AudioRecordDiscovery().findParams();
+			return new CaptureFormat(params.getSampleRate(),
+				params.getBitsPerSample());
+		}
+	};
+
+	private final SharedPreferences preferences;
+	private final RecorderFactory recorderFactory;
+	private final Prober prober;
+	private final String fingerprint;
+
+	public CaptureFormatResolver(SharedPreferences preferences) {
+		this(preferences, AUDIO_RECORD_FACTORY, AUDIO_RECORD_DISCOVERY,
+			Build.FINGERPRINT);
+	}
+
+	/**
+	 * @param fingerprint - identifies the device and system version, the
+	 * stored format is ignored when it changes
+	 */
+	public CaptureFormatResolver(SharedPreferences preferences,
+		RecorderFactory recorderFactory, Prober prober, String fingerprint) {
+		this.preferences = preferences;
+		this.recorderFactory = recorderFactory;
+		this.prober = prober;
+		this.fingerprint = fingerprint;
+	}
+
+	public CaptureFormat resolve() {
+		long start = System.nanoTime();
+		CaptureFormat format = loadFormat();
+		if (format != null && recorderFactory.canRecord(format)) {
+			Log.i(LOG_TAG, "stored format " + format + " validated in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+			return format;
+		}
+
+		format = prober.findFormat();
+		storeFormat(format);
+		Log.i(LOG_TAG, "format " + format + " probed in "
+			+ (System.nanoTime() - start) / 1000000 + " ms");
+		return format;
+	}
+
+	/** @return the stored format or null */
+	private CaptureFormat loadFormat() {
+		if (!fingerprint.equals(preferences.getString(KEY_FINGERPRINT, null))) {
+			return null;
+		}
+		int sampleRate = preferences.getInt(KEY_SAMPLE_RATE, 0);
+		int bitsPerSample = preferences.getInt(KEY_BITS_PER_SAMPLE, 0);
+		if (sampleRate <= 0 || bitsPerSample <= 0) {
+			return null;
+		}
+		return new CaptureFormat(sampleRate, bitsPerSample);
+	}
+
+	private void storeFormat(CaptureFormat format) {
+		preferences.edit()
+			.putString(KEY_FINGERPRINT, fingerprint)
+			.putInt(KEY_SAMPLE_RATE, format.getSampleRate())
+			.putInt(KEY_BITS_PER_SAMPLE, format.getBitsPerSample())
+			.apply();
+	}
+}
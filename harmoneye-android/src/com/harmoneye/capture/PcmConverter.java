@@ -0,0 +1,59 @@
+package com.harmoneye.capture;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Converts PCM samples in a byte buffer filled by the audio recorder to floats
+ * in the range [-1; 1]. The views of the buffer are created once, so the
+ * conversion does not allocate.
+ */
+public class PcmConverter {
+
+	private static final float SCALE_16_BIT = 1f / 32768;
+	private static final float SCALE_8_BIT = 1f / 128;
+
+	private final ByteBuffer bytes;
+	private final ShortBuffer shorts;
+	private final int bytesPerSample;
+
+	/**
+	 * @param buffer - buffer with samples in the native byte order
+	 * @param bitsPerSample - 16 for signed, 8 for unsigned samples
+	 */
+	public PcmConverter(ByteBuffer buffer, int bitsPerSample) {
+		if (bitsPerSample != 8 && bitsPerSample != 16) {
+			throw new IllegalArgumentException(
+				"Only 8 and 16 bits per sample are supported, got: "
+					+ bitsPerSample);
+		}
+		bytesPerSample = bitsPerSample / 8;
+		bytes = buffer.duplicate();
+		shorts = buffer.duplicate().order(ByteOrder.nativeOrder())
+			.asShortBuffer();
+	}
+
+	/**
+	 * @param byteCount - number of valid bytes from the start of the buffer
+	 * @param samples - destination, must hold all the converted samples
+	 * @return number of converted samples
+	 */
+	public int convert(int byteCount, float[] samples) {
+		int count = byteCount / bytesPerSample;
+		if (bytesPerSample == 2) {
+			for (int i = 0; i < count; i++) {
+				samples[i] = shorts.get(i) * SCALE_16_BIT;
+			}
+		} else {
+			for (int i = 0; i < count; i++) {
+				samples[i] = ((bytes.get(i) & 0xff) - 128) * SCALE_8_BIT;
+			}
+		}
+		return count;
+	}
+
+	public int getBytesPerSample() {
+		return bytesPerSample;
+	}
+}
@@ -0,0 +1,202 @@
+package com.harmoneye.capture;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Process;
+import android.util.Log;
+
+import com.harmoneye.audio.SoundConsumer;
+
+/**
+ * Records the sound on its own thread into a {@link SampleRingBuffer}. The
+ * consumer takes the samples on its own thread by {@link #drainTo}, so the
+ * capture never waits for the analysis.
+ *
+ * All buffers are allocated up front. The recorder writes into a direct byte
+ * buffer which is converted to floats in place, so there is no allocation
+ * per read.
+ */
+public class RingSoundCapture implements Runnable {
+
+	private static final String LOG_TAG = "RingSoundCapture";
+
+	/** number of samples per read and per chunk passed to the consumer */
+	private static final int CHUNK_SIZE = 1024;
+	/** length of the ring in seconds */
+	private static final float RING_DURATION = 1;
+	/**
+	 * the consumer is starved when it gets no chunk for longer than this
+	 * number of chunk durations
+	 */
+	private static final int STARVATION_CHUNKS = 2;
+
+	private final int sampleRate;
+	private final int bitsPerSample;
+
+	private final SampleRingBuffer ring;
+
+	/** producer side */
+	private final ByteBuffer byteBuffer;
+	private final PcmConverter converter;
+	private final float[] capturedSamples = new float[CHUNK_SIZE];
+
+	/** consumer side */
+	private final float[] drainedSamples = new float[CHUNK_SIZE];
+	private final double[] chunk = new double[CHUNK_SIZE];
+	private final long starvationNanos;
+	private long lastChunkNanos;
+	private boolean starved;
+	private volatile long starvationCount;
+
+	private volatile boolean running;
+	private Thread thread;
+
+	public RingSoundCapture(CaptureFormat format) {
+		sampleRate = format.getSampleRate();
+		bitsPerSample = format.getBitsPerSample();
+		ring = new SampleRingBuffer(Math.max(4 * CHUNK_SIZE,
+			(int) (RING_DURATION * sampleRate)));
+		byteBuffer = ByteBuffer.allocateDirect(CHUNK_SIZE * bitsPerSample / 8)
+			.order(ByteOrder.nativeOrder());
+		converter = new PcmConverter(byteBuffer, bitsPerSample);
+		starvationNanos = STARVATION_CHUNKS * CHUNK_SIZE * 1000000000L
+			/ sampleRate;
+		lastChunkNanos = System.nanoTime();
+	}
+
+	/**
+	 * Starts recording on a new thread. Waits for the previous recording
+	 * thread to finish, since the buffers cannot be shared. The samples left
+	 * from the previous recording are discarded, so the consumer must not
+	 * drain meanwhile.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		// stale after a pause
+		ring.clear();
+		lastChunkNanos = System.nanoTime();
+		starved = false;
+		running = true;
+		thread = new Thread(this, "sound capture");
+		thread.start();
+	}
+
+	/** makes the recording thread finish */
+	public void stop() {
+		running = false;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public void run() {
+		Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+		int encoding = bitsPerSample == 16 ? AudioFormat.ENCODING_PCM_16BIT
+			: AudioFormat.ENCODING_PCM_8BIT;
+		int bufferSize = Math.max(AudioRecord.getMinBufferSize(sampleRate,
+			AudioFormat.CHANNEL_IN_MONO,
+			encoding), 2 * byteBuffer.capacity());
+		AudioRecord record = new AudioRecord(MediaRecorder.AudioSource.MIC,
+			sampleRate,
+			AudioFormat.CHANNEL_IN_MONO,
+			encoding,
+			bufferSize);
+		if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+			Log.e(LOG_TAG, "Cannot initialize the audio recorder");
+			record.release();
+			running = false;
+			return;
+		}
+
+		try {
+			record.startRecording();
+			while (running) {
+				int byteCount = record.read(byteBuffer, byteBuffer.capacity());
+				if (byteCount < 0) {
+					Log.e(LOG_TAG, "Reading the audio failed: " + byteCount);
+					break;
+				}
+				write(byteCount);
+			}
+		} finally {
+			running = false;
+			record.stop();
+			record.release();
+			Log.i(LOG_TAG, "overruns: " + ring.getOverrunCount()
+				+ ", dropped samples: " + ring.getDroppedSampleCount()
+				+ ", starvations: " + starvationCount);
+		}
+	}
+
+	/**
+	 * Converts the PCM bytes at the start of the byte buffer and appends them
+	 * to the ring. Recording thread only.
+	 *
+	 * @return number of samples which fit into the ring
+	 */
+	int write(int byteCount) {
+		int sampleCount = converter.convert(byteCount, capturedSamples);
+		return ring.write(capturedSamples, 0, sampleCount);
+	}
+
+	/**
+	 * Passes all complete chunks captured so far to the consumer. Must be
+	 * called from a single (analysis) thread.
+	 *
+	 * Called more often than a chunk is captured, so finding no chunk is
+	 * normal. Only when there was no chunk for a few chunk durations, the
+	 * consumer is starved and a starvation is counted.
+	 *
+	 * @return number of chunks passed
+	 */
+	public int drainTo(SoundConsumer consumer) {
+		int chunkCount = 0;
+		while (ring.getAvailable() >= CHUNK_SIZE) {
+			ring.readFully(drainedSamples, 0, CHUNK_SIZE);
+			for (int i = 0; i < CHUNK_SIZE; i++) {
+				chunk[i] = drainedSamples[i];
+			}
+			consumer.consume(chunk);
+			chunkCount++;
+		}
+
+		long now = System.nanoTime();
+		if (chunkCount > 0) {
+			lastChunkNanos = now;
+			starved = false;
+		} else if (!starved && now - lastChunkNanos > starvationNanos) {
+			// counted once per gap in the capture
+			starved = true;
+			starvationCount++;
+		}
+		return chunkCount;
+	}
+
+	/** number of gaps when the consumer got no chunk for too long */
+	public long getStarvationCount() {
+		return starvationCount;
+	}
+
+	public SampleRingBuffer getRing() {
+		return ring;
+	}
+
+	/** the buffer the recorder reads into, filled by a fake one in tests */
+	ByteBuffer getByteBuffer() {
+		return byteBuffer;
+	}
+}
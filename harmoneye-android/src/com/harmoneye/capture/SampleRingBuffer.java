@@ -0,0 +1,121 @@
+package com.harmoneye.capture;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free ring buffer of audio samples between a single producer (the
+ * capture thread) and a single consumer (the analysis thread). The storage is
+ * preallocated, neither side allocates nor blocks.
+ *
+ * The positions are total sample counts which only grow, so that a full and
+ * an empty ring can be told apart. Each side publishes its position only
+ * after the samples were copied.
+ *
+ * When the ring is full the new samples which do not fit are dropped and
+ * counted as an overrun. When the consumer asks for more samples than are
+ * available it gets nothing and an underrun is counted.
+ */
+public class SampleRingBuffer {
+
+	private final float[] samples;
+	private final int mask;
+
+	/** number of samples ever written, changed only by the producer */
+	private final AtomicLong writePosition = new AtomicLong();
+	/** number of samples ever read, changed only by the consumer */
+	private final AtomicLong readPosition = new AtomicLong();
+
+	private volatile long overrunCount;
+	private volatile long droppedSampleCount;
+	private volatile long underrunCount;
+
+	/**
+	 * @param minCapacity - capacity in samples, rounded up to a power of two
+	 */
+	public SampleRingBuffer(int minCapacity) {
+		if (minCapacity <= 0 || minCapacity > (1 << 30)) {
+			throw new IllegalArgumentException("Invalid capacity: "
+				+ minCapacity);
+		}
+		int capacity = Integer.highestOneBit(minCapacity);
+		if (capacity < minCapacity) {
+			capacity <<= 1;
+		}
+		samples = new float[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Appends the samples which fit into the ring. Producer only.
+	 *
+	 * @return number of samples written
+	 */
+	public int write(float[] src, int offset, int length) {
+		long write = writePosition.get();
+		int free = samples.length - (int) (write - readPosition.get());
+		int count = Math.min(length, free);
+		if (count < length) {
+			overrunCount++;
+			droppedSampleCount += length - count;
+		}
+		int index = (int) (write & mask);
+		int firstPart = Math.min(count, samples.length - index);
+		System.arraycopy(src, offset, samples, index, firstPart);
+		System.arraycopy(src, offset + firstPart, samples, 0, count - firstPart);
+		writePosition.lazySet(write + count);
+		return count;
+	}
+
+	/**
+	 * Takes exactly the given number of samples if they are available.
+	 * Consumer only.
+	 *
+	 * @return false (and counts an underrun) if there were not enough samples
+	 */
+	public boolean readFully(float[] dst, int offset, int length) {
+		long read = readPosition.get();
+		if (writePosition.get() - read < length) {
+			underrunCount++;
+			return false;
+		}
+		int index = (int) (read & mask);
+		int firstPart = Math.min(length, samples.length - index);
+		System.arraycopy(samples, index, dst, offset, firstPart);
+		System.arraycopy(samples, 0, dst, offset + firstPart, length - firstPart);
+		readPosition.lazySet(read + length);
+		return true;
+	}
+
+	/**
+	 * Discards the samples not read yet. Neither the producer nor the
+	 * consumer may run meanwhile.
+	 */
+	public void clear() {
+		readPosition.set(0);
+		writePosition.set(0);
+	}
+
+	/** number of samples which can be read now */
+	public int getAvailable() {
+		return (int) (writePosition.get() - readPosition.get());
+	}
+
+	public int getCapacity() {
+		return samples.length;
+	}
+
+	/** number of writes which did not fit completely */
+	public long getOverrunCount() {
+		return overrunCount;
+	}
+
+	/** number of samples dropped by the overruns */
+	public long getDroppedSampleCount() {
+		return droppedSampleCount;
+	}
+
+	/** number of reads which found too few samples */
+	public long getUnderrunCount() {
+		return underrunCount;
+	}
+}
@@ -0,0 +1,167 @@
+package com.harmoneye.schedule;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Adapts the period of the analysis step to its measured cost, so that the
+ * step takes a target fraction of the time (duty cycle).
+ *
+ * The cost is a moving percentile of the durations of the last steps. The
+ * period is set to cost / target duty cycle within the given bounds, ie. slow
+ * devices update less often instead of falling behind and fast devices do not
+ * waste battery by running faster than needed.
+ *
+ * The steps must be measured from a single thread, the metrics may be read
+ * from any thread.
+ */
+public class AnalysisRateGovernor {
+
+	/** the period is changed only if it differs more than this ratio */
+	private static final double HYSTERESIS = 0.1;
+
+	private final Clock clock;
+	private final long minPeriodNanos;
+	private final long maxPeriodNanos;
+	private final double targetDutyCycle;
+	private final double percentile;
+
+	/** ring buffers of the last steps */
+	private final long[] durations;
+	private final long[] startTimes;
+	/** preallocated for computing the percentile */
+	private final long[] sortedDurations;
+	private int sampleCount;
+	private int nextSample;
+
+	private volatile long periodNanos;
+	private volatile long costNanos;
+	private volatile double dutyCycle;
+
+	/**
+	 * @param targetDutyCycle - fraction of time the step should take, in (0; 1]
+	 * @param windowSize - number of last steps to compute the cost from
+	 * @param percentile - percentile of the step durations taken as the cost,
+	 * in [0; 1], eg. 0.9
+	 */
+	public AnalysisRateGovernor(Clock clock, long minPeriodNanos,
+		long maxPeriodNanos, double targetDutyCycle, int windowSize,
+		double percentile) {
+		if (minPeriodNanos <= 0 || maxPeriodNanos < minPeriodNanos) {
+			throw new IllegalArgumentException("Invalid period bounds: "
+				+ minPeriodNanos + ", " + maxPeriodNanos);
+		}
+		if (targetDutyCycle <= 0 || targetDutyCycle > 1) {
+			throw new IllegalArgumentException("Invalid target duty cycle: "
+				+ targetDutyCycle);
+		}
+		if (windowSize < 1) {
+			throw new IllegalArgumentException("Invalid window size: "
+				+ windowSize);
+		}
+		if (percentile < 0 || percentile > 1) {
+			throw new IllegalArgumentException("Invalid percentile: " + percentile);
+		}
+		this.clock = clock;
+		this.minPeriodNanos = minPeriodNanos;
+		this.maxPeriodNanos = maxPeriodNanos;
+		this.targetDutyCycle = targetDutyCycle;
+		this.percentile = percentile;
+		durations = new long[windowSize];
+		startTimes = new long[windowSize];
+		sortedDurations = new long[windowSize];
+		periodNanos = minPeriodNanos;
+	}
+
+	/** runs the step and measures its duration */
+	public void runMeasured(Runnable step) {
+		long start = clock.nanoTime();
+		step.run();
+		onStepFinished(start, clock.nanoTime() - start);
+	}
+
+	/**
+	 * Records a finished step and updates the period.
+	 *
+	 * @param startNanos - when the step started, in the time base of the clock
+	 * @param durationNanos - how long the step took
+	 */
+	public void onStepFinished(long startNanos, long durationNanos) {
+		durations[nextSample] = durationNanos;
+		startTimes[nextSample] = startNanos;
+		nextSample = (nextSample + 1) % durations.length;
+		if (sampleCount < durations.length) {
+			sampleCount++;
+		}
+
+		updateDutyCycle(startNanos + durationNanos);
+		updatePeriod();
+	}
+
+	private void updateDutyCycle(long endNanos) {
+		int oldest = sampleCount < durations.length ? 0 : nextSample;
+		long span = endNanos - startTimes[oldest];
+		if (span <= 0) {
+			return;
+		}
+		long busy = 0;
+		for (int i = 0; i < sampleCount; i++) {
+			busy += durations[i];
+		}
+		dutyCycle = (double) busy / span;
+	}
+
+	private void updatePeriod() {
+		System.arraycopy(durations, 0, sortedDurations, 0, sampleCount);
+		Arrays.sort(sortedDurations, 0, sampleCount);
+		int index = (int) Math.round(percentile * (sampleCount - 1));
+		long cost = sortedDurations[index];
+		costNanos = cost;
+
+		long targetPeriod = (long) (cost / targetDutyCycle);
+		targetPeriod = Math.max(minPeriodNanos,
+			Math.min(maxPeriodNanos, targetPeriod));
+		long period = periodNanos;
+		if (Math.abs(targetPeriod - period) > HYSTERESIS * period) {
+			periodNanos = targetPeriod;
+		}
+	}
+
+	/** current period between the steps */
+	public long getPeriodNanos() {
+		return periodNanos;
+	}
+
+	/** current rate of the steps in Hz */
+	public double getRate() {
+		return 1e9 / periodNanos;
+	}
+
+	/** fraction of time spent in the last steps (measured) */
+	public double getDutyCycle() {
+		return dutyCycle;
+	}
+
+	/** the percentile of the last step durations */
+	public long getCostNanos() {
+		return costNanos;
+	}
+
+	/**
+	 * @return on every how many display frames should the step run to keep the
+	 * current period
+	 */
+	public int getFrameDivisor(long frameIntervalNanos) {
+		return (int) Math.max(1,
+			(periodNanos + frameIntervalNanos - 1) / frameIntervalNanos);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US,
+			"rate: %.1f Hz, duty cycle: %.2f, cost: %.2f ms",
+			getRate(),
+			getDutyCycle(),
+			1e-6 * getCostNanos());
+	}
+}
@@ -0,0 +1,17 @@
+package com.harmoneye.schedule;
+
+/**
+ * Periodically runs the analysis step.
+ */
+public interface AnalysisScheduler {
+
+	void start();
+
+	void stop();
+
+	/** number of analysis steps which were due but not run */
+	long getMissedTickCount();
+
+	/** adapts the rate of the steps to their cost */
+	AnalysisRateGovernor getGovernor();
+}
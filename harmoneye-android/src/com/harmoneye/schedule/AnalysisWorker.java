@@ -0,0 +1,97 @@
+package com.harmoneye.schedule;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread running the analysis step when triggered. Triggering never blocks.
+ * If the previous step is still running the new one is dropped, so that the
+ * work never queues up.
+ *
+ * Stopping waits for the running step to finish, so that after a restart the
+ * steps of the old and the new thread never overlap, eg. on a single-consumer
+ * buffer. Must be started and stopped from a single thread.
+ */
+public class AnalysisWorker implements Runnable {
+
+	private final String name;
+	private final Runnable step;
+
+	private final Semaphore pending = new Semaphore(0);
+	private final AtomicBoolean busy = new AtomicBoolean();
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private volatile boolean running;
+	private Thread thread;
+
+	public AnalysisWorker(String name, Runnable step) {
+		this.name = name;
+		this.step = step;
+	}
+
+	public void start() {
+		// the old thread might have been stopped with a step pending
+		pending.drainPermits();
+		busy.set(false);
+		running = true;
+		thread = new Thread(this, name);
+		thread.start();
+	}
+
+	/** stops the thread and waits until its step finishes */
+	public void stop() {
+		running = false;
+		if (thread == null) {
+			return;
+		}
+		thread.interrupt();
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		thread = null;
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Requests a single run of the step.
+	 *
+	 * @return false if the step was dropped since the previous one is still
+	 * running
+	 */
+	public boolean trigger() {
+		if (busy.compareAndSet(false, true)) {
+			pending.release();
+			return true;
+		}
+		droppedCount.incrementAndGet();
+		return false;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				pending.acquire();
+			} catch (InterruptedException e) {
+				break;
+			}
+			try {
+				step.run();
+			} finally {
+				busy.set(false);
+			}
+		}
+	}
+
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+}
@@ -0,0 +1,17 @@
+package com.harmoneye.schedule;
+
+/**
+ * Source of monotonic time, replaceable in order to test the timing logic on
+ * a plain JVM.
+ */
+public interface Clock {
+
+	long nanoTime();
+
+	Clock SYSTEM = new Clock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+}
@@ -0,0 +1,91 @@
+package com.harmoneye.schedule;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import android.util.Log;
+
+/**
+ * Runs the analysis step on a {@link Timer} thread with the period set by the
+ * {@link AnalysisRateGovernor}. Used where the display frame callbacks are not
+ * available.
+ *
+ * Each step schedules the next one, so that a late step does not cause a
+ * burst of steps catching up. The ticks which were skipped are counted as
+ * missed instead.
+ */
+public class TimerAnalysisScheduler implements AnalysisScheduler {
+
+	private static final String LOG_TAG = "TimerAnalysisScheduler";
+
+	private final Runnable step;
+	private final AnalysisRateGovernor governor;
+	private final long startDelayMillis;
+
+	private Timer timer;
+	/** when the next step is due, in the System.nanoTime() time base */
+	private long nextTickNanos;
+	private volatile long missedTickCount;
+
+	public TimerAnalysisScheduler(Runnable step, AnalysisRateGovernor governor,
+		long startDelayMillis) {
+		this.step = step;
+		this.governor = governor;
+		this.startDelayMillis = startDelayMillis;
+	}
+
+	@Override
+	public synchronized void start() {
+		timer = new Timer("update timer");
+		nextTickNanos = System.nanoTime() + startDelayMillis * 1000000L;
+		scheduleNext(timer, startDelayMillis);
+	}
+
+	private void scheduleNext(final Timer timer, long delayMillis) {
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				tick(timer);
+			}
+		}, delayMillis);
+	}
+
+	private void tick(Timer timer) {
+		governor.runMeasured(step);
+
+		long period = governor.getPeriodNanos();
+		long now = System.nanoTime();
+		nextTickNanos += period;
+		if (nextTickNanos < now) {
+			// drop the ticks we are late for
+			long late = now - nextTickNanos;
+			missedTickCount += late / period + 1;
+			nextTickNanos += (late / period + 1) * period;
+		}
+		synchronized (this) {
+			if (timer == this.timer) {
+				scheduleNext(timer, (nextTickNanos - now) / 1000000L);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+			Log.i(LOG_TAG, "missed analysis ticks: " + missedTickCount + ", "
+				+ governor);
+		}
+	}
+
+	@Override
+	public long getMissedTickCount() {
+		return missedTickCount;
+	}
+
+	@Override
+	public AnalysisRateGovernor getGovernor() {
+		return governor;
+	}
+}
@@ -0,0 +1,92 @@
+package com.harmoneye.schedule;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.Log;
+import android.view.Choreographer;
+
+/**
+ * Runs the analysis step aligned with the display refresh, driven by the
+ * {@link Choreographer} frame callbacks. The step itself runs on a separate
+ * {@link AnalysisWorker} thread. The number of frames between the steps is
+ * set by the {@link AnalysisRateGovernor}.
+ *
+ * Must be started and stopped on the UI thread. Requires API level 16.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class VsyncAnalysisScheduler implements AnalysisScheduler,
+	Choreographer.FrameCallback {
+
+	private static final String LOG_TAG = "VsyncAnalysisScheduler";
+
+	private final long startDelayMillis;
+	private final AnalysisRateGovernor governor;
+	private final VsyncTickGate gate;
+	private final AnalysisWorker worker;
+
+	private boolean running;
+
+	/**
+	 * @param refreshRate - display refresh rate in Hz
+	 */
+	public VsyncAnalysisScheduler(final Runnable step, float refreshRate,
+		final AnalysisRateGovernor governor, long startDelayMillis) {
+		this.startDelayMillis = startDelayMillis;
+		this.governor = governor;
+		long frameIntervalNanos = Math.round(1e9 / refreshRate);
+		gate = new VsyncTickGate(Clock.SYSTEM,
+			frameIntervalNanos,
+			governor.getFrameDivisor(frameIntervalNanos));
+		worker = new AnalysisWorker("analysis", new Runnable() {
+			@Override
+			public void run() {
+				governor.runMeasured(step);
+			}
+		});
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		gate.reset();
+		worker.start();
+		Choreographer.getInstance().postFrameCallbackDelayed(this,
+			startDelayMillis);
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+		Choreographer.getInstance().removeFrameCallback(this);
+		worker.stop();
+		Log.i(LOG_TAG, "missed analysis ticks: " + getMissedTickCount() + ", "
+			+ governor);
+	}
+
+	@Override
+	public void doFrame(long frameTimeNanos) {
+		if (!running) {
+			return;
+		}
+		gate.setDivisor(governor.getFrameDivisor(gate.getFrameIntervalNanos()));
+		// frameTimeNanos is in the System.nanoTime() time base
+		if (gate.onFrame(frameTimeNanos)) {
+			worker.trigger();
+		}
+		Choreographer.getInstance().postFrameCallback(this);
+	}
+
+	@Override
+	public long getMissedTickCount() {
+		return gate.getMissedTickCount() + worker.getDroppedCount();
+	}
+
+	@Override
+	public AnalysisRateGovernor getGovernor() {
+		return governor;
+	}
+
+	public VsyncTickGate getGate() {
+		return gate;
+	}
+}
@@ -0,0 +1,97 @@
+package com.harmoneye.schedule;
+
+/**
+ * Decides on which display frames the analysis step should run.
+ *
+ * The step runs on every n-th frame (the divisor). When frames are skipped
+ * (eg. during a GC pause) or a frame callback comes too late, the due steps
+ * are dropped and counted instead of being caught up in a burst.
+ *
+ * Not thread-safe, must be called from a single thread. The missed tick count
+ * may be read from any thread.
+ */
+public class VsyncTickGate {
+
+	private final Clock clock;
+	private final long frameIntervalNanos;
+	private volatile int divisor;
+
+	private boolean started;
+	private long firstFrameTimeNanos;
+	/** index of the next frame where a step is due */
+	private long nextTickFrame;
+
+	private volatile long missedTickCount;
+
+	/**
+	 * @param frameIntervalNanos - duration of a display frame
+	 * @param divisor - run the step on every divisor-th frame
+	 */
+	public VsyncTickGate(Clock clock, long frameIntervalNanos, int divisor) {
+		if (frameIntervalNanos <= 0) {
+			throw new IllegalArgumentException(
+				"Frame interval must be positive, got: " + frameIntervalNanos);
+		}
+		this.clock = clock;
+		this.frameIntervalNanos = frameIntervalNanos;
+		setDivisor(divisor);
+	}
+
+	/** starts counting the frames again, eg. after a pause */
+	public void reset() {
+		started = false;
+	}
+
+	/**
+	 * @param frameTimeNanos - time when the frame started rendering, in the
+	 * time base of the clock
+	 * @return true if the analysis step should run for this frame
+	 */
+	public boolean onFrame(long frameTimeNanos) {
+		if (!started) {
+			started = true;
+			firstFrameTimeNanos = frameTimeNanos;
+			nextTickFrame = 0;
+		}
+
+		long frame = Math.round((frameTimeNanos - firstFrameTimeNanos)
+			/ (double) frameIntervalNanos);
+		if (frame < nextTickFrame) {
+			return false;
+		}
+
+		int divisor = this.divisor;
+		// ticks between the expected one and this frame which were skipped
+		missedTickCount += (frame - nextTickFrame) / divisor;
+		// a late tick moves the following ones, so that two steps are never
+		// closer than the divisor
+		nextTickFrame = frame + divisor;
+
+		// the callback itself came after its frame was over
+		if (clock.nanoTime() - frameTimeNanos > frameIntervalNanos) {
+			missedTickCount++;
+			return false;
+		}
+		return true;
+	}
+
+	public void setDivisor(int divisor) {
+		if (divisor < 1) {
+			throw new IllegalArgumentException("Divisor must be at least 1, got: "
+				+ divisor);
+		}
+		this.divisor = divisor;
+	}
+
+	public int getDivisor() {
+		return divisor;
+	}
+
+	public long getFrameIntervalNanos() {
+		return frameIntervalNanos;
+	}
+
+	public long getMissedTickCount() {
+		return missedTickCount;
+	}
+}
@@ -0,0 +1,179 @@
+package com.harmoneye.trace;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+import android.util.Log;
+
+/**
+ * Records the timeline of the application startup as nested spans on any
+ * thread. The storage is preallocated, recording a span only stores its name,
+ * thread and timestamps.
+ *
+ * Usage:
+ *
+ * <pre>
+ * int span = StartupTrace.begin(&quot;loadTexture&quot;);
+ * ...
+ * StartupTrace.end(span);
+ * </pre>
+ *
+ * Spans are recorded between {@link #start()} and {@link #finish(File)} which
+ * logs the report and writes it as CSV on a background thread. Spans begun on
+ * the same thread while another one is open are nested in it.
+ */
+public final class StartupTrace {
+
+	private static final String TAG = "StartupTrace";
+
+	private static final int MAX_SPANS = 256;
+
+	private static final String[] names = new String[MAX_SPANS];
+	private static final String[] threads = new String[MAX_SPANS];
+	private static final long[] threadIds = new long[MAX_SPANS];
+	private static final long[] startNanos = new long[MAX_SPANS];
+	/** end of the span, 0 if still open */
+	private static final long[] endNanos = new long[MAX_SPANS];
+	private static final int[] depths = new int[MAX_SPANS];
+
+	private static int spanCount;
+	private static long originNanos;
+	private static boolean recording;
+
+	private StartupTrace() {
+	}
+
+	/** starts a new trace, eg. in Activity.onCreate() */
+	public static synchronized void start() {
+		spanCount = 0;
+		originNanos = System.nanoTime();
+		recording = true;
+	}
+
+	public static synchronized boolean isRecording() {
+		return recording;
+	}
+
+	/**
+	 * @return id of the span to be passed to {@link #end(int)}, -1 if the
+	 * span was not recorded
+	 */
+	public static synchronized int begin(String name) {
+		if (!recording || spanCount == MAX_SPANS) {
+			return -1;
+		}
+		long now = System.nanoTime();
+		Thread thread = Thread.currentThread();
+		int span = spanCount++;
+		names[span] = name;
+		threads[span] = thread.getName();
+		threadIds[span] = thread.getId();
+		startNanos[span] = now;
+		endNanos[span] = 0;
+		depths[span] = depthOf(thread.getId(), span);
+		return span;
+	}
+
+	/** depth of a new span = number of spans open on the same thread */
+	private static int depthOf(long threadId, int span) {
+		for (int i = span - 1; i >= 0; i--) {
+			if (threadIds[i] == threadId && endNanos[i] == 0) {
+				return depths[i] + 1;
+			}
+		}
+		return 0;
+	}
+
+	public static synchronized void end(int span) {
+		if (recording && span >= 0 && span < spanCount) {
+			endNanos[span] = System.nanoTime();
+		}
+	}
+
+	/** records an instant event */
+	public static void mark(String name) {
+		end(begin(name));
+	}
+
+	/**
+	 * Stops recording. The spans are copied and the report is logged and
+	 * written to the file on a new thread, so that the caller (eg. the GL
+	 * thread on the first frame) does not wait for it.
+	 *
+	 * @param file - CSV file for the report or null
+	 */
+	public static void finish(final File file) {
+		final int count;
+		final String[] spanNames;
+		final String[] spanThreads;
+		final long[] spanStarts;
+		final long[] spanEnds;
+		final int[] spanDepths;
+		final long origin;
+		synchronized (StartupTrace.class) {
+			if (!recording) {
+				return;
+			}
+			recording = false;
+			// a new trace may be started before the report is written
+			count = spanCount;
+			spanNames = Arrays.copyOf(names, count);
+			spanThreads = Arrays.copyOf(threads, count);
+			spanStarts = Arrays.copyOf(startNanos, count);
+			spanEnds = Arrays.copyOf(endNanos, count);
+			spanDepths = Arrays.copyOf(depths, count);
+			origin = originNanos;
+		}
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				String report = formatReport(count, spanNames, spanThreads,
+					spanStarts, spanEnds, spanDepths, origin);
+				Log.i(TAG, "startup:\n" + report);
+				if (file != null) {
+					writeReport(file, report);
+				}
+			}
+		}, "startup trace report").start();
+	}
+
+	/** one line per span: start, duration, depth, thread, name */
+	private static String formatReport(int count, String[] names,
+		String[] threads, long[] startNanos, long[] endNanos, int[] depths,
+		long originNanos) {
+		StringBuilder report = new StringBuilder();
+		report.append("start_ms,duration_ms,depth,thread,name\n");
+		for (int i = 0; i < count; i++) {
+			long end = endNanos[i] != 0 ? endNanos[i] : startNanos[i];
+			report.append(String.format(Locale.US, "%.3f,%.3f,%d,%s,%s\n",
+				1e-6 * (startNanos[i] - originNanos),
+				1e-6 * (end - startNanos[i]),
+				depths[i],
+				threads[i].replace(',', ' '),
+				names[i]));
+		}
+		return report.toString();
+	}
+
+	private static void writeReport(File file, String report) {
+		Writer writer = null;
+		try {
+			writer = new FileWriter(file);
+			writer.write(report);
+		} catch (IOException e) {
+			Log.w(TAG, "Cannot write the startup report", e);
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+}
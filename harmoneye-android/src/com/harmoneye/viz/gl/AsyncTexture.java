@@ -0,0 +1,343 @@
+package com.harmoneye.viz.gl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.ETC1Util;
+import android.opengl.ETC1Util.ETC1Texture;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import com.harmoneye.trace.StartupTrace;
+
+/**
+ * A texture from a bitmap resource which is decoded on a background thread
+ * and uploaded on the GL thread once it is ready.
+ *
+ * If the GPU supports ETC1, the bitmap is compressed on the first launch and
+ * stored in the PKM format in the cache directory, later launches only read
+ * the compressed file. ETC1 has no alpha channel, so the alpha of a
+ * translucent bitmap is compressed into a second texture which has to be
+ * combined in the shader. Otherwise the bitmap is uploaded uncompressed with
+ * mipmaps.
+ *
+ * The compressed files are named after the texture and the time the
+ * application was installed, so that they are not reused after an update.
+ *
+ * If the bitmap cannot be decoded, the failure is logged and the texture never
+ * becomes ready, see {@link #isFailed()}.
+ */
+public class AsyncTexture {
+
+	private static final String TAG = "AsyncTexture";
+
+	/** change when the compressed files are no longer compatible */
+	private static final int CACHE_VERSION = 1;
+
+	private static final Executor decoder = Executors
+		.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "texture decoder");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+	/** produces the bitmap of the texture, called on the decoder thread */
+	public interface BitmapSource {
+		/** @return the bitmap or null if it cannot be decoded */
+		Bitmap decode(Context context);
+	}
+
+	/**
+	 * result of the decoding, either a bitmap or compressed textures, or
+	 * neither if the decoding failed
+	 */
+	private static class Decoded {
+		Bitmap bitmap;
+		ETC1Texture color;
+		/** alpha in the red channel, null for an opaque texture */
+		ETC1Texture alpha;
+
+		boolean isFailed() {
+			return bitmap == null && color == null;
+		}
+	}
+
+	/** set by the decoder thread, taken by the GL thread */
+	private volatile Decoded decoded;
+
+	private int texture;
+	private int alphaTexture;
+	private boolean released;
+	private boolean failed;
+
+	/**
+	 * Starts decoding the resource. Must be called on the GL thread.
+	 */
+	public AsyncTexture(Context context, final int resource) {
+		this(context, context.getResources().getResourceEntryName(resource),
+			new BitmapSource() {
+				@Override
+				public Bitmap decode(Context context) {
+					return decodeResource(context, resource);
+				}
+			});
+	}
+
+	/**
+	 * Starts decoding the bitmap. Must be called on the GL thread.
+	 *
+	 * @param name - unique name of the texture
+	 */
+	public AsyncTexture(Context context, final String name,
+		final BitmapSource source) {
+		final Context appContext = context.getApplicationContext();
+		final boolean compressed = ETC1Util.isETC1Supported();
+		decoder.execute(new Runnable() {
+			@Override
+			public void run() {
+				int span = StartupTrace.begin("decodeTexture");
+				Decoded result = new Decoded();
+				try {
+					if (compressed) {
+						loadCompressed(appContext, name, source, result);
+					} else {
+						result.bitmap = source.decode(appContext);
+					}
+					if (result.isFailed()) {
+						Log.e(TAG, "Cannot decode the texture " + name);
+					}
+				} catch (RuntimeException e) {
+					// would be lost in the executor
+					Log.e(TAG, "Cannot decode the texture " + name, e);
+					result = new Decoded();
+				} finally {
+					StartupTrace.end(span);
+				}
+				decoded = result;
+			}
+		});
+	}
+
+	/** decodes an ARGB_8888 bitmap without scaling */
+	public static Bitmap decodeResource(Context context, int resource) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		// no pre-scaling
+		options.inScaled = false;
+		options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+		return BitmapFactory.decodeResource(context.getResources(), resource,
+			options);
+	}
+
+	/**
+	 * Reads the compressed textures from the cache or compresses the bitmap
+	 * and stores it. Leaves the result empty if the bitmap cannot be decoded.
+	 */
+	private static void loadCompressed(Context context, String textureName,
+		BitmapSource source, Decoded result) {
+		long installed = new File(context.getApplicationInfo().sourceDir)
+			.lastModified();
+		String name = textureName + "_v" + CACHE_VERSION + "_" + installed;
+		File colorFile = new File(context.getCacheDir(), name + ".pkm");
+		File alphaFile = new File(context.getCacheDir(), name + "_alpha.pkm");
+
+		try {
+			// the color file is written last, so it marks a complete cache
+			if (colorFile.exists()) {
+				result.color = readTexture(colorFile);
+				if (alphaFile.exists()) {
+					result.alpha = readTexture(alphaFile);
+				}
+				return;
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Cannot read the compressed texture " + name, e);
+			result.color = null;
+			result.alpha = null;
+		}
+
+		Bitmap bitmap = source.decode(context);
+		if (bitmap == null) {
+			return;
+		}
+		compress(bitmap, result);
+		bitmap.recycle();
+		try {
+			if (result.alpha != null) {
+				writeTexture(result.alpha, alphaFile);
+			}
+			writeTexture(result.color, colorFile);
+		} catch (IOException e) {
+			Log.w(TAG, "Cannot store the compressed texture " + name, e);
+			colorFile.delete();
+		}
+	}
+
+	/** compresses the color and (if present) the alpha of the bitmap */
+	private static void compress(Bitmap bitmap, Decoded result) {
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int pixelCount = width * height;
+		// RGBA bytes for an ARGB_8888 bitmap
+		ByteBuffer pixels = ByteBuffer.allocateDirect(4 * pixelCount)
+			.order(ByteOrder.nativeOrder());
+		bitmap.copyPixelsToBuffer(pixels);
+
+		boolean hasAlpha = bitmap.hasAlpha();
+		ByteBuffer color = ByteBuffer.allocateDirect(3 * pixelCount)
+			.order(ByteOrder.nativeOrder());
+		ByteBuffer alpha = hasAlpha ? ByteBuffer.allocateDirect(3 * pixelCount)
+			.order(ByteOrder.nativeOrder()) : null;
+		for (int i = 0; i < pixelCount; i++) {
+			color.put(pixels.get(4 * i));
+			color.put(pixels.get(4 * i + 1));
+			color.put(pixels.get(4 * i + 2));
+			if (hasAlpha) {
+				byte a = pixels.get(4 * i + 3);
+				alpha.put(a).put(a).put(a);
+			}
+		}
+		color.position(0);
+		result.color = ETC1Util.compressTexture(color, width, height, 3,
+			3 * width);
+		if (hasAlpha) {
+			alpha.position(0);
+			result.alpha = ETC1Util.compressTexture(alpha, width, height, 3,
+				3 * width);
+		}
+	}
+
+	private static ETC1Texture readTexture(File file) throws IOException {
+		InputStream input = new FileInputStream(file);
+		try {
+			return ETC1Util.createTexture(input);
+		} finally {
+			input.close();
+		}
+	}
+
+	private static void writeTexture(ETC1Texture texture, File file)
+		throws IOException {
+		OutputStream output = new FileOutputStream(file);
+		try {
+			ETC1Util.writeTexture(texture, output);
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Uploads the texture if it was decoded in the meantime. Must be called on
+	 * the GL thread.
+	 *
+	 * @return true if the texture is ready to be drawn, never if it failed
+	 */
+	public boolean upload() {
+		if (texture != 0) {
+			return true;
+		}
+		Decoded result = decoded;
+		if (result == null || released) {
+			return false;
+		}
+		decoded = null;
+		if (result.isFailed()) {
+			failed = true;
+			return false;
+		}
+
+		int span = StartupTrace.begin("uploadTexture");
+		if (result.bitmap != null) {
+			texture = createTexture(GLES20.GL_LINEAR_MIPMAP_LINEAR);
+			GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, result.bitmap, 0);
+			MyGLRenderer.checkGlError("texImage2D");
+			GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+			MyGLRenderer.checkGlError("glGenerateMipmap");
+			result.bitmap.recycle();
+		} else {
+			texture = createTexture(GLES20.GL_LINEAR);
+			ETC1Util.loadTexture(GLES20.GL_TEXTURE_2D, 0, 0, GLES20.GL_RGB,
+				GLES20.GL_UNSIGNED_SHORT_5_6_5, result.color);
+			MyGLRenderer.checkGlError("loadTexture");
+			if (result.alpha != null) {
+				alphaTexture = createTexture(GLES20.GL_LINEAR);
+				ETC1Util.loadTexture(GLES20.GL_TEXTURE_2D, 0, 0, GLES20.GL_RGB,
+					GLES20.GL_UNSIGNED_SHORT_5_6_5, result.alpha);
+				MyGLRenderer.checkGlError("loadTexture");
+			}
+		}
+		StartupTrace.end(span);
+		return true;
+	}
+
+	private int createTexture(int minFilter) {
+		int handle = GlObjects.genTexture();
+		GlState.bindTexture(handle);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_MIN_FILTER,
+			minFilter);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_MAG_FILTER,
+			GLES20.GL_LINEAR);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_WRAP_S,
+			GLES20.GL_CLAMP_TO_EDGE);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_WRAP_T,
+			GLES20.GL_CLAMP_TO_EDGE);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		return handle;
+	}
+
+	/**
+	 * @return true if the bitmap could not be decoded, known on the GL thread
+	 * after the {@link #upload()} which found it
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public int getTexture() {
+		return texture;
+	}
+
+	/** @return the texture with the alpha in the red channel or 0 */
+	public int getAlphaTexture() {
+		return alphaTexture;
+	}
+
+	/**
+	 * Deletes the textures. A bitmap decoded later is not uploaded. Must be
+	 * called on the GL thread.
+	 */
+	public void release() {
+		released = true;
+		GlObjects.deleteTexture(texture);
+		GlObjects.deleteTexture(alphaTexture);
+		texture = 0;
+		alphaTexture = 0;
+		Decoded result = decoded;
+		if (result != null && result.bitmap != null) {
+			result.bitmap.recycle();
+		}
+		decoded = null;
+	}
+}
@@ -0,0 +1,272 @@
+package com.harmoneye.viz.gl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import com.harmoneye.viz.gl.GlState.Blending;
+
+/**
+ * Static shapes rendered once into an offscreen texture and then drawn each
+ * frame as a single textured quad.
+ *
+ * The layer covers only the screen pixels of the square [-extent; extent] in
+ * model coordinates. The texture is aligned to the screen pixel grid, so that
+ * the cached image looks the same as the shapes drawn directly. With
+ * supersampling the layer is rendered in a higher resolution and the bilinear
+ * filtering makes a box filter of it when it is drawn.
+ *
+ * The colors in the texture are premultiplied by alpha, since blending into a
+ * transparent target would otherwise lose the coverage information.
+ */
+public class CachedLayer {
+
+	//@formatter:off
+	private static final String vertexShaderCode =
+		"attribute vec2 position;" +
+		"attribute vec2 texCoord;" +
+		"varying vec2 vTexCoord;" +
+		"void main() {" +
+		"  vTexCoord = texCoord;" +
+		"  gl_Position = vec4(position, 0.0, 1.0);" +
+		"}";
+
+	private static final String fragmentShaderCode =
+		"precision mediump float;" +
+		"uniform sampler2D texture;" +
+		"varying vec2 vTexCoord;" +
+		"void main() {" +
+		"  gl_FragColor = texture2D(texture, vTexCoord);" +
+		"}";
+	//@formatter:on
+
+	private static final int BYTES_PER_FLOAT = 4;
+	/** x, y, s, t */
+	private static final int FLOATS_PER_VERTEX = 4;
+	private static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+	private static final int PADDING_PIXELS = 2;
+
+	private final ShaderProgram program;
+	private final int positionHandle;
+	private final int texCoordHandle;
+	private final int textureHandle;
+
+	/** half-size of the layer in model coordinates */
+	private final float extent;
+
+	private final FloatBuffer quadBuffer;
+
+	private int texture;
+	private int framebuffer;
+
+	/** size of the screen */
+	private int screenWidth;
+	private int screenHeight;
+	/** size of the texture */
+	private int width;
+	private int height;
+	private int supersampling;
+
+	/** MVP matrix mapping the layer to the whole texture */
+	private final float[] layerMvp = new float[16];
+	private final float[] screenToLayer = new float[16];
+
+	private boolean valid;
+
+	public CachedLayer(ShaderProgramRegistry programs, float extent) {
+		this.extent = extent;
+
+		program = programs.getProgram(vertexShaderCode, fragmentShaderCode);
+		positionHandle = program.getAttribLocation("position");
+		texCoordHandle = program.getAttribLocation("texCoord");
+		textureHandle = program.getUniformLocation("texture");
+
+		quadBuffer = ByteBuffer.allocateDirect(4 * VERTEX_STRIDE)
+			.order(ByteOrder.nativeOrder())
+			.asFloatBuffer();
+	}
+
+	/**
+	 * Recreates the texture for the given screen size. The layer has to be
+	 * rendered again afterwards.
+	 *
+	 * @param modelViewProjection - MVP matrix used to draw the shapes on the
+	 * screen
+	 * @param supersampling - 1 for the screen resolution, 2 for 2x2
+	 * supersampling, ...
+	 */
+	public void resize(int screenWidth, int screenHeight,
+		float[] modelViewProjection, int supersampling) {
+		this.screenWidth = screenWidth;
+		this.screenHeight = screenHeight;
+
+		// pixel rectangle covering the layer, the ortho projection maps the
+		// shorter side of the screen to [-1; 1]
+		float pixelsPerUnit = 0.5f * Math.min(screenWidth, screenHeight);
+		float centerX = 0.5f * screenWidth;
+		float centerY = 0.5f * screenHeight;
+		// padding for the lines drawn on the edge
+		float radius = extent * pixelsPerUnit + PADDING_PIXELS;
+		int left = Math.max(0, (int) Math.floor(centerX - radius));
+		int right = Math.min(screenWidth, (int) Math.ceil(centerX + radius));
+		int bottom = Math.max(0, (int) Math.floor(centerY - radius));
+		int top = Math.min(screenHeight, (int) Math.ceil(centerY + radius));
+
+		int[] maxTextureSize = new int[1];
+		GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, maxTextureSize, 0);
+		MyGLRenderer.checkGlError("glGetIntegerv");
+		int pixelSize = Math.max(right - left, top - bottom);
+		while (supersampling > 1 && pixelSize * supersampling > maxTextureSize[0]) {
+			supersampling--;
+		}
+		this.supersampling = supersampling;
+		width = (right - left) * supersampling;
+		height = (top - bottom) * supersampling;
+
+		// the same rectangle in normalized device coordinates
+		float ndcLeft = 2f * left / screenWidth - 1;
+		float ndcRight = 2f * right / screenWidth - 1;
+		float ndcBottom = 2f * bottom / screenHeight - 1;
+		float ndcTop = 2f * top / screenHeight - 1;
+
+		Matrix.setIdentityM(screenToLayer, 0);
+		Matrix.scaleM(screenToLayer, 0,
+			2 / (ndcRight - ndcLeft),
+			2 / (ndcTop - ndcBottom),
+			1);
+		Matrix.translateM(screenToLayer, 0,
+			-0.5f * (ndcLeft + ndcRight),
+			-0.5f * (ndcBottom + ndcTop),
+			0);
+		Matrix.multiplyMM(layerMvp, 0, screenToLayer, 0, modelViewProjection, 0);
+
+		//@formatter:off
+		float[] quad = {
+			ndcLeft, ndcBottom, 0, 0,
+			ndcRight, ndcBottom, 1, 0,
+			ndcLeft, ndcTop, 0, 1,
+			ndcRight, ndcTop, 1, 1 };
+		//@formatter:on
+		quadBuffer.position(0);
+		quadBuffer.put(quad).position(0);
+
+		release();
+		createFramebuffer();
+		valid = false;
+	}
+
+	private void createFramebuffer() {
+		texture = GlObjects.genTexture();
+		GlState.bindTexture(texture);
+		int filter = supersampling > 1 ? GLES20.GL_LINEAR : GLES20.GL_NEAREST;
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_MIN_FILTER,
+			filter);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_MAG_FILTER,
+			filter);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_WRAP_S,
+			GLES20.GL_CLAMP_TO_EDGE);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_WRAP_T,
+			GLES20.GL_CLAMP_TO_EDGE);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width,
+			height, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+		MyGLRenderer.checkGlError("glTexImage2D");
+
+		framebuffer = GlObjects.genFramebuffer();
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+		MyGLRenderer.checkGlError("glBindFramebuffer");
+		GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER,
+			GLES20.GL_COLOR_ATTACHMENT0,
+			GLES20.GL_TEXTURE_2D,
+			texture,
+			0);
+		MyGLRenderer.checkGlError("glFramebufferTexture2D");
+		int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+		MyGLRenderer.checkGlError("glCheckFramebufferStatus");
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+		MyGLRenderer.checkGlError("glBindFramebuffer");
+		if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+			throw new RuntimeException("Incomplete framebuffer: " + status);
+		}
+	}
+
+	/** deletes the texture and the framebuffer */
+	public void release() {
+		GlObjects.deleteFramebuffer(framebuffer);
+		framebuffer = 0;
+		GlObjects.deleteTexture(texture);
+		texture = 0;
+		valid = false;
+	}
+
+	/**
+	 * Starts rendering into the layer. The shapes must be drawn with the
+	 * returned MVP matrix and the rendering finished with {@link #end()}.
+	 */
+	public float[] begin() {
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+		MyGLRenderer.checkGlError("glBindFramebuffer");
+		GLES20.glViewport(0, 0, width, height);
+		MyGLRenderer.checkGlError("glViewport");
+		GLES20.glClearColor(0, 0, 0, 0);
+		MyGLRenderer.checkGlError("glClearColor");
+		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+		MyGLRenderer.checkGlError("glClear");
+		return layerMvp;
+	}
+
+	public void end() {
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+		MyGLRenderer.checkGlError("glBindFramebuffer");
+		GLES20.glViewport(0, 0, screenWidth, screenHeight);
+		MyGLRenderer.checkGlError("glViewport");
+		valid = true;
+	}
+
+	/** draws the cached image to the screen */
+	public void draw() {
+		program.use();
+		GlState.setBlending(Blending.PREMULTIPLIED);
+
+		GlState.bindTexture(0, texture);
+		GLES20.glUniform1i(textureHandle, 0);
+		MyGLRenderer.checkGlError("glUniform1i");
+
+		GlState.setVertexAttribArrays(positionHandle, texCoordHandle);
+		quadBuffer.position(0);
+		GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false,
+			VERTEX_STRIDE, quadBuffer);
+		MyGLRenderer.checkGlError("glVertexAttribPointer");
+		quadBuffer.position(2);
+		GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false,
+			VERTEX_STRIDE, quadBuffer);
+		MyGLRenderer.checkGlError("glVertexAttribPointer");
+
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+		MyGLRenderer.checkGlError("glDrawArrays");
+		RenderCounters.countDrawCall();
+	}
+
+	public boolean isValid() {
+		return valid;
+	}
+
+	/** forces the layer to be rendered again */
+	public void invalidate() {
+		valid = false;
+	}
+
+	public int getSupersampling() {
+		return supersampling;
+	}
+}
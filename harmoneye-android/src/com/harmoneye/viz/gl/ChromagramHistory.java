@@ -0,0 +1,301 @@
+package com.harmoneye.viz.gl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import android.opengl.GLES20;
+
+import com.harmoneye.viz.gl.GlState.Blending;
+import com.harmoneye.viz.scene.FrameSnapshot;
+
+/**
+ * The octave bins of the recent analyzed frames drawn as a band at the bottom
+ * of the screen, the oldest frame on the left and the newest on the right.
+ * The pitch classes go from the bottom up in the order of the sectors given
+ * by the pitch step, and are colored like the sectors, by the distance to the
+ * current key.
+ *
+ * The frames are kept in a ring of texture rows, one luminance byte per bin.
+ * Adding a frame uploads a single row and drawing is a single quad, which
+ * reads the ring from the oldest row by a wrapping offset. So the cost per
+ * frame does not depend on the length of the history. The number of frames
+ * is given by the memory budget of the texture, limited by the maximum
+ * texture size. The time it covers is the number of frames divided by the
+ * analysis rate, eg. 2048 frames last 34 s at 60 frames per second and 205 s
+ * at 10. The history starts again when the number of bins or the pitch step
+ * changes.
+ *
+ * Must be used only on the GL thread.
+ */
+public class ChromagramHistory {
+
+	//@formatter:off
+	private static final String vertexShaderCode =
+		// x, y in [0; 1] within the band
+		"attribute vec2 position;" +
+		// left, bottom, right, top in normalized device coordinates
+		"uniform vec4 bounds;" +
+		"varying vec2 vPosition;" +
+		"void main() {" +
+		"  vPosition = position;" +
+		"  gl_Position = vec4(mix(bounds.xy, bounds.zw, position), 0.0, 1.0);" +
+		"}";
+
+	private static final String fragmentShaderCode =
+	// the offset must address thousands of rows
+	"#ifdef GL_FRAGMENT_PRECISION_HIGH\n" +
+	"precision highp float;\n" +
+	"#else\n" +
+	"precision mediump float;\n" +
+	"#endif\n" +
+	// s: bin, t: frame in the ring
+	"uniform sampler2D history;" +
+	"uniform sampler2D colors;" +
+	// t of the oldest frame
+	"uniform float offset;" +
+	"uniform float halftoneCount;" +
+	"uniform float pitchStep;" +
+	"uniform float hasKey;" +
+	"varying vec2 vPosition;" +
+	"void main() {" +
+	"  float t = fract(vPosition.x + offset);" +
+	"  float value = texture2D(history, vec2(vPosition.y, t)).r;" +
+	"  float position = min(floor(vPosition.y * halftoneCount)," +
+	"    halftoneCount - 1.0);" +
+	"  float pitchClass = mod(position * pitchStep, halftoneCount);" +
+	// the last row of the colors is the gray one used without a key
+	"  float row = mix(halftoneCount, pitchClass, hasKey);" +
+	"  gl_FragColor = vec4(texture2D(colors," +
+	"    vec2((value * 255.0 + 0.5) / 256.0," +
+	"      (row + 0.5) / (halftoneCount + 1.0))).rgb, 1.0);" +
+	"}";
+	//@formatter:on
+
+	private static final int BYTES_PER_FLOAT = 4;
+	private static final float[] QUAD_COORDS = {
+		0, 0,
+		1, 0,
+		0, 1,
+		1, 1 };
+	/** part of the screen height taken by the band if there is no free space */
+	private static final float MIN_HEIGHT_RATIO = 0.25f;
+
+	private static final int HISTORY_UNIT = 0;
+	private static final int COLORS_UNIT = 1;
+
+	private final ShaderProgram program;
+	private final int positionHandle;
+	private final int boundsHandle;
+	private final int historyHandle;
+	private final int colorsHandle;
+	private final int offsetHandle;
+	private final int halftoneCountHandle;
+	private final int pitchStepHandle;
+	private final int hasKeyHandle;
+
+	private final FloatBuffer vertexBuffer;
+	private final int texture;
+	/** sector colors by the pitch class and value */
+	private final SectorColorTexture colors;
+	private final int memoryBudget;
+	private final int maxTextureSize;
+
+	/** size of the ring, 0 if not allocated yet */
+	private int binCount;
+	private int frameCount;
+	/** row of the next frame */
+	private int nextRow;
+	private int halftoneCount;
+	private int pitchStep = 1;
+	/** pitch step of the rows in the ring */
+	private int ringPitchStep;
+	private Integer key;
+	private ByteBuffer row = ByteBuffer.allocateDirect(0);
+
+	private final float[] bounds = new float[4];
+
+	/**
+	 * @param memoryBudget - size of the texture in bytes, ie. the number of
+	 * frames times the number of bins, the time it covers depends on the
+	 * analysis rate
+	 */
+	public ChromagramHistory(ShaderProgramRegistry programs, int memoryBudget) {
+		if (memoryBudget <= 0) {
+			throw new IllegalArgumentException(
+				"The memory budget must be positive, got: " + memoryBudget);
+		}
+		this.memoryBudget = memoryBudget;
+
+		program = programs.getProgram(vertexShaderCode, fragmentShaderCode);
+		positionHandle = program.getAttribLocation("position");
+		boundsHandle = program.getUniformLocation("bounds");
+		historyHandle = program.getUniformLocation("history");
+		colorsHandle = program.getUniformLocation("colors");
+		offsetHandle = program.getUniformLocation("offset");
+		halftoneCountHandle = program.getUniformLocation("halftoneCount");
+		pitchStepHandle = program.getUniformLocation("pitchStep");
+		hasKeyHandle = program.getUniformLocation("hasKey");
+
+		vertexBuffer = ByteBuffer.allocateDirect(QUAD_COORDS.length
+			* BYTES_PER_FLOAT)
+			.order(ByteOrder.nativeOrder())
+			.asFloatBuffer();
+		vertexBuffer.put(QUAD_COORDS).position(0);
+
+		int[] value = new int[1];
+		GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, value, 0);
+		MyGLRenderer.checkGlError("glGetIntegerv");
+		maxTextureSize = value[0];
+
+		texture = GlObjects.genTexture();
+		GlState.bindTexture(texture);
+		// each texel is a bin of a frame, the size is not a power of two and
+		// the offset wraps in the shader
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_MIN_FILTER,
+			GLES20.GL_NEAREST);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_MAG_FILTER,
+			GLES20.GL_NEAREST);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_WRAP_S,
+			GLES20.GL_CLAMP_TO_EDGE);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_WRAP_T,
+			GLES20.GL_CLAMP_TO_EDGE);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		colors = new SectorColorTexture();
+	}
+
+	/**
+	 * Places the band at the bottom, below the dial if there is enough space
+	 * there, otherwise over the bottom of the dial.
+	 */
+	public void resize(int screenWidth, int screenHeight) {
+		float height = Math.max(0.5f * (screenHeight - screenWidth),
+			MIN_HEIGHT_RATIO * screenHeight);
+		bounds[0] = -1;
+		bounds[1] = -1;
+		bounds[2] = 1;
+		bounds[3] = -1 + 2 * height / screenHeight;
+	}
+
+	/**
+	 * @param pitchStep - eg. 1 for straight diagram, 7 for circle of fifths,
+	 * the same as of the sector graph; takes effect with the next added frame
+	 */
+	public void setPitchStep(int pitchStep) {
+		this.pitchStep = pitchStep;
+	}
+
+	/** writes the bins of the frame as the newest row */
+	public void add(FrameSnapshot frame) {
+		double[] bins = frame.getOctaveBins();
+		if (bins.length != binCount || pitchStep != ringPitchStep) {
+			allocate(bins.length);
+		}
+		halftoneCount = frame.getHalftonesPerOctave();
+		key = frame.getKey();
+
+		// the bins in the order of the sectors, see the SectorGraphScene
+		int binsPerHalftone = frame.getBinsPerHalftone();
+		row.position(0);
+		for (int i = 0; i < binCount; i++) {
+			int pitchClass = i / binsPerHalftone;
+			int movedPitchClass = (pitchClass * ringPitchStep) % halftoneCount;
+			int index = movedPitchClass * binsPerHalftone + i % binsPerHalftone;
+			double value = Math.max(Math.min(bins[index], 1), 0);
+			row.put((byte) Math.round(255 * value));
+		}
+		row.position(0);
+
+		GlState.bindTexture(texture);
+		GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D,
+			0,
+			0,
+			nextRow,
+			binCount,
+			1,
+			GLES20.GL_LUMINANCE,
+			GLES20.GL_UNSIGNED_BYTE,
+			row);
+		MyGLRenderer.checkGlError("glTexSubImage2D");
+		nextRow = (nextRow + 1) % frameCount;
+	}
+
+	/** allocates the ring cleared to zeros */
+	private void allocate(int binCount) {
+		this.binCount = binCount;
+		ringPitchStep = pitchStep;
+		frameCount = Math.max(1,
+			Math.min(memoryBudget / binCount, maxTextureSize));
+		nextRow = 0;
+		row = ByteBuffer.allocateDirect(binCount);
+
+		// the rows of the upload are aligned to 4 bytes
+		int stride = (binCount + 3) / 4 * 4;
+		ByteBuffer zeros = ByteBuffer.allocateDirect(stride * frameCount);
+		GlState.bindTexture(texture);
+		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D,
+			0,
+			GLES20.GL_LUMINANCE,
+			binCount,
+			frameCount,
+			0,
+			GLES20.GL_LUMINANCE,
+			GLES20.GL_UNSIGNED_BYTE,
+			zeros);
+		MyGLRenderer.checkGlError("glTexImage2D");
+	}
+
+	public void draw() {
+		if (binCount == 0) {
+			return;
+		}
+		colors.update(key, halftoneCount);
+
+		program.use();
+		GlState.setBlending(Blending.OPAQUE);
+
+		GlState.setVertexAttribArrays(positionHandle);
+		GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false,
+			2 * BYTES_PER_FLOAT, vertexBuffer);
+		MyGLRenderer.checkGlError("glVertexAttribPointer");
+
+		GlState.bindTexture(HISTORY_UNIT, texture);
+		GLES20.glUniform1i(historyHandle, HISTORY_UNIT);
+		MyGLRenderer.checkGlError("glUniform1i");
+		colors.bind(COLORS_UNIT);
+		GLES20.glUniform1i(colorsHandle, COLORS_UNIT);
+		MyGLRenderer.checkGlError("glUniform1i");
+		GLES20.glUniform4fv(boundsHandle, 1, bounds, 0);
+		MyGLRenderer.checkGlError("glUniform4fv");
+		// the next row is the oldest one
+		GLES20.glUniform1f(offsetHandle, (float) nextRow / frameCount);
+		MyGLRenderer.checkGlError("glUniform1f");
+		GLES20.glUniform1f(halftoneCountHandle, halftoneCount);
+		MyGLRenderer.checkGlError("glUniform1f");
+		GLES20.glUniform1f(pitchStepHandle, ringPitchStep);
+		MyGLRenderer.checkGlError("glUniform1f");
+		GLES20.glUniform1f(hasKeyHandle, key != null ? 1 : 0);
+		MyGLRenderer.checkGlError("glUniform1f");
+
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+		MyGLRenderer.checkGlError("glDrawArrays");
+		RenderCounters.countDrawCall();
+	}
+
+	/** @return number of frames the history holds, 0 before the first one */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	public void release() {
+		GlObjects.deleteTexture(texture);
+		colors.release();
+	}
+}
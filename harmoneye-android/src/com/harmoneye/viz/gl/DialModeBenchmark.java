@@ -0,0 +1,115 @@
+package com.harmoneye.viz.gl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+
+import android.content.Context;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import com.harmoneye.viz.gl.MyGLRenderer.DialMode;
+
+/**
+ * Compares the frame times of the dial modes at the size of the display. The
+ * geometry is measured on each {@link RenderTier}, since it relies on the
+ * multi-sampling, the polar dial only without the multi-sampling it is meant
+ * for.
+ *
+ * The frames are rendered offscreen like in the {@link RenderTierProbe}. The
+ * 50th and 90th percentiles of the frame time, the CPU time and the draw
+ * calls per frame are logged and written to dial-benchmark.csv in the output
+ * directory. Must be run on the GL thread.
+ */
+public class DialModeBenchmark {
+
+	private static final String TAG = "DialModeBenchmark";
+
+	private static final int[] BINS_PER_HALFTONE = { 1, 5 };
+	private static final int WARMUP_FRAMES = 30;
+	private static final int MEASURED_FRAMES = 120;
+
+	private final Context context;
+	private final File outputDir;
+	private final int width;
+	private final int height;
+
+	private final FrameTimes frameTimes = new FrameTimes(MEASURED_FRAMES);
+
+	public DialModeBenchmark(Context context, File outputDir) {
+		this.context = context;
+		this.outputDir = outputDir;
+		DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+		width = metrics.widthPixels;
+		height = metrics.heightPixels;
+	}
+
+	public void run() {
+		outputDir.mkdirs();
+		File resultFile = new File(outputDir, "dial-benchmark.csv");
+		try {
+			Writer writer = new FileWriter(resultFile);
+			try {
+				writer.write("dial_mode,tier,bins_per_halftone,p50_ms,p90_ms,"
+					+ "cpu_ms_per_frame,draw_calls_per_frame\n");
+				for (RenderTier tier : RenderTier.values()) {
+					measure(DialMode.GEOMETRY, tier, writer);
+				}
+				measure(DialMode.POLAR_SDF, RenderTier.LOW, writer);
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Cannot write " + resultFile, e);
+		}
+		Log.i(TAG, "dial benchmark at " + width + "x" + height
+			+ ", results in " + resultFile);
+	}
+
+	private void measure(final DialMode dialMode, RenderTier tier,
+		final Writer writer) throws IOException {
+		MultisampleConfigChooser chooser = new MultisampleConfigChooser(tier,
+			false, EGL10.EGL_PBUFFER_BIT);
+		String[] results = OffscreenContext.run(chooser, width, height,
+			new OffscreenContext.Task<String[]>() {
+				@Override
+				public String[] run(EGLConfig config) {
+					return measure(dialMode, config);
+				}
+			});
+		// the requested tier may not be supported
+		RenderTier measured = chooser.getChosenTier();
+		for (int i = 0; i < results.length; i++) {
+			String row = dialMode + "," + measured + ","
+				+ BINS_PER_HALFTONE[i] + "," + results[i];
+			Log.i(TAG, row);
+			writer.write(row + "\n");
+		}
+	}
+
+	/** @return a CSV row of the results for each number of bins */
+	private String[] measure(DialMode dialMode, EGLConfig config) {
+		MyGLRenderer renderer = new MyGLRenderer(context);
+		renderer.setStartupTraceEnabled(false);
+		renderer.setDialMode(dialMode);
+		renderer.onSurfaceCreated(null, config);
+		renderer.onSurfaceChanged(null, width, height);
+		OffscreenRenderBenchmark.waitForTextures(renderer);
+
+		String[] results = new String[BINS_PER_HALFTONE.length];
+		for (int i = 0; i < results.length; i++) {
+			frameTimes.measure(renderer, BINS_PER_HALFTONE[i], WARMUP_FRAMES);
+			results[i] = String.format(Locale.US, "%.3f,%.3f,%.3f,%.1f",
+				1e-6 * frameTimes.getPercentile(0.5),
+				1e-6 * frameTimes.getPercentile(0.9),
+				1e-6 * frameTimes.getCpuNanosPerFrame(),
+				frameTimes.getDrawCallsPerFrame());
+		}
+		return results;
+	}
+}
@@ -0,0 +1,70 @@
+package com.harmoneye.viz.gl;
+
+import java.util.Locale;
+
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Periodically logs the rate of rendered and analyzed frames together with the
+ * CPU time used by the whole process. Comparing the CPU usage at the same
+ * rendered frame rate shows what the interpolation saves. Disabled by
+ * default, the frames are then not counted at all. Must be used from the GL
+ * thread.
+ */
+public class FrameRateMonitor {
+
+	private static final String TAG = "FrameRateMonitor";
+
+	private static final long LOG_PERIOD_NANOS = 5000000000L;
+
+	private boolean enabled;
+	private long periodStartNanos;
+	private long periodStartCpuMillis;
+	private int renderedFrames;
+	private int analyzedFrames;
+
+	/**
+	 * @param newFrame - indicates whether a new analyzed frame is rendered
+	 */
+	public void onFrame(boolean newFrame) {
+		if (!enabled) {
+			return;
+		}
+		long now = System.nanoTime();
+		if (periodStartNanos == 0) {
+			reset(now);
+		}
+		renderedFrames++;
+		if (newFrame) {
+			analyzedFrames++;
+		}
+
+		long elapsedNanos = now - periodStartNanos;
+		if (elapsedNanos >= LOG_PERIOD_NANOS) {
+			long cpuMillis = Process.getElapsedCpuTime() - periodStartCpuMillis;
+			double seconds = 1e-9 * elapsedNanos;
+			Log.i(TAG, String.format(Locale.US,
+				"rendered: %.1f fps, analyzed: %.1f fps, process CPU: %.1f %%",
+				renderedFrames / seconds,
+				analyzedFrames / seconds,
+				0.1 * cpuMillis / seconds));
+			reset(now);
+		}
+	}
+
+	/** the counting starts again on the next frame when enabled */
+	public void setEnabled(boolean enabled) {
+		if (!enabled) {
+			periodStartNanos = 0;
+		}
+		this.enabled = enabled;
+	}
+
+	private void reset(long now) {
+		periodStartNanos = now;
+		periodStartCpuMillis = Process.getElapsedCpuTime();
+		renderedFrames = 0;
+		analyzedFrames = 0;
+	}
+}
@@ -0,0 +1,65 @@
+package com.harmoneye.viz.gl;
+
+import java.util.Arrays;
+
+import android.opengl.GLES20;
+import android.os.Debug;
+
+/**
+ * Times the frames of a {@link MyGLRenderer} driven by synthetic frames. Each
+ * frame waits for the GPU, so the time covers the whole frame. Must be run on
+ * the GL thread with the context of the renderer current.
+ */
+class FrameTimes {
+
+	private final long[] frameNanos;
+	private long cpuNanos;
+	private long drawCalls;
+
+	/** @param frameCount - number of the measured frames */
+	FrameTimes(int frameCount) {
+		frameNanos = new long[frameCount];
+	}
+
+	/** renders the warmup frames and then the measured ones */
+	void measure(MyGLRenderer renderer, int binsPerHalftone, int warmupFrames) {
+		double[] bins = new double[OffscreenRenderBenchmark.HALFTONES_PER_OCTAVE
+			* binsPerHalftone];
+		for (int i = 0; i < warmupFrames; i++) {
+			OffscreenRenderBenchmark.renderFrame(renderer, bins,
+				binsPerHalftone, i);
+		}
+		GLES20.glFinish();
+		MyGLRenderer.checkGlError("glFinish");
+
+		drawCalls = 0;
+		long cpuStart = Debug.threadCpuTimeNanos();
+		for (int i = 0; i < frameNanos.length; i++) {
+			RenderCounters.reset();
+			long start = System.nanoTime();
+			OffscreenRenderBenchmark.renderFrame(renderer, bins,
+				binsPerHalftone, warmupFrames + i);
+			GLES20.glFinish();
+			MyGLRenderer.checkGlError("glFinish");
+			frameNanos[i] = System.nanoTime() - start;
+			drawCalls += RenderCounters.getDrawCalls();
+		}
+		cpuNanos = Debug.threadCpuTimeNanos() - cpuStart;
+		Arrays.sort(frameNanos);
+	}
+
+	/** @param percentile - eg. 0.9 for the 90th percentile */
+	long getPercentile(double percentile) {
+		int index = (int) Math.ceil(percentile * frameNanos.length) - 1;
+		return frameNanos[Math.max(index, 0)];
+	}
+
+	/** @return CPU time of the GL thread, it includes waiting for the GPU */
+	double getCpuNanosPerFrame() {
+		return (double) cpuNanos / frameNanos.length;
+	}
+
+	double getDrawCallsPerFrame() {
+		return (double) drawCalls / frameNanos.length;
+	}
+}
@@ -0,0 +1,171 @@
+package com.harmoneye.viz.gl;
+
+import java.util.Locale;
+
+import android.opengl.GLES20;
+import android.os.Debug;
+
+/**
+ * Creates and deletes the GL objects and keeps count of the live ones, so that
+ * leaks show up in the logs.
+ *
+ * The objects belong to the EGL context they were created in. When a new
+ * context is created, the objects of the previous one are gone with it and
+ * the counts start from zero, see {@link #newContext()}. Must be used only on
+ * the GL thread.
+ */
+public final class GlObjects {
+
+	public enum Type {
+		BUFFER, TEXTURE, FRAMEBUFFER, SHADER, PROGRAM
+	}
+
+	private static final int[] handle = new int[1];
+
+	private static int[] counts = new int[Type.values().length];
+
+	/** the counts put aside by {@link #suspendContext()} */
+	private static int[] suspendedCounts;
+
+	private GlObjects() {
+	}
+
+	/**
+	 * Starts counting the objects of a new context, eg. in
+	 * Renderer.onSurfaceCreated(), which is called only for a new context. The
+	 * context is not compared with the previous one, since the drivers may
+	 * reuse the handles.
+	 */
+	public static void newContext() {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+		GlState.invalidate();
+	}
+
+	/**
+	 * Puts aside the counts of the current context before another context is
+	 * made current for a while, eg. by the {@link OffscreenRenderBenchmark}.
+	 */
+	public static void suspendContext() {
+		suspendedCounts = counts;
+		counts = new int[counts.length];
+		GlState.invalidate();
+	}
+
+	/**
+	 * Returns to the counts put aside by {@link #suspendContext()} once the
+	 * suspended context is current again.
+	 */
+	public static void resumeContext() {
+		if (suspendedCounts == null) {
+			throw new IllegalStateException("No context was suspended");
+		}
+		counts = suspendedCounts;
+		suspendedCounts = null;
+		GlState.invalidate();
+	}
+
+	public static int genBuffer() {
+		GLES20.glGenBuffers(1, handle, 0);
+		MyGLRenderer.checkGlError("glGenBuffers");
+		return created(Type.BUFFER, handle[0]);
+	}
+
+	public static void deleteBuffer(int buffer) {
+		if (buffer != 0) {
+			handle[0] = buffer;
+			GLES20.glDeleteBuffers(1, handle, 0);
+			MyGLRenderer.checkGlError("glDeleteBuffers");
+			counts[Type.BUFFER.ordinal()]--;
+		}
+	}
+
+	public static int genTexture() {
+		GLES20.glGenTextures(1, handle, 0);
+		MyGLRenderer.checkGlError("glGenTextures");
+		return created(Type.TEXTURE, handle[0]);
+	}
+
+	public static void deleteTexture(int texture) {
+		if (texture != 0) {
+			handle[0] = texture;
+			GLES20.glDeleteTextures(1, handle, 0);
+			MyGLRenderer.checkGlError("glDeleteTextures");
+			counts[Type.TEXTURE.ordinal()]--;
+			GlState.textureDeleted(texture);
+		}
+	}
+
+	public static int genFramebuffer() {
+		GLES20.glGenFramebuffers(1, handle, 0);
+		MyGLRenderer.checkGlError("glGenFramebuffers");
+		return created(Type.FRAMEBUFFER, handle[0]);
+	}
+
+	public static void deleteFramebuffer(int framebuffer) {
+		if (framebuffer != 0) {
+			handle[0] = framebuffer;
+			GLES20.glDeleteFramebuffers(1, handle, 0);
+			MyGLRenderer.checkGlError("glDeleteFramebuffers");
+			counts[Type.FRAMEBUFFER.ordinal()]--;
+		}
+	}
+
+	/** counts a shader created elsewhere */
+	public static int addShader(int shader) {
+		return created(Type.SHADER, shader);
+	}
+
+	public static void deleteShader(int shader) {
+		if (shader != 0) {
+			GLES20.glDeleteShader(shader);
+			MyGLRenderer.checkGlError("glDeleteShader");
+			counts[Type.SHADER.ordinal()]--;
+		}
+	}
+
+	/** counts a program created elsewhere */
+	public static int addProgram(int program) {
+		return created(Type.PROGRAM, program);
+	}
+
+	public static void deleteProgram(int program) {
+		if (program != 0) {
+			GLES20.glDeleteProgram(program);
+			MyGLRenderer.checkGlError("glDeleteProgram");
+			counts[Type.PROGRAM.ordinal()]--;
+		}
+	}
+
+	private static int created(Type type, int object) {
+		if (object != 0) {
+			counts[type.ordinal()]++;
+		}
+		return object;
+	}
+
+	public static int getCount(Type type) {
+		return counts[type.ordinal()];
+	}
+
+	/** @return a copy of the counts indexed by the type ordinals */
+	public static int[] getCounts() {
+		return counts.clone();
+	}
+
+	/** the live object counts and the native heap size */
+	public static String describe() {
+		StringBuilder description = new StringBuilder();
+		for (Type type : Type.values()) {
+			description.append(type.name().toLowerCase(Locale.US))
+				.append("s: ")
+				.append(counts[type.ordinal()])
+				.append(", ");
+		}
+		description.append("native heap: ")
+			.append(Debug.getNativeHeapAllocatedSize() / 1024)
+			.append(" kB");
+		return description.toString();
+	}
+}
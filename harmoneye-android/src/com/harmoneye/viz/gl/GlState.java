@@ -0,0 +1,230 @@
+package com.harmoneye.viz.gl;
+
+import android.opengl.GLES20;
+
+/**
+ * Keeps the last values of the GL state set by the shapes and issues only the
+ * calls which change it: the program, the texture bindings, the enabled
+ * vertex attribute arrays and the blending. The issued and skipped calls are
+ * counted in the {@link RenderCounters}.
+ *
+ * The state belongs to the current EGL context, it is unknown again after
+ * {@link #invalidate()}, eg. when the context changes. Any code changing the
+ * tracked state must go through this class. Must be used only on the GL
+ * thread.
+ */
+public final class GlState {
+
+	/** how a shape is combined with what is already drawn */
+	public enum Blending {
+		/** no blending, the shape replaces the destination */
+		OPAQUE,
+		/**
+		 * straight alpha, the destination alpha accumulates the coverage so
+		 * that it can be used as premultiplied later, eg. in a
+		 * {@link CachedLayer}
+		 */
+		ALPHA,
+		/** colors with premultiplied alpha */
+		PREMULTIPLIED;
+
+		/**
+		 * @param colors - RGBA, null for unused colors
+		 * @return OPAQUE if no color is translucent, ALPHA otherwise
+		 */
+		public static Blending forColors(float[]... colors) {
+			for (float[] color : colors) {
+				if (color != null && color[3] < 1) {
+					return ALPHA;
+				}
+			}
+			return OPAQUE;
+		}
+	}
+
+	private static final int UNKNOWN = -1;
+	/** the minimum guaranteed by OpenGL ES 2.0 */
+	private static final int MAX_TEXTURE_UNITS = 8;
+
+	private static int program = UNKNOWN;
+	/** index of the active texture unit */
+	private static int activeUnit = UNKNOWN;
+	private static final int[] textures = new int[MAX_TEXTURE_UNITS];
+	/** bit i is set if the array i is enabled */
+	private static int enabledArrays;
+	/** false if it is not known which arrays are enabled */
+	private static boolean arraysKnown;
+	private static final int[] maxAttribs = new int[1];
+	/** 0 for disabled, 1 for enabled */
+	private static int blendEnabled;
+	/** the last blend function, kept by GL while the blending is disabled */
+	private static Blending blendFunc;
+
+	static {
+		invalidate();
+	}
+
+	private GlState() {
+	}
+
+	/** forgets the state, the next calls are issued unconditionally */
+	public static void invalidate() {
+		program = UNKNOWN;
+		activeUnit = UNKNOWN;
+		for (int i = 0; i < textures.length; i++) {
+			textures[i] = UNKNOWN;
+		}
+		enabledArrays = 0;
+		arraysKnown = false;
+		blendEnabled = UNKNOWN;
+		blendFunc = null;
+	}
+
+	public static void useProgram(int handle) {
+		if (handle == program) {
+			RenderCounters.countSkippedStateChange();
+			return;
+		}
+		GLES20.glUseProgram(handle);
+		MyGLRenderer.checkGlError("glUseProgram");
+		RenderCounters.countStateChange();
+		program = handle;
+	}
+
+	/**
+	 * Binds a 2D texture to the given unit, which becomes the active one.
+	 *
+	 * @param unit - index of the unit, eg. 0 for GL_TEXTURE0
+	 */
+	public static void bindTexture(int unit, int texture) {
+		if (unit < 0 || unit >= MAX_TEXTURE_UNITS) {
+			throw new IllegalArgumentException("Texture unit out of range: "
+				+ unit);
+		}
+		if (unit != activeUnit) {
+			GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+			MyGLRenderer.checkGlError("glActiveTexture");
+			RenderCounters.countStateChange();
+			activeUnit = unit;
+		} else {
+			RenderCounters.countSkippedStateChange();
+		}
+		if (texture != textures[unit]) {
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+			MyGLRenderer.checkGlError("glBindTexture");
+			RenderCounters.countStateChange();
+			textures[unit] = texture;
+		} else {
+			RenderCounters.countSkippedStateChange();
+		}
+	}
+
+	/**
+	 * Binds a texture to the active unit, eg. to upload it. The unit does not
+	 * matter for the upload, so no unit is activated unless it is unknown.
+	 */
+	public static void bindTexture(int texture) {
+		bindTexture(activeUnit != UNKNOWN ? activeUnit : 0, texture);
+	}
+
+	/** to be called when a texture was deleted, GL unbinds it */
+	static void textureDeleted(int texture) {
+		for (int i = 0; i < textures.length; i++) {
+			if (textures[i] == texture) {
+				textures[i] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Enables the given vertex attribute array and disables all the other
+	 * ones.
+	 *
+	 * @param index - location of the attribute, -1 for none
+	 */
+	public static void setVertexAttribArrays(int index) {
+		setVertexAttribArrays(index, -1);
+	}
+
+	/**
+	 * Enables the two vertex attribute arrays and disables all the other ones.
+	 * Arrays left enabled after a draw would be fetched by the next draw even
+	 * if its program does not use them.
+	 *
+	 * @param first - location of the attribute, -1 for none
+	 * @param second - location of the attribute, -1 for none
+	 */
+	public static void setVertexAttribArrays(int first, int second) {
+		int arrays = bit(first) | bit(second);
+		if (arraysKnown && arrays == enabledArrays) {
+			RenderCounters.countSkippedStateChange();
+			return;
+		}
+		if (!arraysKnown) {
+			// any of them may be enabled
+			GLES20.glGetIntegerv(GLES20.GL_MAX_VERTEX_ATTRIBS, maxAttribs, 0);
+			MyGLRenderer.checkGlError("glGetIntegerv");
+			int all = maxAttribs[0] >= 32 ? ~0 : (1 << maxAttribs[0]) - 1;
+			enabledArrays = all & ~arrays;
+		}
+		int changed = arrays ^ enabledArrays;
+		for (int i = 0; changed != 0; i++, changed >>>= 1) {
+			if ((changed & 1) != 0) {
+				if ((arrays & (1 << i)) != 0) {
+					GLES20.glEnableVertexAttribArray(i);
+					MyGLRenderer.checkGlError("glEnableVertexAttribArray");
+				} else {
+					GLES20.glDisableVertexAttribArray(i);
+					MyGLRenderer.checkGlError("glDisableVertexAttribArray");
+				}
+				RenderCounters.countStateChange();
+			}
+		}
+		enabledArrays = arrays;
+		arraysKnown = true;
+	}
+
+	private static int bit(int index) {
+		if (index >= 32) {
+			throw new IllegalArgumentException("Attribute index out of range: "
+				+ index);
+		}
+		return index >= 0 ? 1 << index : 0;
+	}
+
+	public static void setBlending(Blending mode) {
+		int enabled = mode != Blending.OPAQUE ? 1 : 0;
+		if (enabled != blendEnabled) {
+			if (enabled == 1) {
+				GLES20.glEnable(GLES20.GL_BLEND);
+				MyGLRenderer.checkGlError("glEnable");
+			} else {
+				GLES20.glDisable(GLES20.GL_BLEND);
+				MyGLRenderer.checkGlError("glDisable");
+			}
+			RenderCounters.countStateChange();
+			blendEnabled = enabled;
+		} else {
+			RenderCounters.countSkippedStateChange();
+		}
+		if (enabled == 0) {
+			return;
+		}
+		if (mode == blendFunc) {
+			RenderCounters.countSkippedStateChange();
+			return;
+		}
+		if (mode == Blending.ALPHA) {
+			GLES20.glBlendFuncSeparate(GLES20.GL_SRC_ALPHA,
+				GLES20.GL_ONE_MINUS_SRC_ALPHA,
+				GLES20.GL_ONE,
+				GLES20.GL_ONE_MINUS_SRC_ALPHA);
+			MyGLRenderer.checkGlError("glBlendFuncSeparate");
+		} else {
+			GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+			MyGLRenderer.checkGlError("glBlendFunc");
+		}
+		RenderCounters.countStateChange();
+		blendFunc = mode;
+	}
+}
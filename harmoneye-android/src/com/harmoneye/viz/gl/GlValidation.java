@@ -0,0 +1,89 @@
+package com.harmoneye.viz.gl;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Checking of OpenGL errors which can be switched on or off at startup.
+ *
+ * <p>
+ * In the validation mode every {@link #check(String)} calls glGetError() and
+ * fails with the name of the operation. Otherwise the per-call checks do
+ * nothing, since glGetError() may force a pipeline sync on tiled mobile GPUs,
+ * and there is only a single {@link #checkFrame()} per frame which counts the
+ * frames with errors and logs them.
+ * </p>
+ *
+ * <p>
+ * Each GL call of the renderer is followed by a check, so that an error is
+ * reported at the call which caused it. The exceptions are the
+ * {@link ProgramBinaryCache}, which clears the error of a rejected binary
+ * itself, and the ShaderHelper, which checks the compile and link status.
+ * </p>
+ */
+public class GlValidation {
+
+	private static final String TAG = "GlValidation";
+
+	private static boolean enabled;
+
+	/** number of frames where an error was found by checkFrame() */
+	private static int erroneousFrameCount;
+
+	private GlValidation() {
+	}
+
+	/** Should be set before the GL thread starts rendering. */
+	public static void setEnabled(boolean enabled) {
+		GlValidation.enabled = enabled;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Checks errors of the OpenGL call(s) made just before, only in the
+	 * validation mode.
+	 *
+	 * @param glOperation - Name of the OpenGL call to check.
+	 * @throws RuntimeException if there was an error
+	 */
+	public static void check(String glOperation) {
+		if (enabled) {
+			int error;
+			while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+				Log.e(TAG, glOperation + ": glError " + error);
+				throw new RuntimeException(glOperation + ": glError " + error);
+			}
+		}
+	}
+
+	/**
+	 * Aggregated check at the end of a frame. In the validation mode it fails
+	 * like {@link #check(String)}, otherwise it just counts and logs the error.
+	 */
+	public static void checkFrame() {
+		if (enabled) {
+			check("frame");
+			return;
+		}
+		int error = GLES20.glGetError();
+		if (error == GLES20.GL_NO_ERROR) {
+			return;
+		}
+		// there may be more error flags set
+		while (GLES20.glGetError() != GLES20.GL_NO_ERROR) {
+		}
+		erroneousFrameCount++;
+		// log only the 1st, 2nd, 4th, 8th, ... occurrence not to flood the log
+		if ((erroneousFrameCount & (erroneousFrameCount - 1)) == 0) {
+			Log.w(TAG, "glError " + error + " during a frame ("
+				+ erroneousFrameCount + " frames with errors so far)");
+		}
+	}
+
+	public static int getErroneousFrameCount() {
+		return erroneousFrameCount;
+	}
+}
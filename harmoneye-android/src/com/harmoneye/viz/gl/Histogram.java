@@ -0,0 +1,75 @@
+package com.harmoneye.viz.gl;
+
+import java.util.Arrays;
+
+/**
+ * Distribution of non-negative values in buckets of equal width, allocated
+ * once so that adding a value never allocates. Values beyond the last bucket
+ * are counted in the last one, the maximum is kept exactly.
+ */
+public class Histogram {
+
+	private final long bucketWidth;
+	private final int[] counts;
+	private int total;
+	private long max;
+
+	/**
+	 * @param bucketWidth - resolution of the percentiles
+	 * @param bucketCount - number of buckets, the values up to (bucketWidth *
+	 * bucketCount) are resolved
+	 */
+	public Histogram(long bucketWidth, int bucketCount) {
+		if (bucketWidth <= 0 || bucketCount <= 0) {
+			throw new IllegalArgumentException(
+				"Bucket width and count must be positive, got: " + bucketWidth
+					+ ", " + bucketCount);
+		}
+		this.bucketWidth = bucketWidth;
+		counts = new int[bucketCount];
+	}
+
+	public void add(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		int bucket = (int) Math.min(counts.length - 1, value / bucketWidth);
+		counts[bucket]++;
+		total++;
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * @param percentile - from (0; 1], eg. 0.95
+	 * @return upper bound of the bucket containing the percentile (at most the
+	 * maximum) or 0 if there are no values
+	 */
+	public long getPercentile(double percentile) {
+		if (total == 0) {
+			return 0;
+		}
+		int rank = Math.max(1, (int) Math.ceil(percentile * total));
+		int seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(max, (i + 1) * bucketWidth);
+			}
+		}
+		return max;
+	}
+
+	public int getCount() {
+		return total;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public void clear() {
+		Arrays.fill(counts, 0);
+		total = 0;
+		max = 0;
+	}
+}
@@ -0,0 +1,94 @@
+package com.harmoneye.viz.gl;
+
+import java.util.Locale;
+
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Compares the CPU time of the whole process without and with the
+ * interpolation, ie. rendering once per analyzed frame versus rendering
+ * continuously at the display rate. Each mode runs live for a while and the
+ * rendered frame rate and the CPU usage are logged. The analysis must be
+ * running meanwhile, the original mode is restored at the end.
+ *
+ * Must be started on the UI thread.
+ */
+class InterpolationBenchmark {
+
+	private static final String TAG = "InterpolationBenchmark";
+
+	/** time for the frame rate to settle after switching the mode */
+	private static final long SETTLE_MILLIS = 2000;
+	private static final long MEASURE_MILLIS = 10000;
+	private static final boolean[] MODES = { false, true };
+
+	private final MyGLSurfaceView view;
+	private final Runnable onFinished;
+	private final boolean originalMode;
+	private final double[] cpuPercents = new double[MODES.length];
+
+	private int modeIndex;
+	private long startNanos;
+	private long startCpuMillis;
+	private long startFrames;
+
+	/** @param onFinished - run on the UI thread when done, may be null */
+	InterpolationBenchmark(MyGLSurfaceView view, Runnable onFinished) {
+		this.view = view;
+		this.onFinished = onFinished;
+		originalMode = view.isInterpolationEnabled();
+	}
+
+	void start() {
+		modeIndex = 0;
+		switchMode();
+	}
+
+	private void switchMode() {
+		view.setInterpolationEnabled(MODES[modeIndex]);
+		view.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				beginMeasurement();
+			}
+		}, SETTLE_MILLIS);
+	}
+
+	private void beginMeasurement() {
+		startNanos = System.nanoTime();
+		startCpuMillis = Process.getElapsedCpuTime();
+		startFrames = view.getRenderedFrameCount();
+		view.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				endMeasurement();
+			}
+		}, MEASURE_MILLIS);
+	}
+
+	private void endMeasurement() {
+		double seconds = 1e-9 * (System.nanoTime() - startNanos);
+		long cpuMillis = Process.getElapsedCpuTime() - startCpuMillis;
+		long frames = view.getRenderedFrameCount() - startFrames;
+		cpuPercents[modeIndex] = 0.1 * cpuMillis / seconds;
+		Log.i(TAG, String.format(Locale.US,
+			"interpolation: %b, rendered: %.1f fps, process CPU: %.1f %%",
+			MODES[modeIndex],
+			frames / seconds,
+			cpuPercents[modeIndex]));
+
+		modeIndex++;
+		if (modeIndex < MODES.length) {
+			switchMode();
+			return;
+		}
+		Log.i(TAG, String.format(Locale.US,
+			"the interpolation costs %+.1f %% of CPU",
+			cpuPercents[1] - cpuPercents[0]));
+		view.setInterpolationEnabled(originalMode);
+		if (onFinished != null) {
+			onFinished.run();
+		}
+	}
+}
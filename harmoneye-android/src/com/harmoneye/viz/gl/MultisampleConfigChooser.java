@@ -7,130 +7,139 @@ import javax.microedition.khronos.egl.EGLDisplay;
 import android.opengl.GLSurfaceView.EGLConfigChooser;
 import android.util.Log;
 
-// Source: https://code.google.com/p/gdc2011-android-opengl/
+// Based on: https://code.google.com/p/gdc2011-android-opengl/
 // License: Apache License 2.0
 
-// This class shows how to use multisampling. To use this, call
-//   myGLSurfaceView.setEGLConfigChooser(new MultisampleConfigChooser());
-// before calling setRenderer(). Multisampling will probably slow down
-// your app -- measure performance carefully and decide if the vastly
-// improved visual quality is worth the cost.
+/**
+ * Chooses an RGB565 config of a {@link RenderTier}, without a depth buffer.
+ *
+ * If the tier is not supported with the normal multi-sampling, the coverage
+ * multi-sampling of the nVidia Tegra is tried. If neither is supported, the
+ * next cheaper tier is tried. The tier which was actually chosen is known
+ * once {@link #chooseConfig(EGL10, EGLDisplay)} was called, ie. on the GL
+ * thread when the surface is created.
+ */
 public class MultisampleConfigChooser implements EGLConfigChooser {
 
-	private static final String LOG_TAG = "GDC11";
+	private static final String LOG_TAG = "MultisampleConfigChooser";
 
-	private int[] value;
-	private boolean msaaEnabled;
+	private static final int EGL_OPENGL_ES2_BIT = 4;
+	// See the EGL_NV_coverage_sample documentation.
+	static final int EGL_COVERAGE_BUFFERS_NV = 0x30E0;
+	static final int EGL_COVERAGE_SAMPLES_NV = 0x30E1;
+
+	private final RenderTier tier;
+	private final boolean stencil;
+	private final int surfaceType;
+
+	private final int[] value = new int[1];
+	private volatile RenderTier chosenTier;
+
+	/** chooses a window config */
+	public MultisampleConfigChooser(RenderTier tier, boolean stencil) {
+		this(tier, stencil, EGL10.EGL_WINDOW_BIT);
+	}
+
+	/**
+	 * @param tier - the best tier to try
+	 * @param stencil - true to request an 8-bit stencil buffer
+	 * @param surfaceType - eg. EGL10.EGL_PBUFFER_BIT for an offscreen surface
+	 */
+	public MultisampleConfigChooser(RenderTier tier, boolean stencil,
+		int surfaceType) {
+		this.tier = tier;
+		this.stencil = stencil;
+		this.surfaceType = surfaceType;
+	}
 
 	@Override
 	public EGLConfig chooseConfig(EGL10 egl, EGLDisplay display) {
-		value = new int[1];
+		for (RenderTier t = tier; t != null; t = t.lower()) {
+			EGLConfig config = selectConfig(egl, display, getConfigSpec(t,
+				false));
+			boolean coverageAa = false;
+			if (config == null && t.getSamples() > 0) {
+				config = selectConfig(egl, display, getConfigSpec(t, true));
+				coverageAa = config != null;
+			}
+			if (config != null) {
+				chosenTier = t;
+				Log.i(LOG_TAG, "chosen tier " + t
+					+ (coverageAa ? " with coverage AA" : ""));
+				return config;
+			}
+		}
+		throw new IllegalArgumentException("No configs match configSpec");
+	}
 
-		// Try to find a normal multisample configuration first.
+	private int[] getConfigSpec(RenderTier tier, boolean coverage) {
+		int samples = tier.getSamples();
 		//@formatter:off
-		int[] configSpec = {
+		return new int[] {
 			EGL10.EGL_RED_SIZE, 5,
 			EGL10.EGL_GREEN_SIZE, 6,
 			EGL10.EGL_BLUE_SIZE, 5,
-			EGL10.EGL_DEPTH_SIZE, 16,
+			EGL10.EGL_DEPTH_SIZE, 0,
+			EGL10.EGL_STENCIL_SIZE, stencil ? 8 : 0,
+			EGL10.EGL_SURFACE_TYPE, surfaceType,
 			// Requires that setEGLContextClientVersion(2) is called on the view.
-			EGL10.EGL_RENDERABLE_TYPE, 4 /* EGL_OPENGL_ES2_BIT */,
-			EGL10.EGL_SAMPLE_BUFFERS, 1 /* true */,
-			EGL10.EGL_SAMPLES, 2,
+			EGL10.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT,
+			coverage ? EGL_COVERAGE_BUFFERS_NV : EGL10.EGL_SAMPLE_BUFFERS,
+				samples > 0 ? 1 : 0,
+			coverage ? EGL_COVERAGE_SAMPLES_NV : EGL10.EGL_SAMPLES, samples,
 			EGL10.EGL_NONE };
 		//@formatter:on
+	}
 
+	/** @return the best matching config or null if there is none */
+	private EGLConfig selectConfig(EGL10 egl, EGLDisplay display,
+		int[] configSpec) {
 		if (!egl.eglChooseConfig(display, configSpec, null, 0, value)) {
 			throw new IllegalArgumentException("eglChooseConfig failed");
 		}
 		int numConfigs = value[0];
-
 		if (numConfigs <= 0) {
-			// No normal multisampling config was found. Try to create a
-			// converage multisampling configuration, for the nVidia Tegra2.
-			// See the EGL_NV_coverage_sample documentation.
-
-			final int EGL_COVERAGE_BUFFERS_NV = 0x30E0;
-			final int EGL_COVERAGE_SAMPLES_NV = 0x30E1;
-
-			//@formatter:off
-			configSpec = new int[] {
-				EGL10.EGL_RED_SIZE, 5,
-				EGL10.EGL_GREEN_SIZE, 6,
-				EGL10.EGL_BLUE_SIZE, 5,
-				EGL10.EGL_DEPTH_SIZE, 16,
-				EGL10.EGL_RENDERABLE_TYPE, 4 /* EGL_OPENGL_ES2_BIT */,
-				EGL_COVERAGE_BUFFERS_NV, 1 /* true */,
-				EGL_COVERAGE_SAMPLES_NV, 2, /* always 5 in practice on tegra 2 */
-				EGL10.EGL_NONE };
-		//@formatter:on
-
-			if (!egl.eglChooseConfig(display, configSpec, null, 0, value)) {
-				throw new IllegalArgumentException("2nd eglChooseConfig failed");
-			}
-			numConfigs = value[0];
-
-			if (numConfigs <= 0) {
-				// Give up, try without multisampling.
-				//@formatter:off
-				configSpec = new int[] {
-					EGL10.EGL_RED_SIZE, 5,
-					EGL10.EGL_GREEN_SIZE, 6,
-					EGL10.EGL_BLUE_SIZE, 5,
-					EGL10.EGL_DEPTH_SIZE, 16,
-					EGL10.EGL_RENDERABLE_TYPE, 4 /* EGL_OPENGL_ES2_BIT */,
-					EGL10.EGL_NONE };
-				//@formatter:on
-
-				if (!egl.eglChooseConfig(display, configSpec, null, 0, value)) {
-					throw new IllegalArgumentException("3rd eglChooseConfig failed");
-				}
-				numConfigs = value[0];
-
-				if (numConfigs <= 0) {
-					throw new IllegalArgumentException("No configs match configSpec");
-				}
-			} else {
-				msaaEnabled = true;
-			}
+			return null;
 		}
-
-		// Get all matching configurations.
 		EGLConfig[] configs = new EGLConfig[numConfigs];
-		if (!egl.eglChooseConfig(display, configSpec, configs, numConfigs, value)) {
+		if (!egl.eglChooseConfig(display, configSpec, configs, numConfigs,
+			value)) {
 			throw new IllegalArgumentException("data eglChooseConfig failed");
 		}
 
 		// CAUTION! eglChooseConfigs returns configs with higher bit depth
 		// first: Even though we asked for rgb565 configurations, rgb888
 		// configurations are considered to be "better" and returned first.
-		// You need to explicitly filter the data returned by eglChooseConfig!
-		int index = -1;
-		for (int i = 0; i < configs.length; ++i) {
-			if (findConfigAttrib(egl, display, configs[i], EGL10.EGL_RED_SIZE, 0) == 5) {
-				index = i;
-				break;
+		// The sizes are minimums, so a depth buffer may be included too.
+		EGLConfig fallback = null;
+		for (EGLConfig config : configs) {
+			if (findConfigAttrib(egl, display, config, EGL10.EGL_RED_SIZE, 0) != 5) {
+				continue;
+			}
+			if (findConfigAttrib(egl, display, config, EGL10.EGL_DEPTH_SIZE, 0) == 0) {
+				return config;
+			}
+			if (fallback == null) {
+				fallback = config;
 			}
 		}
-		if (index == -1) {
+		if (fallback == null) {
 			Log.w(LOG_TAG, "Did not find sane config, using first");
+			fallback = configs[0];
 		}
-		EGLConfig config = configs.length > 0 ? configs[index] : null;
-		if (config == null) {
-			throw new IllegalArgumentException("No config chosen");
-		}
-		return config;
+		return fallback;
 	}
 
-	private int findConfigAttrib(EGL10 egl, EGLDisplay display, EGLConfig config,
-		int attribute, int defaultValue) {
+	private int findConfigAttrib(EGL10 egl, EGLDisplay display,
+		EGLConfig config, int attribute, int defaultValue) {
 		if (egl.eglGetConfigAttrib(display, config, attribute, value)) {
 			return value[0];
 		}
 		return defaultValue;
 	}
 
-	public boolean isMsaaEnabled() {
-		return msaaEnabled;
+	/** @return the tier of the chosen config or null if not chosen yet */
+	public RenderTier getChosenTier() {
+		return chosenTier;
 	}
 }
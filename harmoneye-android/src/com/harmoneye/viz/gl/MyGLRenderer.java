@@ -15,7 +15,12 @@
  */
 package com.harmoneye.viz.gl;
 
+import java.io.File;
+
+import javax.microedition.khronos.egl.EGL10;
 import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
 import javax.microedition.khronos.opengles.GL10;
 
 import android.content.Context;
@@ -26,10 +31,19 @@ import android.util.Log;
 
 import com.harmoneye.analysis.MusicAnalyzer.AnalyzedFrame;
 import com.harmoneye.android.R;
+import com.harmoneye.trace.StartupTrace;
+import com.harmoneye.viz.gl.RenderProfiler.Section;
+import com.harmoneye.viz.gl.shape.AtlasBatch;
+import com.harmoneye.viz.gl.shape.BatchedCircularSectorGraph;
 import com.harmoneye.viz.gl.shape.Circle;
 import com.harmoneye.viz.gl.shape.CircularGrid;
 import com.harmoneye.viz.gl.shape.CircularSectorGraph;
+import com.harmoneye.viz.gl.shape.GpuCircularSectorGraph;
+import com.harmoneye.viz.gl.shape.PolarDial;
+import com.harmoneye.viz.gl.shape.SectorGraph;
 import com.harmoneye.viz.gl.shape.TexturedQuad;
+import com.harmoneye.viz.scene.FrameSnapshot;
+import com.harmoneye.viz.scene.Transforms;
 
 /**
  * Provides drawing instructions for a GLSurfaceView object. This class must
@@ -42,38 +56,150 @@ import com.harmoneye.viz.gl.shape.TexturedQuad;
  */
 public class MyGLRenderer implements GLSurfaceView.Renderer {
 
+	/** how the sector graph is drawn */
+	public enum SectorGraphMode {
+		/** one draw call per sector */
+		PER_SECTOR,
+		/** all sectors in a single draw call from a streaming VBO */
+		BATCHED,
+		/**
+		 * sectors built by the vertex shader, only bin values uploaded;
+		 * frames beyond the shader limits are drawn batched
+		 */
+		GPU
+	}
+
+	/** how the dial is drawn */
+	public enum DialMode {
+		/** lines and triangles, smoothed by the multi-sampling if any */
+		GEOMETRY,
+		/**
+		 * a single quad shaded in polar coordinates with its own
+		 * anti-aliasing, meant for a surface without multi-sampling
+		 */
+		POLAR_SDF
+	}
+
 	private static final String TAG = "MyGLRenderer";
 
 	private static final int GL_COVERAGE_BUFFER_BIT_NV = 0x8000;
 
 	private static final float OUTER_CIRCLE_SCALE = 0.9f;
 	private static final float INNER_CIRCLE_SCALE = 0.1f;
+	private static final float LINE_WIDTH = 2f;
+	/** distance of the key circle from the center */
+	private static final float KEY_CIRCLE_DISTANCE = 0.72f;
+	private static final float KEY_CIRCLE_RADIUS = 0.12f;
+	private static final int GRID_RAYS = 12;
+	/**
+	 * 4369 frames of 60 bins, at 60 analyzed frames per second eg. 34 s if
+	 * the maximum texture size is 2048, 68 s if it is 4096, 73 s above
+	 */
+	private static final int DEFAULT_HISTORY_BUDGET = 256 * 1024;
+	private static final float[] MID_GREY = { 0.35f, 0.35f, 0.35f, 1.0f };
+	private static final float[] DARK_GREY = { 0.1f, 0.1f, 0.1f, 1.0f };
 
 	private final float[] modelViewProjection = new float[16];
 	private final float[] projection = new float[16];
 	private final float[] view = new float[16];
 
-	private CircularSectorGraph circularSectorGraph;
+	private volatile SectorGraphMode sectorGraphMode = SectorGraphMode.BATCHED;
+	private SectorGraph circularSectorGraph;
+	/** mode of the current sector graph, GL thread only */
+	private SectorGraphMode createdSectorGraphMode;
 	private Circle outerCircle;
 	private Circle innerCircle;
 	private CircularGrid circularGrid;
+	private volatile DialMode dialMode = DialMode.GEOMETRY;
+	/** the order of the pitch classes on the dial and in the history */
+	private volatile int pitchStep = 1;
+	/** created when the mode is first used, GL thread only */
+	private PolarDial polarDial;
 	private TexturedQuad introLogo;
-	private TexturedQuad toneNames;
+	/** overlays drawn from the atlas, eg. the tone names */
+	private TextureAtlas overlayAtlas;
+	private AtlasBatch overlays;
+	private int toneNamesRegion;
 
-	/** indicates whether multi-sample anti-aliasing is enabled */
+	/** static layers below and above the sector graph */
+	private CachedLayer underLayer;
+	private CachedLayer overLayer;
+	private boolean layerCacheEnabled = true;
+
+	/**
+	 * indicates whether multi-sample anti-aliasing is enabled, known from the
+	 * config of the surface
+	 */
 	private boolean msaaEnabled;
+	/** the NV coverage sampling, its buffer must be cleared */
+	private boolean coverageAaEnabled;
 
 	private boolean initialized;
 
-	private boolean hasValue;
-
 	private Context activityContext;
 
-	private AnalyzedFrame frame;
+	/**
+	 * Frames passed from the analysis thread to the GL thread. The producer
+	 * side is used only in {@link #setValue(AnalyzedFrame)}.
+	 */
+	private final TripleBuffer<FrameSnapshot> frames =
+		new TripleBuffer<FrameSnapshot>(new FrameSnapshot(),
+			new FrameSnapshot(), new FrameSnapshot());
+	/** number of the last produced frame, analysis thread only */
+	private long producedFrameCount;
+
+	/** the frame being rendered, GL thread only */
+	private FrameSnapshot frame;
+
+	/**
+	 * When interpolating, each new frame is blended in from the previously
+	 * displayed state over (smoothing * analysis period). The display is thus
+	 * delayed by about one analysis period.
+	 */
+	private volatile boolean interpolationEnabled;
+	private volatile float smoothing = 1;
+	/** interpolationEnabled read once per frame, GL thread only */
+	private boolean interpolating;
+	/** what was displayed when the current frame arrived */
+	private final FrameSnapshot previousFrame = new FrameSnapshot();
+	private final FrameSnapshot currentFrame = new FrameSnapshot();
+	private float interpolationMix = 1;
+	/** time between the last two frames */
+	private long analysisPeriodNanos;
+
+	private final FrameRateMonitor frameRateMonitor = new FrameRateMonitor();
+	private volatile boolean frameRateLogEnabled;
+	private volatile long renderedFrameCount;
+
+	private final RenderProfiler profiler = new RenderProfiler();
+	private volatile boolean profilerEnabled;
+	private volatile boolean profilerHudVisible;
+	private volatile boolean profileExportRequested;
+	/** created only while visible, GL thread only */
+	private ProfilerHud profilerHud;
+	private volatile boolean historyVisible;
+	private volatile int historyBudget = DEFAULT_HISTORY_BUDGET;
+	/** records only while visible, GL thread only */
+	private ChromagramHistory history;
+	private int surfaceWidth;
+	private int surfaceHeight;
 
 	private Circle keyCircle;
 
 	private float[] keyCircleModel = new float[16];
+	private float[] keyCircleMvp = new float[16];
+
+	/** programs of the current EGL context */
+	private ShaderProgramRegistry programs;
+
+	private volatile boolean sectorGraphBenchmarkRequested;
+
+	/** false for the offscreen renderers which are not part of the startup */
+	private volatile boolean startupTraceEnabled = true;
+	/** indicates whether a frame past the intro was rendered, GL thread only */
+	private boolean firstFrameRendered;
+	/** run after the first frame past the intro, GL thread only */
+	private Runnable firstFrameTask;
 
 	public MyGLRenderer(Context context) {
 		this.activityContext = context;
@@ -81,67 +207,372 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 
 	@Override
 	public void onSurfaceCreated(GL10 unused, EGLConfig config) {
+		detectAntiAliasing(config);
+		// called only for a new context, any objects of a previous context
+		// are gone with it, while a preserved context does not get here
+		GlObjects.newContext();
+
+		int span = startupTraceEnabled ? StartupTrace.begin("onSurfaceCreated")
+			: -1;
 		GLES20.glClearColor(0.1f, 0.1f, 0.1f, 1.0f);
+		checkGlError("glClearColor");
 
 		GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+		checkGlError("glDisable");
 		GLES20.glDisable(GLES20.GL_DITHER);
-
-		circularSectorGraph = new CircularSectorGraph(OUTER_CIRCLE_SCALE);
-		float[] midGrey = new float[] { 0.35f, 0.35f, 0.35f, 1.0f };
-		float[] darkGrey = new float[] { 0.1f, 0.1f, 0.1f, 1.0f };
-		outerCircle = new Circle(100, OUTER_CIRCLE_SCALE, null, midGrey);
-		innerCircle = new Circle(30, INNER_CIRCLE_SCALE, darkGrey, midGrey);
-		keyCircle = new Circle(30, 0.12f, null, midGrey);
-		circularGrid = new CircularGrid(12, OUTER_CIRCLE_SCALE, midGrey);
-		introLogo = new TexturedQuad(activityContext, R.drawable.intro, 0.6f);
-		toneNames = new TexturedQuad(activityContext,
-			R.drawable.tone_name_circle, OUTER_CIRCLE_SCALE);
+		checkGlError("glDisable");
+
+		programs = new ShaderProgramRegistry(
+			ProgramBinaryCache.create(activityContext));
+		createdSectorGraphMode = sectorGraphMode;
+		circularSectorGraph = createSectorGraph(createdSectorGraphMode);
+		outerCircle = new Circle(programs, 100, OUTER_CIRCLE_SCALE, null,
+			MID_GREY);
+		innerCircle = new Circle(programs, 30, INNER_CIRCLE_SCALE, DARK_GREY,
+			MID_GREY);
+		keyCircle = new Circle(programs, 30, KEY_CIRCLE_RADIUS, null,
+			MID_GREY);
+		circularGrid = new CircularGrid(programs, GRID_RAYS,
+			OUTER_CIRCLE_SCALE, MID_GREY);
+		polarDial = null;
+		// the intro is not needed again once a frame was analyzed
+		if (frame == null || frame.isEmpty()) {
+			introLogo = new TexturedQuad(activityContext, programs,
+				R.drawable.intro, 0.6f);
+		} else {
+			introLogo = null;
+		}
+		overlayAtlas = new TextureAtlas(activityContext, "overlays",
+			new int[] { R.drawable.tone_name_circle });
+		toneNamesRegion = overlayAtlas.getRegion(R.drawable.tone_name_circle);
+		overlays = new AtlasBatch(activityContext, programs, overlayAtlas);
+		underLayer = new CachedLayer(programs, OUTER_CIRCLE_SCALE);
+		overLayer = new CachedLayer(programs, INNER_CIRCLE_SCALE);
+		// created again when drawn
+		profilerHud = null;
+		history = null;
 		initialized = true;
+		StartupTrace.end(span);
 	}
 
 	@Override
 	public void onDrawFrame(GL10 unused) {
-		boolean introEnabled = !hasValue;
+		profiler.setEnabled(profilerEnabled || profilerHudVisible);
+		profiler.beginFrame();
+		frame = frames.acquire();
+		boolean newFrame = frame.getSequence() != currentFrame.getSequence();
+		// the same for the whole frame even if toggled meanwhile
+		interpolating = interpolationEnabled;
+		if (interpolating) {
+			updateInterpolation(newFrame);
+		}
+		renderedFrameCount++;
+		frameRateMonitor.setEnabled(frameRateLogEnabled || profiler.isEnabled());
+		frameRateMonitor.onFrame(newFrame);
+		if (newFrame) {
+			currentFrame.copyFrom(frame);
+		}
+		boolean introEnabled = frame.isEmpty();
 		if (introEnabled) {
 			GLES20.glClearColor(0.8f, 0.8f, 0.8f, 0.0f);
+			checkGlError("glClearColor");
 		} else {
 			GLES20.glClearColor(0.1f, 0.1f, 0.1f, 1.0f);
+			checkGlError("glClearColor");
 		}
 
-		int clearMask = GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT;
-		if (msaaEnabled) {
+		// there is no depth buffer
+		int clearMask = GLES20.GL_COLOR_BUFFER_BIT;
+		if (coverageAaEnabled) {
 			clearMask |= GL_COVERAGE_BUFFER_BIT_NV;
 		}
 		GLES20.glClear(clearMask);
+		checkGlError("glClear");
 
 		if (initialized) {
+			SectorGraphMode mode = supportedSectorGraphMode(sectorGraphMode);
+			if (mode != createdSectorGraphMode) {
+				circularSectorGraph.release();
+				createdSectorGraphMode = mode;
+				circularSectorGraph = createSectorGraph(createdSectorGraphMode);
+			}
+
+			if (!introEnabled && introLogo != null) {
+				// free the texture, the intro is not displayed again
+				introLogo.release();
+				introLogo = null;
+			}
+
 			if (introEnabled) {
+				profiler.begin(Section.INTRO);
 				introLogo.draw(modelViewProjection);
+				profiler.end(Section.INTRO);
+			} else if (dialMode == DialMode.POLAR_SDF) {
+				drawPolarDial();
+			} else if (layerCacheEnabled) {
+				if (!underLayer.isValid() || !overLayer.isValid()) {
+					profiler.begin(Section.STATIC_LAYERS);
+					renderStaticLayers();
+					profiler.end(Section.STATIC_LAYERS);
+				}
+				profiler.begin(Section.CACHED_LAYERS);
+				underLayer.draw();
+				profiler.end(Section.CACHED_LAYERS);
+				drawSectorGraph();
+				profiler.begin(Section.CACHED_LAYERS);
+				overLayer.draw();
+				profiler.end(Section.CACHED_LAYERS);
+				profiler.begin(Section.SHAPES);
+				drawSelectedKeyCircle(modelViewProjection);
+				profiler.end(Section.SHAPES);
 			} else {
-				toneNames.draw(modelViewProjection);
+				profiler.begin(Section.SHAPES);
+				drawOverlays(modelViewProjection);
 				outerCircle.draw(modelViewProjection);
 				circularGrid.draw(modelViewProjection);
-				circularSectorGraph.draw(modelViewProjection);
+				profiler.end(Section.SHAPES);
+				drawSectorGraph();
+				profiler.begin(Section.SHAPES);
 				innerCircle.draw(modelViewProjection);
 				drawSelectedKeyCircle(modelViewProjection);
+				profiler.end(Section.SHAPES);
+			}
+
+			if (!introEnabled) {
+				updateHistory(newFrame);
+			}
+
+			if (!introEnabled && !firstFrameRendered) {
+				firstFrameRendered = true;
+				if (startupTraceEnabled) {
+					StartupTrace.mark("firstFrameRendered");
+					StartupTrace.finish(new File(activityContext.getFilesDir(),
+						"startup-trace.csv"));
+				}
+				if (firstFrameTask != null) {
+					Runnable task = firstFrameTask;
+					firstFrameTask = null;
+					task.run();
+				}
+			}
+
+			if (sectorGraphBenchmarkRequested && !introEnabled) {
+				sectorGraphBenchmarkRequested = false;
+				runSectorGraphBenchmark();
+			}
+
+			updateProfiler();
+		}
+
+		GlValidation.checkFrame();
+	}
+
+	private void drawSectorGraph() {
+		profiler.begin(Section.SECTOR_GRAPH);
+		setSectorGraphValue();
+		circularSectorGraph.draw(modelViewProjection);
+		profiler.end(Section.SECTOR_GRAPH);
+	}
+
+	/** the tone names and then all the other shapes in a single pass */
+	private void drawPolarDial() {
+		profiler.begin(Section.POLAR_DIAL);
+		if (polarDial == null) {
+			polarDial = new PolarDial(programs, OUTER_CIRCLE_SCALE,
+				INNER_CIRCLE_SCALE, KEY_CIRCLE_RADIUS, KEY_CIRCLE_DISTANCE,
+				GRID_RAYS, MID_GREY, DARK_GREY);
+			polarDial.setLineWidth(LINE_WIDTH);
+			polarDial.resize(surfaceWidth, surfaceHeight);
+		}
+		drawOverlays(modelViewProjection);
+		polarDial.setPitchStep(pitchStep);
+		if (interpolating) {
+			polarDial.setValue(previousFrame, frame, interpolationMix);
+		} else {
+			polarDial.setValue(frame);
+		}
+		polarDial.draw(modelViewProjection);
+		profiler.end(Section.POLAR_DIAL);
+	}
+
+	/** adds a new frame to the history and draws it if visible */
+	private void updateHistory(boolean newFrame) {
+		boolean visible = historyVisible;
+		if (visible && history == null) {
+			history = new ChromagramHistory(programs, historyBudget);
+			history.resize(surfaceWidth, surfaceHeight);
+		} else if (!visible && history != null) {
+			history.release();
+			history = null;
+		}
+		if (history != null) {
+			profiler.begin(Section.HISTORY);
+			if (newFrame) {
+				history.setPitchStep(pitchStep);
+				history.add(frame);
 			}
+			history.draw();
+			profiler.end(Section.HISTORY);
 		}
 	}
 
+	/** finishes the profiled frame and draws the profiler HUD if visible */
+	private void updateProfiler() {
+		boolean hudVisible = profilerHudVisible;
+		if (hudVisible && profilerHud == null) {
+			profilerHud = new ProfilerHud(programs);
+			profilerHud.resize(surfaceWidth, surfaceHeight);
+			profilerHud.setText(profiler.getSummary());
+		} else if (!hudVisible && profilerHud != null) {
+			profilerHud.release();
+			profilerHud = null;
+		}
+		if (profilerHud != null) {
+			profilerHud.draw();
+		}
+
+		if (profiler.endFrame() && profilerHud != null) {
+			profilerHud.setText(profiler.getSummary());
+		}
+		if (profileExportRequested) {
+			profileExportRequested = false;
+			profiler.export(new File(activityContext.getFilesDir(),
+				"render-profile.csv"));
+		}
+	}
+
+	/**
+	 * Computes how far the current frame is blended in. A new frame starts
+	 * blending from what was displayed, so that there is no jump even if it
+	 * arrived before the previous one was fully blended in.
+	 */
+	private void updateInterpolation(boolean newFrame) {
+		if (newFrame) {
+			if (!currentFrame.isEmpty()) {
+				previousFrame.interpolate(previousFrame, currentFrame,
+					interpolationMix);
+				analysisPeriodNanos = frame.getTimestampNanos()
+					- currentFrame.getTimestampNanos();
+			}
+		}
+		float duration = smoothing * analysisPeriodNanos;
+		if (previousFrame.isEmpty() || duration <= 0) {
+			interpolationMix = 1;
+		} else {
+			long elapsed = System.nanoTime() - frame.getTimestampNanos();
+			interpolationMix = Math.min(1, elapsed / duration);
+		}
+	}
+
+	private void setSectorGraphValue() {
+		circularSectorGraph.setPitchStep(pitchStep);
+		if (interpolating) {
+			circularSectorGraph.setValue(previousFrame, frame, interpolationMix);
+		} else {
+			circularSectorGraph.setValue(frame);
+		}
+	}
+
+	/**
+	 * Renders the shapes which change only with the surface size into the
+	 * cached layers.
+	 */
+	private void renderStaticLayers() {
+		// the lines must be as thick as on the screen
+		float lineWidth = LINE_WIDTH * underLayer.getSupersampling();
+		GLES20.glLineWidth(lineWidth);
+		checkGlError("glLineWidth");
+		circularGrid.setLineWidth(lineWidth);
+		float[] mvp = underLayer.begin();
+		drawOverlays(mvp);
+		outerCircle.draw(mvp);
+		circularGrid.draw(mvp);
+		underLayer.end();
+		if (!overlays.isReady()) {
+			// render again with the texture when it is decoded
+			underLayer.invalidate();
+		}
+
+		GLES20.glLineWidth(LINE_WIDTH * overLayer.getSupersampling());
+		checkGlError("glLineWidth");
+		mvp = overLayer.begin();
+		innerCircle.draw(mvp);
+		overLayer.end();
+
+		circularGrid.setLineWidth(LINE_WIDTH);
+		GLES20.glLineWidth(LINE_WIDTH);
+		checkGlError("glLineWidth");
+	}
+
+	/** draws all the static textured overlays in one batch */
+	private void drawOverlays(float[] mvp) {
+		overlays.begin(mvp);
+		overlays.add(toneNamesRegion, 0, 0, OUTER_CIRCLE_SCALE,
+			OUTER_CIRCLE_SCALE);
+		overlays.end();
+	}
+
+	/**
+	 * Returns the batched mode instead of the GPU one if the current frame
+	 * has more bins or halftones than the shader uniforms hold.
+	 */
+	private SectorGraphMode supportedSectorGraphMode(SectorGraphMode mode) {
+		if (mode == SectorGraphMode.GPU && frame != null
+			&& !GpuCircularSectorGraph.supports(frame)) {
+			if (createdSectorGraphMode != SectorGraphMode.BATCHED) {
+				Log.w(TAG, "frame beyond the GPU sector graph limits, "
+					+ "drawing it batched");
+			}
+			return SectorGraphMode.BATCHED;
+		}
+		return mode;
+	}
+
+	private SectorGraph createSectorGraph(SectorGraphMode mode) {
+		switch (mode) {
+		case PER_SECTOR:
+			return new CircularSectorGraph(programs, OUTER_CIRCLE_SCALE);
+		case GPU:
+			return new GpuCircularSectorGraph(programs, OUTER_CIRCLE_SCALE);
+		case BATCHED:
+		default:
+			return new BatchedCircularSectorGraph(programs, OUTER_CIRCLE_SCALE);
+		}
+	}
+
+	private void runSectorGraphBenchmark() {
+		SectorGraphMode[] modes = SectorGraphMode.values();
+		String[] names = new String[modes.length];
+		SectorGraph[] graphs = new SectorGraph[modes.length];
+		for (int i = 0; i < modes.length; i++) {
+			SectorGraphMode mode = supportedSectorGraphMode(modes[i]);
+			names[i] = mode.name();
+			graphs[i] = createSectorGraph(mode);
+		}
+		SectorGraphBenchmark.run(modelViewProjection, frame, names, graphs);
+		for (SectorGraph graph : graphs) {
+			graph.release();
+		}
+		ScenePreparationBenchmark.run(OUTER_CIRCLE_SCALE);
+	}
+
 	private void drawSelectedKeyCircle(float[] modelViewProjection) {
-		if (frame.getKey() != null) {
-			Matrix.setIdentityM(keyCircleModel, 0);
-			float angle = 90f - 360.0f * frame.getKey()
-				/ frame.getCqtContext().getHalftonesPerOctave();
-			Matrix.setRotateM(keyCircleModel, 0, angle, 0, 0, 1);
-			Matrix.translateM(keyCircleModel, 0, 0.72f, 0, 0);
-			Matrix.multiplyMM(keyCircleModel,
+		Integer key = frame.getKey();
+		if (key != null) {
+			double angle = Math.PI / 2 - 2 * Math.PI * key
+				/ frame.getHalftonesPerOctave();
+			float cos = (float) Math.cos(angle);
+			float sin = (float) Math.sin(angle);
+			Transforms.setTransform(keyCircleModel, cos, sin, 1, 1,
+				KEY_CIRCLE_DISTANCE * cos, KEY_CIRCLE_DISTANCE * sin);
+			// the result must not overlap the operands
+			Matrix.multiplyMM(keyCircleMvp,
 				0,
 				modelViewProjection,
 				0,
 				keyCircleModel,
 				0);
-			keyCircle.draw(keyCircleModel);
+			keyCircle.draw(keyCircleMvp);
 		}
 	}
 
@@ -150,6 +581,9 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 		// Adjust the viewport based on geometry changes,
 		// such as screen rotation
 		GLES20.glViewport(0, 0, width, height);
+		checkGlError("glViewport");
+		surfaceWidth = width;
+		surfaceHeight = height;
 
 		if (width > height) {
 			float ratio = (float) width / height;
@@ -173,30 +607,22 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 
 		// Calculate the projection and view transformation
 		Matrix.multiplyMM(modelViewProjection, 0, projection, 0, view, 0);
-	}
-
-	/**
-	 * Utility method for compiling a OpenGL shader.
-	 * 
-	 * <p>
-	 * <strong>Note:</strong> When developing shaders, use the checkGlError()
-	 * method to debug shader coding errors.
-	 * </p>
-	 * 
-	 * @param type - Vertex or fragment shader type.
-	 * @param shaderCode - String containing the shader code.
-	 * @return - Returns an id for the shader.
-	 */
-	public static int loadShader(int type, String shaderCode) {
-		// create a vertex shader type (GLES20.GL_VERTEX_SHADER)
-		// or a fragment shader type (GLES20.GL_FRAGMENT_SHADER)
-		int shader = GLES20.glCreateShader(type);
 
-		// add the source code to the shader and compile it
-		GLES20.glShaderSource(shader, shaderCode);
-		GLES20.glCompileShader(shader);
+		// supersample the cached layers to look like the multi-sampled screen
+		int supersampling = msaaEnabled ? 2 : 1;
+		underLayer.resize(width, height, modelViewProjection, supersampling);
+		overLayer.resize(width, height, modelViewProjection, supersampling);
+		if (profilerHud != null) {
+			profilerHud.resize(width, height);
+		}
+		if (polarDial != null) {
+			polarDial.resize(width, height);
+		}
+		if (history != null) {
+			history.resize(width, height);
+		}
 
-		return shader;
+		Log.i(TAG, "GL objects: " + GlObjects.describe());
 	}
 
 	/**
@@ -204,35 +630,263 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 	 * just after making it:
 	 * 
 	 * <pre>
-	 * mColorHandle = GLES20.glGetUniformLocation(mProgram, &quot;vColor&quot;);
-	 * MyGLRenderer.checkGlError(&quot;glGetUniformLocation&quot;);
+	 * GLES20.glUniform4fv(colorHandle, 1, color, 0);
+	 * MyGLRenderer.checkGlError(&quot;glUniform4fv&quot;);
 	 * </pre>
 	 * 
-	 * If the operation is not successful, the check throws an error.
+	 * If the operation is not successful, the check throws an error. The check
+	 * is done only if the {@link GlValidation} is enabled, otherwise the errors
+	 * are only collected once per frame.
 	 * 
 	 * @param glOperation - Name of the OpenGL call to check.
 	 */
 	public static void checkGlError(String glOperation) {
-		int error;
-		while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
-			Log.e(TAG, glOperation + ": glError " + error);
-			throw new RuntimeException(glOperation + ": glError " + error);
-		}
+		GlValidation.check(glOperation);
 	}
 
+	/**
+	 * Passes a new frame for rendering. It is copied, so the caller may reuse
+	 * it. Must be called only from a single (analysis) thread. It never blocks
+	 * and does not allocate unless the number of bins changes.
+	 */
 	public void setValue(AnalyzedFrame frame) {
+		producedFrameCount++;
+		if (producedFrameCount == 1 && startupTraceEnabled) {
+			StartupTrace.mark("firstAnalyzedFrame");
+		}
+		frames.getBack().copyFrom(frame, producedFrameCount);
+		frames.publish();
+	}
+
+	/**
+	 * Passes a synthetic frame for rendering, like
+	 * {@link #setValue(AnalyzedFrame)}.
+	 *
+	 * @param key - the key to be displayed or null
+	 */
+	public void setValue(double[] octaveBins, int binsPerHalftone,
+		int halftonesPerOctave, Integer key) {
+		producedFrameCount++;
+		frames.getBack().set(octaveBins, binsPerHalftone, halftonesPerOctave,
+			key, producedFrameCount);
+		frames.publish();
+	}
+
+	/**
+	 * Must be called on the GL thread.
+	 *
+	 * @return true if the textures of the visualization are uploaded, so that
+	 * the rendered image is final
+	 */
+	boolean areTexturesReady() {
+		return initialized && overlays.isReady();
+	}
+
+	/**
+	 * Enables blending between the last two analyzed frames, so that the
+	 * display may be rendered more often than the analysis runs. The view must
+	 * then render continuously.
+	 */
+	public void setInterpolationEnabled(boolean interpolationEnabled) {
+		this.interpolationEnabled = interpolationEnabled;
+	}
+
+	public boolean isInterpolationEnabled() {
+		return interpolationEnabled;
+	}
+
+	/**
+	 * Runs the task after the first frame past the intro was rendered, at once
+	 * if it already was. It replaces a previous task which did not run yet.
+	 * Must be called on the GL thread.
+	 */
+	public void runAfterFirstFrame(Runnable task) {
+		if (firstFrameRendered) {
+			task.run();
+		} else {
+			firstFrameTask = task;
+		}
+	}
+
+	/**
+	 * Disables the spans and the finishing of the {@link StartupTrace}, eg.
+	 * for the offscreen renderers of the benchmarks, whose first frame would
+	 * finish the trace of the visible one. Must be called before the surface
+	 * is created.
+	 */
+	public void setStartupTraceEnabled(boolean startupTraceEnabled) {
+		this.startupTraceEnabled = startupTraceEnabled;
+	}
+
+	/**
+	 * Logs the rendered and analyzed frame rates and the CPU usage every few
+	 * seconds, see the {@link FrameRateMonitor}. They are logged also while
+	 * the render profiler runs.
+	 */
+	public void setFrameRateLogEnabled(boolean frameRateLogEnabled) {
+		this.frameRateLogEnabled = frameRateLogEnabled;
+	}
+
+	/** @return number of frames rendered so far, may be read from any thread */
+	public long getRenderedFrameCount() {
+		return renderedFrameCount;
+	}
+
+	/**
+	 * @param smoothing - duration of blending in a new frame relative to the
+	 * analysis period, eg. 1 for linear interpolation, 2 for a smoother
+	 * transition, must be positive
+	 */
+	public void setSmoothing(float smoothing) {
+		if (smoothing <= 0) {
+			throw new IllegalArgumentException(
+				"Smoothing must be positive, got: " + smoothing);
+		}
+		this.smoothing = smoothing;
+	}
+
+	/**
+	 * Selects the sector graph implementation. Takes effect on the next
+	 * rendered frame. The GPU mode falls back to the batched one while the
+	 * frames exceed its limits.
+	 */
+	public void setSectorGraphMode(SectorGraphMode sectorGraphMode) {
+		this.sectorGraphMode = sectorGraphMode;
+	}
+
+	/**
+	 * Selects how the dial is drawn. Takes effect on the next rendered frame.
+	 * The {@link DialMode#POLAR_SDF} does not need a multi-sampled surface.
+	 */
+	public void setDialMode(DialMode dialMode) {
+		this.dialMode = dialMode;
+	}
+
+	public DialMode getDialMode() {
+		return dialMode;
+	}
+
+	/**
+	 * Orders the pitch classes of the dial and of the history, the tone names
+	 * of the overlay stay in the chromatic order. Takes effect on the next
+	 * rendered frame, the history starts again.
+	 *
+	 * @param pitchStep - eg. 1 for straight diagram, 7 for circle of fifths
+	 */
+	public void setPitchStep(int pitchStep) {
+		if (pitchStep <= 0) {
+			throw new IllegalArgumentException(
+				"The pitch step must be positive, got: " + pitchStep);
+		}
+		this.pitchStep = pitchStep;
+	}
+
+	/**
+	 * Compares the sector graph implementations on the next rendered frame and
+	 * logs the results.
+	 */
+	public void requestSectorGraphBenchmark() {
+		sectorGraphBenchmarkRequested = true;
+	}
+
+	/**
+	 * Enables the render profiler, which logs its statistics every few
+	 * seconds. It waits for the GPU at the end of each frame, so it lowers the
+	 * throughput.
+	 */
+	public void setProfilerEnabled(boolean profilerEnabled) {
+		this.profilerEnabled = profilerEnabled;
+	}
+
+	/**
+	 * Shows the statistics of the render profiler over the visualization. The
+	 * profiler runs while the HUD is visible.
+	 */
+	public void setProfilerHudVisible(boolean profilerHudVisible) {
+		this.profilerHudVisible = profilerHudVisible;
+	}
+
+	public boolean isProfilerHudVisible() {
+		return profilerHudVisible;
+	}
+
+	/**
+	 * Shows the recent analyzed frames in a band at the bottom. The history
+	 * is recorded only while it is visible.
+	 */
+	public void setHistoryVisible(boolean historyVisible) {
+		this.historyVisible = historyVisible;
+	}
+
+	public boolean isHistoryVisible() {
+		return historyVisible;
+	}
+
+	/**
+	 * The history holds the budget divided by the number of bins frames, at
+	 * most the maximum texture size. The time it covers is that divided by
+	 * the analysis rate, which the governor keeps between 10 and 60 frames
+	 * per second, so a budget for 30 to 60 s has to assume the fastest rate.
+	 *
+	 * @param historyBudget - size of the history texture in bytes, one byte
+	 * per bin of each frame, takes effect when the history is shown next time
+	 */
+	public void setHistoryMemoryBudget(int historyBudget) {
+		if (historyBudget <= 0) {
+			throw new IllegalArgumentException(
+				"The memory budget must be positive, got: " + historyBudget);
+		}
+		this.historyBudget = historyBudget;
+	}
+
+	/**
+	 * Writes the last statistics of the render profiler to
+	 * render-profile.csv in the files directory on the next rendered frame.
+	 */
+	public void requestProfileExport() {
+		profileExportRequested = true;
+	}
+
+	/**
+	 * Enables drawing of the static shapes from offscreen textures instead of
+	 * drawing them each frame.
+	 */
+	public void setLayerCacheEnabled(boolean layerCacheEnabled) {
+		this.layerCacheEnabled = layerCacheEnabled;
+	}
+
+	/**
+	 * Forces the cached static layers to be rendered again, eg. when the pitch
+	 * layout changes. Must be called on the GL thread.
+	 */
+	public void invalidateStaticLayers() {
 		if (initialized) {
-			circularSectorGraph.setValue(frame);
+			underLayer.invalidate();
+			overLayer.invalidate();
 		}
-		this.frame = frame;
-		hasValue = true;
 	}
 
-	public boolean isMsaaEnabled() {
-		return msaaEnabled;
+	private void detectAntiAliasing(EGLConfig config) {
+		msaaEnabled = false;
+		coverageAaEnabled = false;
+		if (config == null) {
+			return;
+		}
+		EGL10 egl = (EGL10) EGLContext.getEGL();
+		EGLDisplay display = egl.eglGetCurrentDisplay();
+		int[] value = new int[1];
+		if (egl.eglGetConfigAttrib(display, config,
+			MultisampleConfigChooser.EGL_COVERAGE_BUFFERS_NV, value)) {
+			coverageAaEnabled = value[0] > 0;
+		}
+		if (egl.eglGetConfigAttrib(display, config,
+			EGL10.EGL_SAMPLE_BUFFERS, value)) {
+			msaaEnabled = value[0] > 0;
+		}
+		msaaEnabled |= coverageAaEnabled;
 	}
 
-	public void setMsaaEnabled(boolean msaaEnabled) {
-		this.msaaEnabled = msaaEnabled;
+	public boolean isMsaaEnabled() {
+		return msaaEnabled;
 	}
 }
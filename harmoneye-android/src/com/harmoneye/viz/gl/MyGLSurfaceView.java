@@ -1,13 +1,19 @@
 package com.harmoneye.viz.gl;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.opengl.GLSurfaceView;
+import android.os.Build;
+import android.util.Log;
 
 import com.harmoneye.analysis.MusicAnalyzer.AnalyzedFrame;
+import com.harmoneye.android.BuildConfig;
 import com.harmoneye.viz.Visualizer;
+import com.harmoneye.viz.gl.MyGLRenderer.DialMode;
 
 /**
  * A view container where OpenGL ES graphics can be drawn on screen. This view
@@ -17,31 +23,252 @@ import com.harmoneye.viz.Visualizer;
 public class MyGLSurfaceView extends GLSurfaceView implements
 	Visualizer<AnalyzedFrame> {
 
+	private static final String TAG = "MyGLSurfaceView";
+	/** between the measured tiers of the render tier probe */
+	private static final long PROBE_PAUSE_MILLIS = 1000;
+
 	private final MyGLRenderer renderer;
 	private final MultisampleConfigChooser msaaConfigChooser;
 	private Map<String, Object> config = new HashMap<String, Object>();
+	/** UI thread only */
+	private boolean interpolationBenchmarkRunning;
+	private boolean soakRunning;
 
 	public MyGLSurfaceView(Context context) {
+		this(context, RenderTierResolver.DEFAULT_TIER);
+	}
+
+	/**
+	 * @param renderTier - the best tier of the surface, a cheaper one is used
+	 * if it is not supported
+	 */
+	public MyGLSurfaceView(Context context, RenderTier renderTier) {
 		super(context);
 
+		// Check each GL call only in debug builds.
+		GlValidation.setEnabled(BuildConfig.DEBUG);
+
 		// Create an OpenGL ES 2.0 context.
 		setEGLContextClientVersion(2);
 
-		msaaConfigChooser = new MultisampleConfigChooser();
+		msaaConfigChooser = new MultisampleConfigChooser(renderTier, false);
 		setEGLConfigChooser(msaaConfigChooser);
 
+		// Keep the GL objects while paused if the device can
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			preserveContextOnPause();
+		}
+
 		// Set the Renderer for drawing on the GLSurfaceView
+		// the renderer finds out the anti-aliasing from the chosen config
 		renderer = new MyGLRenderer(context);
-		renderer.setMsaaEnabled(msaaConfigChooser.isMsaaEnabled());
+		renderer.setFrameRateLogEnabled(BuildConfig.DEBUG);
 		setRenderer(renderer);
 
 		// Render the view only when there is a change in the drawing data
 		setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
 	}
 
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private void preserveContextOnPause() {
+		setPreserveEGLContextOnPause(true);
+	}
+
 	@Override
 	public void update(AnalyzedFrame frame) {
 		renderer.setValue(frame);
+		if (!renderer.isInterpolationEnabled()) {
+			requestRender();
+		}
+	}
+
+	/**
+	 * Enables rendering at the display rate with the analyzed frames
+	 * interpolated, instead of rendering once per analyzed frame.
+	 */
+	public void setInterpolationEnabled(boolean interpolationEnabled) {
+		renderer.setInterpolationEnabled(interpolationEnabled);
+		setRenderMode(interpolationEnabled
+			? GLSurfaceView.RENDERMODE_CONTINUOUSLY
+			: GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+	}
+
+	public boolean isInterpolationEnabled() {
+		return renderer.isInterpolationEnabled();
+	}
+
+	/** @see MyGLRenderer#getRenderedFrameCount() */
+	public long getRenderedFrameCount() {
+		return renderer.getRenderedFrameCount();
+	}
+
+	/**
+	 * Logs the CPU usage without and with the interpolation, see the
+	 * {@link InterpolationBenchmark}. Takes about half a minute, it is ignored
+	 * while the previous one runs. Must be called on the UI thread.
+	 */
+	public void benchmarkInterpolation() {
+		if (interpolationBenchmarkRunning) {
+			return;
+		}
+		interpolationBenchmarkRunning = true;
+		new InterpolationBenchmark(this, new Runnable() {
+			@Override
+			public void run() {
+				interpolationBenchmarkRunning = false;
+			}
+		}).start();
+	}
+
+	/** @see MyGLRenderer#setSmoothing(float) */
+	public void setSmoothing(float smoothing) {
+		renderer.setSmoothing(smoothing);
+	}
+
+	/** @see MyGLRenderer#setDialMode(DialMode) */
+	public void setDialMode(DialMode dialMode) {
+		renderer.setDialMode(dialMode);
+	}
+
+	/**
+	 * Logs a comparison of the sector graph implementations and of the scene
+	 * preparation on the next analyzed frame, see the
+	 * {@link SectorGraphBenchmark} and the {@link ScenePreparationBenchmark}.
+	 */
+	public void benchmarkSectorGraph() {
+		renderer.requestSectorGraphBenchmark();
+		requestRender();
+	}
+
+	/**
+	 * Runs the {@link OffscreenRenderBenchmark} and the
+	 * {@link DialModeBenchmark} on the GL thread, the view is not rendered
+	 * meanwhile.
+	 *
+	 * @param onFinished - posted to the UI thread when done, may be null
+	 */
+	public void runOffscreenBenchmark(final File outputDir,
+		final Runnable onFinished) {
+		queueEvent(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					new OffscreenRenderBenchmark(getContext(), outputDir).run();
+					new DialModeBenchmark(getContext(), outputDir).run();
+				} finally {
+					if (onFinished != null) {
+						post(onFinished);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Pauses and resumes the view repeatedly and logs whether the live GL
+	 * object counts stay the same and the native heap does not grow, see the
+	 * {@link PauseResumeSoak}. It is
+	 * ignored while the previous one runs. Must be called on the UI thread.
+	 */
+	public void runPauseResumeSoak(int cycleCount) {
+		if (soakRunning) {
+			return;
+		}
+		soakRunning = true;
+		new PauseResumeSoak(this, cycleCount, new Runnable() {
+			@Override
+			public void run() {
+				soakRunning = false;
+			}
+		}).start();
+	}
+
+	/**
+	 * Runs the {@link RenderTierProbe} on the GL thread once the first frame
+	 * past the intro was rendered, so that it does not delay the startup. The
+	 * tiers are measured in separate events after a pause, the view is not
+	 * rendered only while a tier is measured.
+	 *
+	 * @param listener - gets the result on the UI thread, nothing if the probe
+	 * failed
+	 */
+	public void probeRenderTier(final RenderTierProbe.Listener listener) {
+		final RenderTierProbe probe = new RenderTierProbe(getContext());
+		queueEvent(new Runnable() {
+			@Override
+			public void run() {
+				renderer.runAfterFirstFrame(new Runnable() {
+					@Override
+					public void run() {
+						probeNextTier(probe, listener);
+					}
+				});
+			}
+		});
+	}
+
+	private void probeNextTier(final RenderTierProbe probe,
+		final RenderTierProbe.Listener listener) {
+		// let the view render a few frames before blocking it again
+		postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				queueEvent(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (!probe.measureNextTier()) {
+								probeNextTier(probe, listener);
+								return;
+							}
+						} catch (RuntimeException e) {
+							Log.w(TAG, "The render tier probe failed", e);
+							return;
+						}
+						post(new Runnable() {
+							@Override
+							public void run() {
+								listener.onProbed(probe.getResult());
+							}
+						});
+					}
+				});
+			}
+		}, PROBE_PAUSE_MILLIS);
+	}
+
+	/** @return the tier of the surface or null if not created yet */
+	public RenderTier getRenderTier() {
+		return msaaConfigChooser.getChosenTier();
+	}
+
+	/** shows or hides the history of the analyzed frames */
+	public void setHistoryVisible(boolean visible) {
+		renderer.setHistoryVisible(visible);
+	}
+
+	public boolean isHistoryVisible() {
+		return renderer.isHistoryVisible();
+	}
+
+	/** @see MyGLRenderer#setHistoryMemoryBudget(int) */
+	public void setHistoryMemoryBudget(int bytes) {
+		renderer.setHistoryMemoryBudget(bytes);
+	}
+
+	/** shows or hides the statistics of the render profiler */
+	public void setProfilerHudVisible(boolean visible) {
+		renderer.setProfilerHudVisible(visible);
+		requestRender();
+	}
+
+	public boolean isProfilerHudVisible() {
+		return renderer.isProfilerHudVisible();
+	}
+
+	/** writes the statistics of the render profiler to a CSV file */
+	public void exportRenderProfile() {
+		renderer.requestProfileExport();
 		requestRender();
 	}
 
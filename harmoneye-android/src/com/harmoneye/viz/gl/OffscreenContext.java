@@ -0,0 +1,88 @@
+package com.harmoneye.viz.gl;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+import android.opengl.GLSurfaceView.EGLConfigChooser;
+
+/**
+ * Runs a task in an OpenGL ES 2.0 context of its own with a pbuffer surface,
+ * eg. to render without a window. The context which was current before is
+ * made current again afterwards, together with the {@link GlObjects} counts
+ * of it.
+ *
+ * Must be run on the GL thread if the GLSurfaceView has a context.
+ */
+public class OffscreenContext {
+
+	private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+
+	/** a task needing a current context */
+	public interface Task<T> {
+		/** @param config - config of the context and the surface */
+		T run(EGLConfig config);
+	}
+
+	private OffscreenContext() {
+	}
+
+	/**
+	 * @param chooser - chooses a config supporting pbuffers
+	 * @return the result of the task
+	 */
+	public static <T> T run(EGLConfigChooser chooser, int width, int height,
+		Task<T> task) {
+		EGL10 egl = (EGL10) EGLContext.getEGL();
+		EGLDisplay previousDisplay = egl.eglGetCurrentDisplay();
+		EGLContext previousContext = egl.eglGetCurrentContext();
+		EGLSurface previousDraw = egl.eglGetCurrentSurface(EGL10.EGL_DRAW);
+		EGLSurface previousRead = egl.eglGetCurrentSurface(EGL10.EGL_READ);
+		boolean restore = previousContext != null
+			&& !previousContext.equals(EGL10.EGL_NO_CONTEXT);
+
+		// the display is shared with the GLSurfaceView, it is not terminated
+		EGLDisplay display = egl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+		if (!egl.eglInitialize(display, new int[2])) {
+			throw new IllegalStateException("eglInitialize failed: "
+				+ egl.eglGetError());
+		}
+		EGLConfig config = chooser.chooseConfig(egl, display);
+		EGLContext context = egl.eglCreateContext(display, config,
+			EGL10.EGL_NO_CONTEXT, new int[] { EGL_CONTEXT_CLIENT_VERSION, 2,
+				EGL10.EGL_NONE });
+		if (context == null || context.equals(EGL10.EGL_NO_CONTEXT)) {
+			throw new IllegalStateException("eglCreateContext failed: "
+				+ egl.eglGetError());
+		}
+		EGLSurface surface = egl.eglCreatePbufferSurface(display, config,
+			new int[] { EGL10.EGL_WIDTH, width, EGL10.EGL_HEIGHT, height,
+				EGL10.EGL_NONE });
+		if (surface == null || surface.equals(EGL10.EGL_NO_SURFACE)) {
+			egl.eglDestroyContext(display, context);
+			throw new IllegalStateException("eglCreatePbufferSurface failed: "
+				+ egl.eglGetError());
+		}
+
+		GlObjects.suspendContext();
+		try {
+			if (!egl.eglMakeCurrent(display, surface, surface, context)) {
+				throw new IllegalStateException("eglMakeCurrent failed: "
+					+ egl.eglGetError());
+			}
+			return task.run(config);
+		} finally {
+			egl.eglMakeCurrent(display, EGL10.EGL_NO_SURFACE,
+				EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+			egl.eglDestroySurface(display, surface);
+			egl.eglDestroyContext(display, context);
+			if (restore) {
+				egl.eglMakeCurrent(previousDisplay, previousDraw, previousRead,
+					previousContext);
+			}
+			GlObjects.resumeContext();
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package com.harmoneye.viz.gl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLDisplay;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView.EGLConfigChooser;
+import android.os.Debug;
+import android.util.Log;
+
+import com.harmoneye.viz.gl.MyGLRenderer.DialMode;
+import com.harmoneye.viz.gl.MyGLRenderer.SectorGraphMode;
+
+/**
+ * Drives a {@link MyGLRenderer} with synthetic frames in an offscreen pbuffer
+ * surface of its own EGL context. It needs neither the audio nor a window, so
+ * it runs the same on a device and on the emulator with its software renderer.
+ *
+ * Each sector graph mode and the polar dial are measured with several
+ * numbers of bins per halftone. The frames per second, the CPU time per frame and the draw calls
+ * per frame are logged and written to offscreen-benchmark.csv in the output
+ * directory.
+ *
+ * The last frame of each run is compared with the image of the same name in
+ * the golden subdirectory. If there is no golden image yet, the frame is
+ * stored as one, a frame which differs is stored in the actual subdirectory.
+ * The rasterization differs between GPUs, so the golden images are valid only
+ * for the device they were recorded on.
+ *
+ * Must be run on the GL thread, the current context is restored afterwards.
+ */
+public class OffscreenRenderBenchmark {
+
+	private static final String TAG = "OffscreenRenderBenchmark";
+
+	private static final int EGL_OPENGL_ES2_BIT = 4;
+
+	/** RGBA8888, so that the images do not depend on dithering */
+	private static final EGLConfigChooser CONFIG_CHOOSER =
+		new EGLConfigChooser() {
+			@Override
+			public EGLConfig chooseConfig(EGL10 egl, EGLDisplay display) {
+				//@formatter:off
+				int[] configSpec = {
+					EGL10.EGL_RED_SIZE, 8,
+					EGL10.EGL_GREEN_SIZE, 8,
+					EGL10.EGL_BLUE_SIZE, 8,
+					EGL10.EGL_ALPHA_SIZE, 8,
+					EGL10.EGL_SURFACE_TYPE, EGL10.EGL_PBUFFER_BIT,
+					EGL10.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT,
+					EGL10.EGL_NONE };
+				//@formatter:on
+				EGLConfig[] configs = new EGLConfig[1];
+				int[] count = new int[1];
+				if (!egl.eglChooseConfig(display, configSpec, configs, 1,
+					count) || count[0] == 0) {
+					throw new IllegalStateException("No pbuffer config found");
+				}
+				return configs[0];
+			}
+		};
+
+	private static final int WIDTH = 480;
+	private static final int HEIGHT = 480;
+	private static final int[] BINS_PER_HALFTONE = { 1, 3, 5, 7 };
+	static final int HALFTONES_PER_OCTAVE = 12;
+	private static final int WARMUP_FRAMES = 30;
+	private static final int MEASURED_FRAMES = 300;
+	private static final long TEXTURE_TIMEOUT_MILLIS = 5000;
+
+	/** difference of a color channel still considered equal */
+	private static final int CHANNEL_TOLERANCE = 8;
+	/** fraction of pixels which may differ from the golden image */
+	private static final double MAX_DIFFERENT_PIXELS = 0.001;
+
+	private final Context context;
+	private final File outputDir;
+
+	private final ByteBuffer pixels = ByteBuffer.allocateDirect(
+		4 * WIDTH * HEIGHT).order(ByteOrder.nativeOrder());
+	private final byte[] image = new byte[4 * WIDTH * HEIGHT];
+
+	public OffscreenRenderBenchmark(Context context, File outputDir) {
+		this.context = context;
+		this.outputDir = outputDir;
+	}
+
+	/**
+	 * @return true if all the frames matched the golden images
+	 */
+	public boolean run() {
+		return OffscreenContext.run(CONFIG_CHOOSER, WIDTH, HEIGHT,
+			new OffscreenContext.Task<Boolean>() {
+				@Override
+				public Boolean run(EGLConfig config) {
+					return runAll(config);
+				}
+			});
+	}
+
+	private boolean runAll(EGLConfig config) {
+		MyGLRenderer renderer = new MyGLRenderer(context);
+		renderer.setStartupTraceEnabled(false);
+		renderer.onSurfaceCreated(null, config);
+		renderer.onSurfaceChanged(null, WIDTH, HEIGHT);
+		waitForTextures(renderer);
+
+		new File(outputDir, "golden").mkdirs();
+		new File(outputDir, "actual").mkdirs();
+		File resultFile = new File(outputDir, "offscreen-benchmark.csv");
+		boolean passed = true;
+		try {
+			Writer writer = new FileWriter(resultFile);
+			try {
+				writer.write("mode,bins_per_halftone,fps,cpu_ms_per_frame,"
+					+ "draw_calls_per_frame,golden\n");
+				for (SectorGraphMode mode : SectorGraphMode.values()) {
+					renderer.setSectorGraphMode(mode);
+					passed &= runMode(renderer, mode.name(), writer);
+				}
+				// the sector graph mode does not matter
+				renderer.setDialMode(DialMode.POLAR_SDF);
+				passed &= runMode(renderer, DialMode.POLAR_SDF.name(), writer);
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Cannot write " + resultFile, e);
+		}
+		Log.i(TAG, "offscreen benchmark " + (passed ? "PASSED" : "FAILED")
+			+ ", results in " + resultFile);
+		return passed;
+	}
+
+	/** @return true if all the frames matched the golden images */
+	private boolean runMode(MyGLRenderer renderer, String mode, Writer writer)
+		throws IOException {
+		boolean passed = true;
+		for (int binsPerHalftone : BINS_PER_HALFTONE) {
+			String name = mode.toLowerCase(Locale.US) + "_" + binsPerHalftone;
+			String result = measure(renderer, binsPerHalftone);
+			String golden = compareWithGolden(name);
+			passed &= "same".equals(golden) || "recorded".equals(golden);
+			Log.i(TAG, name + ": " + result + ", golden image: " + golden);
+			writer.write(mode + "," + binsPerHalftone + ","
+				+ result.replace(' ', ',') + "," + golden + "\n");
+		}
+		return passed;
+	}
+
+	/** the image would not be final while the overlays are being decoded */
+	static void waitForTextures(MyGLRenderer renderer) {
+		long deadline = System.currentTimeMillis() + TEXTURE_TIMEOUT_MILLIS;
+		while (!renderer.areTexturesReady()) {
+			if (System.currentTimeMillis() > deadline) {
+				throw new IllegalStateException(
+					"The textures were not decoded in time");
+			}
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Renders the synthetic frames, the last one is left in the pbuffer.
+	 *
+	 * @return fps, CPU ms per frame and draw calls per frame separated by
+	 * spaces
+	 */
+	private String measure(MyGLRenderer renderer, int binsPerHalftone) {
+		double[] bins = new double[HALFTONES_PER_OCTAVE * binsPerHalftone];
+		for (int i = 0; i < WARMUP_FRAMES; i++) {
+			renderFrame(renderer, bins, binsPerHalftone, i);
+		}
+		GLES20.glFinish();
+		MyGLRenderer.checkGlError("glFinish");
+
+		long drawCalls = 0;
+		long start = System.nanoTime();
+		long cpuStart = Debug.threadCpuTimeNanos();
+		for (int i = 0; i < MEASURED_FRAMES; i++) {
+			RenderCounters.reset();
+			renderFrame(renderer, bins, binsPerHalftone, WARMUP_FRAMES + i);
+			drawCalls += RenderCounters.getDrawCalls();
+		}
+		GLES20.glFinish();
+		MyGLRenderer.checkGlError("glFinish");
+		long cpuNanos = Debug.threadCpuTimeNanos() - cpuStart;
+		long elapsedNanos = System.nanoTime() - start;
+
+		return String.format(Locale.US, "%.1f %.3f %.1f",
+			MEASURED_FRAMES / (1e-9 * elapsedNanos),
+			1e-6 * cpuNanos / MEASURED_FRAMES,
+			(double) drawCalls / MEASURED_FRAMES);
+	}
+
+	/** renders a frame depending only on its index */
+	static void renderFrame(MyGLRenderer renderer, double[] bins,
+		int binsPerHalftone, int index) {
+		for (int i = 0; i < bins.length; i++) {
+			double phase = 0.4 * i / binsPerHalftone + 0.1 * index;
+			bins[i] = 0.5 + 0.5 * Math.sin(phase);
+		}
+		Integer key = (index / 30) % HALFTONES_PER_OCTAVE;
+		renderer.setValue(bins, binsPerHalftone, HALFTONES_PER_OCTAVE, key);
+		renderer.onDrawFrame(null);
+	}
+
+	/**
+	 * @return "recorded" if there was no golden image, "same", "different" or
+	 * "error"
+	 */
+	private String compareWithGolden(String name) {
+		readImage();
+		File goldenFile = new File(new File(outputDir, "golden"), name
+			+ ".png");
+		try {
+			if (!goldenFile.exists()) {
+				writeImage(goldenFile);
+				return "recorded";
+			}
+			if (!matches(goldenFile)) {
+				writeImage(new File(new File(outputDir, "actual"), name
+					+ ".png"));
+				return "different";
+			}
+			return "same";
+		} catch (IOException e) {
+			Log.w(TAG, "Cannot compare " + name + " with the golden image", e);
+			return "error";
+		}
+	}
+
+	private boolean matches(File goldenFile) throws IOException {
+		Bitmap golden = BitmapFactory.decodeFile(goldenFile.getPath());
+		if (golden == null || golden.getWidth() != WIDTH
+			|| golden.getHeight() != HEIGHT) {
+			throw new IOException("Invalid golden image " + goldenFile);
+		}
+		ByteBuffer goldenPixels = ByteBuffer.allocate(image.length);
+		golden.copyPixelsToBuffer(goldenPixels);
+		golden.recycle();
+		byte[] expected = goldenPixels.array();
+
+		int differentPixels = 0;
+		for (int i = 0; i < image.length; i += 4) {
+			for (int c = 0; c < 3; c++) {
+				int difference = (image[i + c] & 0xff)
+					- (expected[i + c] & 0xff);
+				if (Math.abs(difference) > CHANNEL_TOLERANCE) {
+					differentPixels++;
+					break;
+				}
+			}
+		}
+		return differentPixels <= MAX_DIFFERENT_PIXELS * WIDTH * HEIGHT;
+	}
+
+	/** reads the pbuffer into the image, top row first and opaque */
+	private void readImage() {
+		pixels.position(0);
+		GLES20.glReadPixels(0, 0, WIDTH, HEIGHT, GLES20.GL_RGBA,
+			GLES20.GL_UNSIGNED_BYTE, pixels);
+		MyGLRenderer.checkGlError("glReadPixels");
+		int rowLength = 4 * WIDTH;
+		for (int y = 0; y < HEIGHT; y++) {
+			pixels.position((HEIGHT - 1 - y) * rowLength);
+			pixels.get(image, y * rowLength, rowLength);
+		}
+		// the alpha of the blended pixels has no meaning on the screen
+		for (int i = 3; i < image.length; i += 4) {
+			image[i] = (byte) 0xff;
+		}
+	}
+
+	private void writeImage(File file) throws IOException {
+		Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT,
+			Bitmap.Config.ARGB_8888);
+		bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(image));
+		OutputStream output = new FileOutputStream(file);
+		try {
+			bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+		} finally {
+			output.close();
+			bitmap.recycle();
+		}
+	}
+}
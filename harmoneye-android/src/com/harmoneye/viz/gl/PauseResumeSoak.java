@@ -0,0 +1,130 @@
+package com.harmoneye.viz.gl;
+
+import java.util.Arrays;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Pauses and resumes the view many times and compares the live GL object
+ * counts after each cycle with the counts after the first one, so that the
+ * objects leaked or lost on the way show up. The native heap, where the
+ * drivers keep their copies of the objects, must not grow by more than
+ * {@link #MAX_NATIVE_HEAP_GROWTH} from the first cycle to the last one. A
+ * garbage collection runs before each measurement, so that the native memory
+ * freed by finalizers does not count. The counts of each cycle and the result
+ * are logged.
+ *
+ * Covers both the preserved context and, on devices which lose it, the
+ * rebuild in a new one. The visualization should already show analyzed
+ * frames, since the end of the intro changes the counts. Must be started on
+ * the UI thread while the activity is in the foreground.
+ */
+class PauseResumeSoak {
+
+	private static final String TAG = "PauseResumeSoak";
+
+	/** time for the resumed view to render and create its lazy objects */
+	private static final long SETTLE_MILLIS = 500;
+	/**
+	 * bytes the native heap may grow by over the whole soak, the allocator
+	 * noise stays below, while a leaked texture or buffer per cycle exceeds
+	 * it within tens of cycles
+	 */
+	static final long MAX_NATIVE_HEAP_GROWTH = 2 * 1024 * 1024;
+
+	private final MyGLSurfaceView view;
+	private final int cycleCount;
+	private final Runnable onFinished;
+
+	private int cycle;
+	/** counts after the first cycle */
+	private int[] expectedCounts;
+	private int mismatchCount;
+	/** bytes allocated after the first cycle */
+	private long firstNativeHeap;
+
+	/** @param onFinished - run on the UI thread when done, may be null */
+	PauseResumeSoak(MyGLSurfaceView view, int cycleCount, Runnable onFinished) {
+		if (cycleCount < 2) {
+			throw new IllegalArgumentException(
+				"At least two cycles are needed, got: " + cycleCount);
+		}
+		this.view = view;
+		this.cycleCount = cycleCount;
+		this.onFinished = onFinished;
+	}
+
+	void start() {
+		cycle = 0;
+		expectedCounts = null;
+		mismatchCount = 0;
+		nextCycle();
+	}
+
+	private void nextCycle() {
+		view.onPause();
+		view.onResume();
+		view.requestRender();
+		view.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				readCounts();
+			}
+		}, SETTLE_MILLIS);
+	}
+
+	private void readCounts() {
+		System.gc();
+		System.runFinalization();
+		view.queueEvent(new Runnable() {
+			@Override
+			public void run() {
+				final int[] counts = GlObjects.getCounts();
+				final long nativeHeap = Debug.getNativeHeapAllocatedSize();
+				final String description = GlObjects.describe();
+				view.post(new Runnable() {
+					@Override
+					public void run() {
+						checkCounts(counts, nativeHeap, description);
+					}
+				});
+			}
+		});
+	}
+
+	private void checkCounts(int[] counts, long nativeHeap,
+		String description) {
+		cycle++;
+		Log.i(TAG, "cycle " + cycle + ": " + description);
+		if (expectedCounts == null) {
+			expectedCounts = counts;
+			firstNativeHeap = nativeHeap;
+		} else if (!Arrays.equals(expectedCounts, counts)) {
+			mismatchCount++;
+			Log.e(TAG, "the GL object counts changed in cycle " + cycle
+				+ ", expected: " + Arrays.toString(expectedCounts)
+				+ ", got: " + Arrays.toString(counts));
+		}
+
+		if (cycle < cycleCount) {
+			nextCycle();
+			return;
+		}
+		long nativeHeapGrowth = nativeHeap - firstNativeHeap;
+		String growth = "native heap growth: " + nativeHeapGrowth / 1024
+			+ " kB, at most " + MAX_NATIVE_HEAP_GROWTH / 1024 + " kB";
+		if (mismatchCount != 0) {
+			Log.e(TAG, "failed, the counts changed in " + mismatchCount
+				+ " of " + cycleCount + " cycles, " + growth);
+		} else if (nativeHeapGrowth > MAX_NATIVE_HEAP_GROWTH) {
+			Log.e(TAG, "failed, the native heap leaks over " + cycleCount
+				+ " cycles, " + growth);
+		} else {
+			Log.i(TAG, "passed, " + cycleCount + " cycles, " + growth);
+		}
+		if (onFinished != null) {
+			onFinished.run();
+		}
+	}
+}
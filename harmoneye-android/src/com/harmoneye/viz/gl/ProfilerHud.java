@@ -0,0 +1,170 @@
+package com.harmoneye.viz.gl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+import com.harmoneye.viz.gl.GlState.Blending;
+
+/**
+ * Text lines drawn over the top left corner of the screen, eg. the summary of
+ * the {@link RenderProfiler}. The text is drawn with a Canvas into a bitmap
+ * which is uploaded into a texture only when the text changes.
+ */
+public class ProfilerHud {
+
+	//@formatter:off
+	private static final String vertexShaderCode =
+		"attribute vec2 position;" +
+		"attribute vec2 texCoord;" +
+		"varying vec2 vTexCoord;" +
+		"void main() {" +
+		"  vTexCoord = texCoord;" +
+		"  gl_Position = vec4(position, 0.0, 1.0);" +
+		"}";
+
+	private static final String fragmentShaderCode =
+		"precision mediump float;" +
+		"uniform sampler2D texture;" +
+		"varying vec2 vTexCoord;" +
+		"void main() {" +
+		"  gl_FragColor = texture2D(texture, vTexCoord);" +
+		"}";
+	//@formatter:on
+
+	private static final int WIDTH = 512;
+	private static final int HEIGHT = 256;
+	private static final float TEXT_SIZE = 18;
+	private static final float LINE_HEIGHT = 22;
+	private static final float MARGIN = 8;
+	private static final int BACKGROUND = Color.argb(160, 0, 0, 0);
+
+	private static final int BYTES_PER_FLOAT = 4;
+	/** x, y, s, t */
+	private static final int FLOATS_PER_VERTEX = 4;
+	private static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+
+	private final ShaderProgram program;
+	private final int positionHandle;
+	private final int texCoordHandle;
+	private final int textureHandle;
+
+	private final FloatBuffer quadBuffer;
+	private final Bitmap bitmap;
+	private final Canvas canvas;
+	private final Paint paint;
+	private final int texture;
+
+	/**
+	 * Must be called on the GL thread.
+	 */
+	public ProfilerHud(ShaderProgramRegistry programs) {
+		program = programs.getProgram(vertexShaderCode, fragmentShaderCode);
+		positionHandle = program.getAttribLocation("position");
+		texCoordHandle = program.getAttribLocation("texCoord");
+		textureHandle = program.getUniformLocation("texture");
+
+		quadBuffer = ByteBuffer.allocateDirect(4 * VERTEX_STRIDE)
+			.order(ByteOrder.nativeOrder())
+			.asFloatBuffer();
+
+		bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+		canvas = new Canvas(bitmap);
+		paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		paint.setColor(Color.WHITE);
+		paint.setTextSize(TEXT_SIZE);
+		paint.setTypeface(Typeface.MONOSPACE);
+
+		texture = GlObjects.genTexture();
+		GlState.bindTexture(texture);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_MIN_FILTER,
+			GLES20.GL_LINEAR);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_MAG_FILTER,
+			GLES20.GL_LINEAR);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_WRAP_S,
+			GLES20.GL_CLAMP_TO_EDGE);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_WRAP_T,
+			GLES20.GL_CLAMP_TO_EDGE);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		bitmap.eraseColor(BACKGROUND);
+		GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+		MyGLRenderer.checkGlError("texImage2D");
+	}
+
+	/**
+	 * Places the HUD in the top left corner in the screen resolution, scaled
+	 * down if the screen is narrower.
+	 */
+	public void resize(int screenWidth, int screenHeight) {
+		float scale = Math.min(1, (float) screenWidth / WIDTH);
+		float right = -1 + 2 * scale * WIDTH / screenWidth;
+		float bottom = 1 - 2 * scale * HEIGHT / screenHeight;
+		// the bitmap rows go from the top
+		//@formatter:off
+		float[] quad = {
+			-1, bottom, 0, 1,
+			right, bottom, 1, 1,
+			-1, 1, 0, 0,
+			right, 1, 1, 0 };
+		//@formatter:on
+		quadBuffer.position(0);
+		quadBuffer.put(quad).position(0);
+	}
+
+	/** draws the lines into the texture */
+	public void setText(String[] lines) {
+		bitmap.eraseColor(BACKGROUND);
+		for (int i = 0; i < lines.length; i++) {
+			canvas.drawText(lines[i], MARGIN, MARGIN + TEXT_SIZE + i
+				* LINE_HEIGHT, paint);
+		}
+		GlState.bindTexture(texture);
+		GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, bitmap);
+		MyGLRenderer.checkGlError("texSubImage2D");
+	}
+
+	public void draw() {
+		program.use();
+		// the bitmap is uploaded with premultiplied alpha
+		GlState.setBlending(Blending.PREMULTIPLIED);
+
+		GlState.bindTexture(0, texture);
+		GLES20.glUniform1i(textureHandle, 0);
+		MyGLRenderer.checkGlError("glUniform1i");
+
+		GlState.setVertexAttribArrays(positionHandle, texCoordHandle);
+		quadBuffer.position(0);
+		GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false,
+			VERTEX_STRIDE, quadBuffer);
+		MyGLRenderer.checkGlError("glVertexAttribPointer");
+		quadBuffer.position(2);
+		GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false,
+			VERTEX_STRIDE, quadBuffer);
+		MyGLRenderer.checkGlError("glVertexAttribPointer");
+
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+		MyGLRenderer.checkGlError("glDrawArrays");
+		RenderCounters.countDrawCall();
+	}
+
+	/** deletes the texture and frees the bitmap */
+	public void release() {
+		GlObjects.deleteTexture(texture);
+		bitmap.recycle();
+	}
+}
@@ -0,0 +1,246 @@
+package com.harmoneye.viz.gl;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Stores the linked programs in the cache directory, so that the shaders do
+ * not have to be compiled again when the EGL context is recreated or the
+ * application is started again.
+ *
+ * The binaries are valid only for the driver that produced them. They are
+ * kept in a directory named after the driver and the system build, the
+ * directories of other drivers are deleted. A binary which the driver rejects
+ * anyway is deleted and the program has to be compiled from the source. So
+ * is a file which is corrupt, eg. truncated. The files are written under a
+ * temporary name and renamed when complete.
+ *
+ * Program binaries are available in OpenGL ES 3.0, which Android exposes from
+ * API level 18. The OES_get_program_binary extension of OpenGL ES 2.0 has no
+ * Java binding. Must be used only on the GL thread.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class ProgramBinaryCache {
+
+	private static final String TAG = "ProgramBinaryCache";
+
+	/** change when the stored files are no longer compatible */
+	private static final int CACHE_VERSION = 1;
+	/** the format and the length of the binary */
+	private static final int HEADER_SIZE = 8;
+
+	private final File directory;
+	private final int[] value = new int[1];
+
+	private ProgramBinaryCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Must be called on the GL thread with a current context.
+	 *
+	 * @return the cache or null if the driver cannot provide program binaries
+	 */
+	public static ProgramBinaryCache create(Context context) {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+			return null;
+		}
+		// an OpenGL ES 2.0 context may be provided by an OpenGL ES 3.0 driver
+		String version = GLES20.glGetString(GLES20.GL_VERSION);
+		if (version == null || !version.startsWith("OpenGL ES 3")) {
+			return null;
+		}
+		int[] formatCount = new int[1];
+		GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS,
+			formatCount, 0);
+		if (formatCount[0] == 0) {
+			return null;
+		}
+
+		String driver = hash(CACHE_VERSION + "\0"
+			+ GLES20.glGetString(GLES20.GL_VENDOR) + "\0"
+			+ GLES20.glGetString(GLES20.GL_RENDERER) + "\0" + version
+			+ "\0" + Build.FINGERPRINT);
+		File root = new File(context.getCacheDir(), "programs");
+		deleteOtherDrivers(root, driver);
+		File directory = new File(root, driver);
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			Log.w(TAG, "Cannot create " + directory);
+			return null;
+		}
+		return new ProgramBinaryCache(directory);
+	}
+
+	private static void deleteOtherDrivers(File root, String driver) {
+		File[] directories = root.listFiles();
+		if (directories == null) {
+			return;
+		}
+		for (File directory : directories) {
+			if (!directory.getName().equals(driver)) {
+				File[] files = directory.listFiles();
+				if (files != null) {
+					for (File file : files) {
+						file.delete();
+					}
+				}
+				directory.delete();
+			}
+		}
+	}
+
+	/**
+	 * Creates a program from the stored binary.
+	 *
+	 * @param key - identifies the sources and the attribute bindings
+	 * @return the linked program or 0 if there is no usable binary
+	 */
+	public int load(String key) {
+		File file = getFile(key);
+		if (!file.exists()) {
+			return 0;
+		}
+		int[] format = new int[1];
+		ByteBuffer binary = readBinary(file, format);
+		if (binary == null) {
+			return 0;
+		}
+
+		int program = GLES20.glCreateProgram();
+		GLES30.glProgramBinary(program, format[0], binary, binary.capacity());
+		GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, value, 0);
+		if (value[0] == 0) {
+			Log.i(TAG, "Binary rejected by the driver: "
+				+ GLES20.glGetProgramInfoLog(program));
+			GLES20.glDeleteProgram(program);
+			// clear the error of a binary in an unknown format
+			GLES20.glGetError();
+			file.delete();
+			return 0;
+		}
+		return program;
+	}
+
+	/**
+	 * Stores the binary of a linked program. A failure is only logged, the
+	 * program will be compiled again next time.
+	 */
+	public void store(String key, int program) {
+		GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, value,
+			0);
+		if (value[0] == 0) {
+			return;
+		}
+		ByteBuffer binary = ByteBuffer.allocateDirect(value[0])
+			.order(ByteOrder.nativeOrder());
+		int[] length = new int[1];
+		int[] format = new int[1];
+		GLES30.glGetProgramBinary(program, value[0], length, 0, format, 0,
+			binary);
+		if (GLES20.glGetError() != GLES20.GL_NO_ERROR || length[0] == 0) {
+			return;
+		}
+		byte[] bytes = new byte[length[0]];
+		binary.get(bytes);
+
+		writeBinary(getFile(key), format[0], bytes);
+	}
+
+	/**
+	 * Reads a stored binary. A file which cannot be read or whose length does
+	 * not match the header is deleted.
+	 *
+	 * @param format - gets the format of the binary
+	 * @return the binary or null if there is no usable one
+	 */
+	static ByteBuffer readBinary(File file, int[] format) {
+		try {
+			DataInputStream input = new DataInputStream(new FileInputStream(
+				file));
+			try {
+				format[0] = input.readInt();
+				int length = input.readInt();
+				// do not allocate whatever a corrupt header says
+				if (length <= 0 || length != file.length() - HEADER_SIZE) {
+					throw new IOException("Invalid binary length: " + length
+						+ ", file size: " + file.length());
+				}
+				byte[] bytes = new byte[length];
+				input.readFully(bytes);
+				ByteBuffer binary = ByteBuffer.allocateDirect(length)
+					.order(ByteOrder.nativeOrder());
+				binary.put(bytes).position(0);
+				return binary;
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Cannot read " + file, e);
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the binary to a temporary file which is then renamed, so that an
+	 * interrupted write does not leave a partial file.
+	 */
+	static void writeBinary(File file, int format, byte[] bytes) {
+		File tempFile = new File(file.getPath() + ".tmp");
+		try {
+			DataOutputStream output = new DataOutputStream(
+				new FileOutputStream(tempFile));
+			try {
+				output.writeInt(format);
+				output.writeInt(bytes.length);
+				output.write(bytes);
+			} finally {
+				output.close();
+			}
+			if (!tempFile.renameTo(file)) {
+				throw new IOException("Cannot rename " + tempFile);
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Cannot write " + file, e);
+			tempFile.delete();
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(directory, hash(key) + ".bin");
+	}
+
+	/** @return hexadecimal SHA-1 of the text */
+	private static String hash(String text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] bytes = digest.digest(text.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(2 * bytes.length);
+			for (byte b : bytes) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.harmoneye.viz.gl;
+
+/**
+ * Counts the draw calls and state changes issued since the start of the
+ * current frame. The counted state changes are the ones made through the
+ * {@link GlState}, which also counts the redundant ones it skipped. Must be
+ * used only on the GL thread.
+ */
+public final class RenderCounters {
+
+	private static int drawCalls;
+	private static int stateChanges;
+	private static int skippedStateChanges;
+
+	private RenderCounters() {
+	}
+
+	/** starts counting a new frame */
+	public static void reset() {
+		drawCalls = 0;
+		stateChanges = 0;
+		skippedStateChanges = 0;
+	}
+
+	/** to be called after each glDrawArrays() or glDrawElements() */
+	public static void countDrawCall() {
+		drawCalls++;
+	}
+
+	/** to be called after a call changing the GL state, eg. glUseProgram() */
+	public static void countStateChange() {
+		stateChanges++;
+	}
+
+	/** to be called instead of a call which would not change the GL state */
+	public static void countSkippedStateChange() {
+		skippedStateChanges++;
+	}
+
+	public static int getDrawCalls() {
+		return drawCalls;
+	}
+
+	public static int getStateChanges() {
+		return stateChanges;
+	}
+
+	public static int getSkippedStateChanges() {
+		return skippedStateChanges;
+	}
+}
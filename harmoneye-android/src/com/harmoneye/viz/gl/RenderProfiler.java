@@ -0,0 +1,258 @@
+package com.harmoneye.viz.gl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Measures the CPU time of the parts of a rendered frame and the time the GPU
+ * needs to finish it, together with the draw calls and state changes per
+ * frame. The values are collected in preallocated histograms over windows of
+ * a few seconds, the p50/p95/p99 of each completed window are logged and
+ * available for the HUD or an export. Must be used only on the GL thread.
+ *
+ * There are no GPU timer queries in the Android GL bindings, so the GPU time
+ * is measured as the wait in glFinish() at the end of the frame. It stalls the
+ * pipeline, so the profiler should be enabled only when needed. When it is
+ * disabled, the calls do nothing.
+ */
+public class RenderProfiler {
+
+	/**
+	 * Measured parts of a frame. A part may be measured several times in a
+	 * frame, the times are summed.
+	 */
+	public enum Section {
+		/** CPU time of the whole frame */
+		FRAME,
+		INTRO,
+		/** rendering of the static shapes into the cached layers */
+		STATIC_LAYERS,
+		/** drawing of the cached layers */
+		CACHED_LAYERS,
+		/** setting the values and drawing the sector graph */
+		SECTOR_GRAPH,
+		/** shapes drawn directly, ie. not cached */
+		SHAPES,
+		/** drawing of the dial in a single pass, see the DialMode */
+		POLAR_DIAL,
+		/** adding to and drawing of the chromagram history */
+		HISTORY,
+		/** wait for the GPU to finish the frame */
+		GPU
+	}
+
+	private static final String TAG = "RenderProfiler";
+
+	private static final long WINDOW_NANOS = 2000000000L;
+	/** 10 us resolution up to 50 ms */
+	private static final long TIME_BUCKET_NANOS = 10000;
+	private static final int TIME_BUCKETS = 5000;
+	private static final int COUNT_BUCKETS = 1024;
+
+	private static final double[] PERCENTILES = { 0.5, 0.95, 0.99 };
+
+	private static final Section[] SECTIONS = Section.values();
+	/**
+	 * rows of the summary: the sections, the draw calls, the issued and the
+	 * skipped state changes
+	 */
+	private static final int DRAW_CALLS_ROW = SECTIONS.length;
+	private static final int STATE_CHANGES_ROW = SECTIONS.length + 1;
+	private static final int SKIPPED_CHANGES_ROW = SECTIONS.length + 2;
+	private static final int ROW_COUNT = SECTIONS.length + 3;
+
+	private final Histogram[] histograms = new Histogram[ROW_COUNT];
+	private final String[] rowNames = new String[ROW_COUNT];
+	private final long[] startNanos = new long[SECTIONS.length];
+	/** time of each section in the current frame, -1 if not measured */
+	private final long[] frameNanos = new long[SECTIONS.length];
+
+	/** p50, p95, p99 and max of each row in the last completed window */
+	private final long[][] summary = new long[ROW_COUNT][PERCENTILES.length + 1];
+	private int summaryFrames;
+	private double summaryFps;
+
+	private boolean enabled;
+	private long windowStartNanos;
+	private int windowFrames;
+
+	public RenderProfiler() {
+		Arrays.fill(frameNanos, -1);
+		for (Section section : SECTIONS) {
+			histograms[section.ordinal()] = new Histogram(TIME_BUCKET_NANOS,
+				TIME_BUCKETS);
+			rowNames[section.ordinal()] = section.name().toLowerCase(
+				Locale.US);
+		}
+		histograms[DRAW_CALLS_ROW] = new Histogram(1, COUNT_BUCKETS);
+		rowNames[DRAW_CALLS_ROW] = "draw_calls";
+		histograms[STATE_CHANGES_ROW] = new Histogram(1, COUNT_BUCKETS);
+		rowNames[STATE_CHANGES_ROW] = "state_changes";
+		histograms[SKIPPED_CHANGES_ROW] = new Histogram(1, COUNT_BUCKETS);
+		rowNames[SKIPPED_CHANGES_ROW] = "skipped_changes";
+	}
+
+	/** switching on starts a new window */
+	public void setEnabled(boolean enabled) {
+		if (enabled && !this.enabled) {
+			for (Histogram histogram : histograms) {
+				histogram.clear();
+			}
+			Arrays.fill(frameNanos, -1);
+			windowStartNanos = System.nanoTime();
+			windowFrames = 0;
+		}
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void beginFrame() {
+		if (enabled) {
+			RenderCounters.reset();
+			begin(Section.FRAME);
+		}
+	}
+
+	public void begin(Section section) {
+		if (enabled) {
+			startNanos[section.ordinal()] = System.nanoTime();
+		}
+	}
+
+	public void end(Section section) {
+		if (enabled) {
+			int i = section.ordinal();
+			long elapsed = System.nanoTime() - startNanos[i];
+			frameNanos[i] = frameNanos[i] < 0 ? elapsed : frameNanos[i]
+				+ elapsed;
+		}
+	}
+
+	/**
+	 * Finishes the frame, waiting for the GPU.
+	 *
+	 * @return true if a window was completed and the summary updated
+	 */
+	public boolean endFrame() {
+		if (!enabled) {
+			return false;
+		}
+		end(Section.FRAME);
+		histograms[DRAW_CALLS_ROW].add(RenderCounters.getDrawCalls());
+		histograms[STATE_CHANGES_ROW].add(RenderCounters.getStateChanges());
+		histograms[SKIPPED_CHANGES_ROW].add(RenderCounters
+			.getSkippedStateChanges());
+		begin(Section.GPU);
+		GLES20.glFinish();
+		MyGLRenderer.checkGlError("glFinish");
+		end(Section.GPU);
+		for (int i = 0; i < frameNanos.length; i++) {
+			if (frameNanos[i] >= 0) {
+				histograms[i].add(frameNanos[i]);
+				frameNanos[i] = -1;
+			}
+		}
+		windowFrames++;
+
+		long now = System.nanoTime();
+		long elapsed = now - windowStartNanos;
+		if (elapsed < WINDOW_NANOS) {
+			return false;
+		}
+		summarize(elapsed);
+		windowStartNanos = now;
+		windowFrames = 0;
+		return true;
+	}
+
+	private void summarize(long elapsedNanos) {
+		for (int row = 0; row < ROW_COUNT; row++) {
+			Histogram histogram = histograms[row];
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				summary[row][i] = histogram.getPercentile(PERCENTILES[i]);
+			}
+			summary[row][PERCENTILES.length] = histogram.getMax();
+			histogram.clear();
+		}
+		summaryFrames = windowFrames;
+		summaryFps = windowFrames / (1e-9 * elapsedNanos);
+
+		StringBuilder text = new StringBuilder();
+		for (String line : getSummary()) {
+			text.append('\n').append(line);
+		}
+		Log.i(TAG, text.toString());
+	}
+
+	/**
+	 * @return lines describing the last completed window, the times in ms as
+	 * p50/p95/p99 max
+	 */
+	public String[] getSummary() {
+		String[] lines = new String[ROW_COUNT + 2];
+		lines[0] = String.format(Locale.US, "%.1f fps, %d frames", summaryFps,
+			summaryFrames);
+		lines[1] = String.format(Locale.US, "%-15s %6s %6s %6s %6s", "",
+			"p50", "p95", "p99", "max");
+		for (int row = 0; row < ROW_COUNT; row++) {
+			long[] values = summary[row];
+			if (row < SECTIONS.length) {
+				lines[row + 2] = String.format(Locale.US,
+					"%-15s %6.2f %6.2f %6.2f %6.2f",
+					rowNames[row],
+					1e-6 * values[0],
+					1e-6 * values[1],
+					1e-6 * values[2],
+					1e-6 * values[3]);
+			} else {
+				lines[row + 2] = String.format(Locale.US,
+					"%-15s %6d %6d %6d %6d",
+					rowNames[row],
+					values[0],
+					values[1],
+					values[2],
+					values[3]);
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Writes the last completed window as CSV, the times in milliseconds.
+	 */
+	public void export(File file) {
+		try {
+			Writer writer = new FileWriter(file);
+			try {
+				writer.write("name,frames,p50,p95,p99,max\n");
+				for (int row = 0; row < ROW_COUNT; row++) {
+					long[] values = summary[row];
+					double scale = row < SECTIONS.length ? 1e-6 : 1;
+					writer.write(String.format(Locale.US,
+						"%s,%d,%.3f,%.3f,%.3f,%.3f\n",
+						rowNames[row],
+						summaryFrames,
+						scale * values[0],
+						scale * values[1],
+						scale * values[2],
+						scale * values[3]));
+				}
+			} finally {
+				writer.close();
+			}
+			Log.i(TAG, "render profile written to " + file);
+		} catch (IOException e) {
+			Log.w(TAG, "Cannot write the render profile to " + file, e);
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.harmoneye.viz.gl;
+
+/**
+ * Quality levels of the EGL surface, from the best to the cheapest. They
+ * differ only in the anti-aliasing, none of them has a depth buffer since the
+ * scene is drawn in the painter's order.
+ */
+public enum RenderTier {
+	/** 4x multi-sampling */
+	HIGH(4),
+	/** 2x multi-sampling */
+	MEDIUM(2),
+	/** no anti-aliasing */
+	LOW(0);
+
+	private final int samples;
+
+	private RenderTier(int samples) {
+		this.samples = samples;
+	}
+
+	/** @return samples per pixel or 0 without anti-aliasing */
+	public int getSamples() {
+		return samples;
+	}
+
+	/** @return the next cheaper tier or null for the cheapest one */
+	public RenderTier lower() {
+		RenderTier[] tiers = values();
+		int next = ordinal() + 1;
+		return next < tiers.length ? tiers[next] : null;
+	}
+
+	/** @return the tier of the given name or null if there is no such tier */
+	public static RenderTier parse(String name) {
+		if (name == null) {
+			return null;
+		}
+		try {
+			return valueOf(name);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
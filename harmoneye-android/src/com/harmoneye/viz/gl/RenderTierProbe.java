@@ -0,0 +1,160 @@
+package com.harmoneye.viz.gl;
+
+import java.util.Locale;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+
+import android.content.Context;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+/**
+ * Finds the best {@link RenderTier} the device can render the scene in at
+ * the display rate. The real scene is rendered with synthetic frames into an
+ * offscreen surface of the screen size under each tier, from the best one,
+ * until the frame time meets the target.
+ *
+ * Only the tiers which the window surface supports are probed. Many drivers
+ * multi-sample only the window surfaces, so a tier may not be available
+ * offscreen. Such a tier cannot be measured, it is skipped if it is better
+ * than the {@link RenderTierResolver#DEFAULT_TIER} and it is the result
+ * otherwise, so that the probe never takes the anti-aliasing of the window
+ * which it had before.
+ *
+ * Each frame waits for the GPU, so the time covers the whole frame. The
+ * target leaves a margin for the composition and the analysis. Measuring a
+ * tier takes about a second, the tiers are measured one by one with
+ * {@link #measureNextTier()}, so that the caller can render in between. Must
+ * be run on the GL thread.
+ */
+public class RenderTierProbe {
+
+	/** receives the result of the probe */
+	public interface Listener {
+		void onProbed(RenderTier tier);
+	}
+
+	private static final String TAG = "RenderTierProbe";
+
+	/** 60 fps with a margin */
+	private static final long TARGET_FRAME_NANOS = 12000000L;
+	/** percentile of the frame times compared to the target */
+	private static final double FRAME_PERCENTILE = 0.9;
+	private static final int WARMUP_FRAMES = 20;
+	private static final int MEASURED_FRAMES = 60;
+	private static final int BINS_PER_HALFTONE = 5;
+
+	private final Context context;
+	private final int width;
+	private final int height;
+
+	private final FrameTimes frameTimes = new FrameTimes(MEASURED_FRAMES);
+
+	/** null until the tiers of the window are known */
+	private RenderTier nextTier;
+	private RenderTier result;
+
+	/** probes with the size of the display */
+	public RenderTierProbe(Context context) {
+		this(context, context.getResources().getDisplayMetrics());
+	}
+
+	private RenderTierProbe(Context context, DisplayMetrics metrics) {
+		this(context, metrics.widthPixels, metrics.heightPixels);
+	}
+
+	public RenderTierProbe(Context context, int width, int height) {
+		this.context = context;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Measures the next tier, from the best one.
+	 *
+	 * @return true if the result is known, see {@link #getResult()}
+	 */
+	public boolean measureNextTier() {
+		if (result != null) {
+			return true;
+		}
+		if (nextTier == null) {
+			// a better tier would not be used by the window anyway
+			nextTier = chooseTier(RenderTier.values()[0], EGL10.EGL_WINDOW_BIT);
+		}
+		while (chooseTier(nextTier, EGL10.EGL_PBUFFER_BIT) != nextTier) {
+			Log.i(TAG, nextTier + " cannot be measured offscreen");
+			if (nextTier.compareTo(RenderTierResolver.DEFAULT_TIER) >= 0) {
+				result = nextTier;
+				return true;
+			}
+			nextTier = nextTier.lower();
+		}
+		MultisampleConfigChooser chooser = new MultisampleConfigChooser(
+			nextTier, false, EGL10.EGL_PBUFFER_BIT);
+		long nanos = OffscreenContext.run(chooser, width, height,
+			new OffscreenContext.Task<Long>() {
+				@Override
+				public Long run(EGLConfig config) {
+					return measure(config);
+				}
+			});
+		RenderTier measured = chooser.getChosenTier();
+		boolean fast = nanos <= TARGET_FRAME_NANOS;
+		Log.i(TAG, String.format(Locale.US,
+			"%s at %dx%d: %.2f ms per frame (p%d), %s",
+			measured,
+			width,
+			height,
+			1e-6 * nanos,
+			Math.round(100 * FRAME_PERCENTILE),
+			fast ? "meets the target" : "too slow"));
+		if (fast || measured.lower() == null) {
+			result = measured;
+			return true;
+		}
+		nextTier = measured.lower();
+		return false;
+	}
+
+	/**
+	 * @return the best tier meeting the target frame time, the cheapest one
+	 * if none does, null until all the needed tiers were measured
+	 */
+	public RenderTier getResult() {
+		return result;
+	}
+
+	/**
+	 * @return the best tier up to the given one which has a config of the
+	 * surface type
+	 */
+	private static RenderTier chooseTier(RenderTier tier, int surfaceType) {
+		EGL10 egl = (EGL10) EGLContext.getEGL();
+		// the display is shared with the GLSurfaceView, it is not terminated
+		EGLDisplay display = egl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+		if (!egl.eglInitialize(display, new int[2])) {
+			throw new IllegalStateException("eglInitialize failed: "
+				+ egl.eglGetError());
+		}
+		MultisampleConfigChooser chooser = new MultisampleConfigChooser(tier,
+			false, surfaceType);
+		chooser.chooseConfig(egl, display);
+		return chooser.getChosenTier();
+	}
+
+	/** @return the frame time percentile in nanoseconds */
+	private long measure(EGLConfig config) {
+		MyGLRenderer renderer = new MyGLRenderer(context);
+		renderer.setStartupTraceEnabled(false);
+		renderer.onSurfaceCreated(null, config);
+		renderer.onSurfaceChanged(null, width, height);
+		OffscreenRenderBenchmark.waitForTextures(renderer);
+
+		frameTimes.measure(renderer, BINS_PER_HALFTONE, WARMUP_FRAMES);
+		return frameTimes.getPercentile(FRAME_PERCENTILE);
+	}
+}
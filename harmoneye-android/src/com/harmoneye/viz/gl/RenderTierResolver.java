@@ -0,0 +1,84 @@
+package com.harmoneye.viz.gl;
+
+import android.content.SharedPreferences;
+import android.os.Build;
+
+/**
+ * Decides which {@link RenderTier} to create the surface with. An override
+ * set eg. by the user wins, otherwise the tier found by the
+ * {@link RenderTierProbe} is used. The probed tier is stored in the
+ * preferences together with the build fingerprint, so the probe runs only on
+ * the first launch and after a system update.
+ *
+ * The tier is chosen when the surface is created, so a new tier takes effect
+ * on the next launch.
+ */
+public class RenderTierResolver {
+
+	/** used until the probe finishes, the former fixed 2x multi-sampling */
+	public static final RenderTier DEFAULT_TIER = RenderTier.MEDIUM;
+
+	private static final String KEY_FINGERPRINT = "renderTier.fingerprint";
+	private static final String KEY_PROBED = "renderTier.probed";
+	private static final String KEY_OVERRIDE = "renderTier.override";
+
+	private final SharedPreferences preferences;
+	private final String fingerprint;
+
+	public RenderTierResolver(SharedPreferences preferences) {
+		this(preferences, Build.FINGERPRINT);
+	}
+
+	/**
+	 * @param fingerprint - identifies the device and system version, the
+	 * probed tier is ignored when it changes
+	 */
+	public RenderTierResolver(SharedPreferences preferences,
+		String fingerprint) {
+		this.preferences = preferences;
+		this.fingerprint = fingerprint;
+	}
+
+	/** @return the tier to create the surface with */
+	public RenderTier resolve() {
+		RenderTier tier = getOverride();
+		if (tier == null) {
+			tier = getProbedTier();
+		}
+		return tier != null ? tier : DEFAULT_TIER;
+	}
+
+	/** @return true if there is neither an override nor a valid probed tier */
+	public boolean isProbeNeeded() {
+		return getOverride() == null && getProbedTier() == null;
+	}
+
+	/** @return the probed tier or null if not probed on this system */
+	public RenderTier getProbedTier() {
+		if (!fingerprint.equals(preferences.getString(KEY_FINGERPRINT, null))) {
+			return null;
+		}
+		return RenderTier.parse(preferences.getString(KEY_PROBED, null));
+	}
+
+	public void storeProbedTier(RenderTier tier) {
+		preferences.edit()
+			.putString(KEY_FINGERPRINT, fingerprint)
+			.putString(KEY_PROBED, tier.name())
+			.apply();
+	}
+
+	/** @return the tier set by {@link #setOverride(RenderTier)} or null */
+	public RenderTier getOverride() {
+		return RenderTier.parse(preferences.getString(KEY_OVERRIDE, null));
+	}
+
+	/** @param tier - the tier to use regardless of the probe, null to clear */
+	public void setOverride(RenderTier tier) {
+		if (tier != null) {
+			preferences.edit().putString(KEY_OVERRIDE, tier.name()).apply();
+		} else {
+			preferences.edit().remove(KEY_OVERRIDE).apply();
+		}
+	}
+}
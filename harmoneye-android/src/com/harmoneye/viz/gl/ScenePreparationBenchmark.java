@@ -0,0 +1,118 @@
+package com.harmoneye.viz.gl;
+
+import java.util.Locale;
+import java.util.Random;
+
+import android.os.Debug;
+import android.util.Log;
+
+import com.harmoneye.viz.scene.FrameSnapshot;
+import com.harmoneye.viz.scene.SectorColorTable;
+import com.harmoneye.viz.scene.SectorGraphScene;
+
+/**
+ * Measures the per-frame CPU work of the sector graph scene, ie. without any
+ * GL calls, across the bin resolutions and pitch steps. For each combination
+ * it reports the time and the number of allocations per frame.
+ *
+ * The frames are synthetic and change every iteration so that the values are
+ * not constant. The allocations are counted by the VM for the current thread.
+ *
+ * It also checks that the {@link SectorColorTable} gives the same colors as
+ * the direct conversion within {@link #COLOR_TOLERANCE}.
+ */
+public class ScenePreparationBenchmark {
+
+	private static final String TAG = "ScenePreparationBenchmark";
+
+	private static final int HALFTONES_PER_OCTAVE = 12;
+	private static final int[] BINS_PER_HALFTONE = { 1, 3, 5, 7 };
+	private static final int[] PITCH_STEPS = { 1, 7 };
+
+	private static final int FRAME_VARIANTS = 16;
+	private static final int WARMUP_FRAMES = 1000;
+	private static final int MEASURED_FRAMES = 10000;
+
+	/** rounding to 8 bits and the linear interpolation between the values */
+	private static final float COLOR_TOLERANCE = 2 / 255f;
+	private static final int COLOR_SAMPLES = 1000;
+
+	private ScenePreparationBenchmark() {
+	}
+
+	public static void run(float scale) {
+		Random random = new Random(42);
+		for (int binsPerHalftone : BINS_PER_HALFTONE) {
+			FrameSnapshot[] frames = createFrames(random, binsPerHalftone);
+			for (int pitchStep : PITCH_STEPS) {
+				measure(new SectorGraphScene(scale), frames, pitchStep);
+			}
+		}
+		checkColorTable();
+	}
+
+	private static void checkColorTable() {
+		SectorColorTable table = new SectorColorTable();
+		float maxError = 0;
+		for (int key = 0; key < HALFTONES_PER_OCTAVE; key++) {
+			table.update(key, HALFTONES_PER_OCTAVE);
+			maxError = Math.max(maxError, table.getMaxError(COLOR_SAMPLES));
+		}
+		table.update(null, HALFTONES_PER_OCTAVE);
+		maxError = Math.max(maxError, table.getMaxError(COLOR_SAMPLES));
+
+		String message = String.format(Locale.US,
+			"color table: max error %.4f, tolerance %.4f",
+			maxError,
+			COLOR_TOLERANCE);
+		if (maxError > COLOR_TOLERANCE) {
+			Log.w(TAG, message);
+		} else {
+			Log.i(TAG, message);
+		}
+	}
+
+	private static FrameSnapshot[] createFrames(Random random,
+		int binsPerHalftone) {
+		FrameSnapshot[] frames = new FrameSnapshot[FRAME_VARIANTS];
+		double[] bins = new double[HALFTONES_PER_OCTAVE * binsPerHalftone];
+		for (int i = 0; i < frames.length; i++) {
+			for (int j = 0; j < bins.length; j++) {
+				bins[j] = random.nextDouble();
+			}
+			// every other frame without a key, ie. in gray
+			Integer key = i % 2 == 0 ? i % HALFTONES_PER_OCTAVE : null;
+			frames[i] = new FrameSnapshot();
+			frames[i].set(bins, binsPerHalftone, HALFTONES_PER_OCTAVE, key,
+				i + 1);
+		}
+		return frames;
+	}
+
+	// the alloc counting is deprecated in favor of Debug.getRuntimeStat(),
+	// which needs API 23 and has no per-thread allocation count
+	@SuppressWarnings("deprecation")
+	private static void measure(SectorGraphScene scene,
+		FrameSnapshot[] frames, int pitchStep) {
+		for (int i = 0; i < WARMUP_FRAMES; i++) {
+			scene.prepare(frames[i % frames.length], pitchStep);
+		}
+
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_FRAMES; i++) {
+			scene.prepare(frames[i % frames.length], pitchStep);
+		}
+		long elapsed = System.nanoTime() - start;
+		Debug.stopAllocCounting();
+		int allocations = Debug.getThreadAllocCount();
+
+		Log.i(TAG, String.format(Locale.US,
+			"%d sectors, pitch step %d: %.0f ns, %.3f allocations per frame",
+			scene.getSectorCount(),
+			pitchStep,
+			(double) elapsed / MEASURED_FRAMES,
+			(double) allocations / MEASURED_FRAMES));
+	}
+}
@@ -0,0 +1,101 @@
+package com.harmoneye.viz.gl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import android.opengl.GLES20;
+
+import com.harmoneye.viz.scene.SectorColorTable;
+
+/**
+ * The {@link SectorColorTable} uploaded as a texture, so that the fragment
+ * shader can look up a sector color by its pitch class and value.
+ *
+ * The values are along the s axis and filtered linearly, the rows along the t
+ * axis are sampled in their centers. The texture is uploaded again only when
+ * the table is rebuilt, ie. when the key changes. Must be used only on the GL
+ * thread.
+ */
+public class SectorColorTexture {
+
+	private final SectorColorTable table = new SectorColorTable();
+	private final int texture;
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(0);
+
+	public SectorColorTexture() {
+		texture = GlObjects.genTexture();
+		GlState.bindTexture(texture);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_MIN_FILTER,
+			GLES20.GL_LINEAR);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_MAG_FILTER,
+			GLES20.GL_LINEAR);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		// the height is not a power of two
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_WRAP_S,
+			GLES20.GL_CLAMP_TO_EDGE);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_WRAP_T,
+			GLES20.GL_CLAMP_TO_EDGE);
+		MyGLRenderer.checkGlError("glTexParameteri");
+	}
+
+	/**
+	 * Uploads the table again if the key or the number of halftones changed.
+	 *
+	 * @param key - the detected key or null
+	 */
+	public void update(Integer key, int halftoneCount) {
+		if (!table.update(key, halftoneCount)) {
+			return;
+		}
+		byte[] colors = table.getColors();
+		if (buffer.capacity() != colors.length) {
+			buffer = ByteBuffer.allocateDirect(colors.length).order(
+				ByteOrder.nativeOrder());
+		}
+		buffer.position(0);
+		buffer.put(colors).position(0);
+
+		GlState.bindTexture(texture);
+		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D,
+			0,
+			GLES20.GL_RGBA,
+			SectorColorTable.VALUE_STEPS,
+			table.getRowCount(),
+			0,
+			GLES20.GL_RGBA,
+			GLES20.GL_UNSIGNED_BYTE,
+			buffer);
+		MyGLRenderer.checkGlError("glTexImage2D");
+	}
+
+	/** @param unit - index of the texture unit to bind the texture to */
+	public void bind(int unit) {
+		GlState.bindTexture(unit, texture);
+	}
+
+	/** @return the s coordinate of the color of the value in [0; 1] */
+	public float getValueCoord(float value) {
+		// from the center of the first texel to the center of the last one
+		int steps = SectorColorTable.VALUE_STEPS;
+		return (value * (steps - 1) + 0.5f) / steps;
+	}
+
+	/** @return the t coordinate of the row of the pitch class */
+	public float getPitchClassCoord(int pitchClass) {
+		return (table.getRow(pitchClass) + 0.5f) / table.getRowCount();
+	}
+
+	public SectorColorTable getTable() {
+		return table;
+	}
+
+	public void release() {
+		GlObjects.deleteTexture(texture);
+	}
+}
@@ -0,0 +1,75 @@
+package com.harmoneye.viz.gl;
+
+import java.util.Locale;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import com.harmoneye.viz.gl.shape.SectorGraph;
+import com.harmoneye.viz.scene.FrameSnapshot;
+
+/**
+ * Compares the sector graph implementations on the same analyzed frame. Must
+ * be run on the GL thread.
+ *
+ * For each graph it reports the number of draw calls per frame, the CPU time
+ * spent in draw() (which includes the driver overhead of issuing the calls)
+ * and the time until the GPU finished the frame. Each graph is measured with
+ * the {@link GlValidation} both enabled and disabled.
+ */
+public class SectorGraphBenchmark {
+
+	private static final String TAG = "SectorGraphBenchmark";
+
+	private static final int WARMUP_FRAMES = 30;
+	private static final int MEASURED_FRAMES = 300;
+
+	private SectorGraphBenchmark() {
+	}
+
+	public static void run(float[] mvpMatrix, FrameSnapshot frame,
+		String[] names, SectorGraph[] graphs) {
+		boolean validationEnabled = GlValidation.isEnabled();
+		try {
+			for (int i = 0; i < graphs.length; i++) {
+				graphs[i].setValue(frame);
+				GlValidation.setEnabled(true);
+				measure(mvpMatrix, names[i] + " (GL validation)", graphs[i]);
+				GlValidation.setEnabled(false);
+				measure(mvpMatrix, names[i], graphs[i]);
+			}
+		} finally {
+			GlValidation.setEnabled(validationEnabled);
+		}
+	}
+
+	private static void measure(float[] mvpMatrix, String name,
+		SectorGraph graph) {
+		for (int j = 0; j < WARMUP_FRAMES; j++) {
+			graph.draw(mvpMatrix);
+		}
+		GLES20.glFinish();
+		MyGLRenderer.checkGlError("glFinish");
+
+		long cpuNanos = 0;
+		long totalNanos = 0;
+		for (int j = 0; j < MEASURED_FRAMES; j++) {
+			long start = System.nanoTime();
+			graph.draw(mvpMatrix);
+			GlValidation.checkFrame();
+			long drawn = System.nanoTime();
+			GLES20.glFinish();
+			MyGLRenderer.checkGlError("glFinish");
+			long finished = System.nanoTime();
+			cpuNanos += drawn - start;
+			totalNanos += finished - start;
+		}
+
+		Log.i(TAG, String.format(Locale.US,
+			"%s: %d draw calls, %.3f ms CPU, %.3f ms until finished per frame",
+			name,
+			graph.getDrawCallCount(),
+			1e-6 * cpuNanos / MEASURED_FRAMES,
+			1e-6 * totalNanos / MEASURED_FRAMES));
+	}
+}
@@ -0,0 +1,90 @@
+package com.harmoneye.viz.gl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.opengl.GLES20;
+
+/**
+ * A linked OpenGL program with the locations of all its active attributes and
+ * uniforms resolved once at link time.
+ *
+ * Instances are obtained from {@link ShaderProgramRegistry} and are valid only
+ * within the EGL context in which they were created.
+ */
+public class ShaderProgram {
+
+	private static final int MAX_NAME_LENGTH = 256;
+
+	private final int handle;
+	private final Map<String, Integer> attributes = new HashMap<String, Integer>();
+	private final Map<String, Integer> uniforms = new HashMap<String, Integer>();
+
+	ShaderProgram(int handle) {
+		this.handle = handle;
+		resolveLocations();
+	}
+
+	private void resolveLocations() {
+		int[] count = new int[1];
+		int[] length = new int[1];
+		int[] size = new int[1];
+		int[] type = new int[1];
+		byte[] name = new byte[MAX_NAME_LENGTH];
+
+		GLES20.glGetProgramiv(handle, GLES20.GL_ACTIVE_ATTRIBUTES, count, 0);
+		MyGLRenderer.checkGlError("glGetProgramiv");
+		for (int i = 0; i < count[0]; i++) {
+			GLES20.glGetActiveAttrib(handle, i, name.length, length, 0, size, 0,
+				type, 0, name, 0);
+			MyGLRenderer.checkGlError("glGetActiveAttrib");
+			String attribute = new String(name, 0, length[0]);
+			attributes.put(attribute,
+				GLES20.glGetAttribLocation(handle, attribute));
+			MyGLRenderer.checkGlError("glGetAttribLocation");
+		}
+
+		GLES20.glGetProgramiv(handle, GLES20.GL_ACTIVE_UNIFORMS, count, 0);
+		MyGLRenderer.checkGlError("glGetProgramiv");
+		for (int i = 0; i < count[0]; i++) {
+			GLES20.glGetActiveUniform(handle, i, name.length, length, 0, size, 0,
+				type, 0, name, 0);
+			MyGLRenderer.checkGlError("glGetActiveUniform");
+			String uniform = stripArraySuffix(new String(name, 0, length[0]));
+			uniforms.put(uniform, GLES20.glGetUniformLocation(handle, uniform));
+			MyGLRenderer.checkGlError("glGetUniformLocation");
+		}
+	}
+
+	/** array uniforms are reported as "name[0]" by some drivers */
+	private static String stripArraySuffix(String name) {
+		int bracket = name.indexOf('[');
+		return bracket >= 0 ? name.substring(0, bracket) : name;
+	}
+
+	public int getHandle() {
+		return handle;
+	}
+
+	/**
+	 * @return location of the active attribute or -1 if there is no such
+	 * active attribute (eg. it was optimized out), like glGetAttribLocation()
+	 */
+	public int getAttribLocation(String name) {
+		Integer location = attributes.get(name);
+		return location != null ? location : -1;
+	}
+
+	/**
+	 * @return location of the active uniform or -1 if there is no such active
+	 * uniform (eg. it was optimized out), like glGetUniformLocation()
+	 */
+	public int getUniformLocation(String name) {
+		Integer location = uniforms.get(name);
+		return location != null ? location : -1;
+	}
+
+	public void use() {
+		GlState.useProgram(handle);
+	}
+}
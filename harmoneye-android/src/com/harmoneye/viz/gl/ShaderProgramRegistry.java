@@ -0,0 +1,119 @@
+package com.harmoneye.viz.gl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.opengl.GLES20;
+
+import com.harmoneye.trace.StartupTrace;
+import com.learnopengles.android.common.ShaderHelper;
+
+/**
+ * Compiles each distinct shader source and links each distinct program only
+ * once, so that shapes using the same shaders share a single program.
+ *
+ * A registry is bound to one EGL context. A new one must be created whenever
+ * the context is (re)created, ie. in onSurfaceCreated().
+ *
+ * With a {@link ProgramBinaryCache} the programs linked in a previous context
+ * are loaded from their binaries and the shaders are not compiled at all.
+ */
+public class ShaderProgramRegistry {
+
+	private final Map<String, Integer> vertexShaders = new HashMap<String, Integer>();
+	private final Map<String, Integer> fragmentShaders = new HashMap<String, Integer>();
+	private final Map<String, ShaderProgram> programs = new HashMap<String, ShaderProgram>();
+	private final ProgramBinaryCache binaries;
+
+	public ShaderProgramRegistry() {
+		this(null);
+	}
+
+	/**
+	 * @param binaries - cache of the linked programs, may be null
+	 */
+	public ShaderProgramRegistry(ProgramBinaryCache binaries) {
+		this.binaries = binaries;
+	}
+
+	public ShaderProgram getProgram(String vertexShaderCode,
+		String fragmentShaderCode) {
+		return getProgram(vertexShaderCode, fragmentShaderCode, null);
+	}
+
+	/**
+	 * @param attributes attributes to bind to locations 0, 1, ... before
+	 * linking, may be null
+	 */
+	public ShaderProgram getProgram(String vertexShaderCode,
+		String fragmentShaderCode, String[] attributes) {
+		String key = vertexShaderCode + '\0' + fragmentShaderCode + '\0'
+			+ Arrays.toString(attributes);
+		ShaderProgram program = programs.get(key);
+		if (program == null) {
+			int handle = loadBinary(key);
+			if (handle == 0) {
+				handle = link(vertexShaderCode, fragmentShaderCode, attributes);
+				if (binaries != null) {
+					binaries.store(key, handle);
+				}
+			}
+			program = new ShaderProgram(handle);
+			programs.put(key, program);
+		}
+		return program;
+	}
+
+	private int loadBinary(String key) {
+		if (binaries == null) {
+			return 0;
+		}
+		int span = StartupTrace.begin("loadProgramBinary");
+		int handle = GlObjects.addProgram(binaries.load(key));
+		StartupTrace.end(span);
+		return handle;
+	}
+
+	private int link(String vertexShaderCode, String fragmentShaderCode,
+		String[] attributes) {
+		int vertexShader = getShader(vertexShaders,
+			GLES20.GL_VERTEX_SHADER,
+			vertexShaderCode);
+		int fragmentShader = getShader(fragmentShaders,
+			GLES20.GL_FRAGMENT_SHADER,
+			fragmentShaderCode);
+		int span = StartupTrace.begin("linkProgram");
+		int handle = GlObjects.addProgram(ShaderHelper.createAndLinkProgram(
+			vertexShader, fragmentShader, attributes));
+		StartupTrace.end(span);
+		return handle;
+	}
+
+	/** deletes all the programs and shaders */
+	public void release() {
+		for (ShaderProgram program : programs.values()) {
+			GlObjects.deleteProgram(program.getHandle());
+		}
+		for (int shader : vertexShaders.values()) {
+			GlObjects.deleteShader(shader);
+		}
+		for (int shader : fragmentShaders.values()) {
+			GlObjects.deleteShader(shader);
+		}
+		programs.clear();
+		vertexShaders.clear();
+		fragmentShaders.clear();
+	}
+
+	private int getShader(Map<String, Integer> shaders, int type, String code) {
+		Integer shader = shaders.get(code);
+		if (shader == null) {
+			int span = StartupTrace.begin("compileShader");
+			shader = GlObjects.addShader(ShaderHelper.compileShader(type, code));
+			StartupTrace.end(span);
+			shaders.put(code, shader);
+		}
+		return shader;
+	}
+}
@@ -0,0 +1,166 @@
+package com.harmoneye.viz.gl;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+
+/**
+ * Several bitmap resources packed into a single texture, so that they can be
+ * drawn with one texture bind and in one batch.
+ *
+ * The layout is computed from the bitmap sizes when the atlas is created, the
+ * texture itself is decoded and composed in the background by an
+ * {@link AsyncTexture}. The bitmaps are packed into shelves (rows) from the
+ * tallest one. The texture coordinates are inset by half a texel, so that the
+ * linear filtering does not bleed the neighboring regions in.
+ */
+public class TextureAtlas {
+
+	private final int[] resources;
+	/** x, y, width, height of each region in pixels */
+	private final int[] rects;
+	/** u0, v0, u1, v1 of each region, v grows downwards as in the bitmap */
+	private final float[] texCoords;
+	private final int width;
+	private final int height;
+	private final AsyncTexture texture;
+
+	/**
+	 * Must be called on the GL thread.
+	 *
+	 * @param name - unique name of the atlas
+	 */
+	public TextureAtlas(Context context, String name, int[] resources) {
+		this.resources = resources.clone();
+		int count = resources.length;
+		rects = new int[4 * count];
+		texCoords = new float[4 * count];
+
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inScaled = false;
+		options.inJustDecodeBounds = true;
+		int maxWidth = 0;
+		int area = 0;
+		for (int i = 0; i < count; i++) {
+			BitmapFactory.decodeResource(context.getResources(), resources[i],
+				options);
+			rects[4 * i + 2] = options.outWidth;
+			rects[4 * i + 3] = options.outHeight;
+			maxWidth = Math.max(maxWidth, options.outWidth);
+			area += options.outWidth * options.outHeight;
+		}
+
+		width = ceilPowerOfTwo(Math.max(maxWidth, (int) Math.sqrt(area)));
+		height = ceilPowerOfTwo(pack());
+		for (int i = 0; i < count; i++) {
+			int x = rects[4 * i];
+			int y = rects[4 * i + 1];
+			texCoords[4 * i] = (x + 0.5f) / width;
+			texCoords[4 * i + 1] = (y + 0.5f) / height;
+			texCoords[4 * i + 2] = (x + rects[4 * i + 2] - 0.5f) / width;
+			texCoords[4 * i + 3] = (y + rects[4 * i + 3] - 0.5f) / height;
+		}
+
+		texture = new AsyncTexture(context, name + "_" + width + "x" + height,
+			new AsyncTexture.BitmapSource() {
+				@Override
+				public Bitmap decode(Context context) {
+					return compose(context);
+				}
+			});
+	}
+
+	/**
+	 * Places the regions into shelves of the atlas width.
+	 *
+	 * @return used height
+	 */
+	private int pack() {
+		int count = resources.length;
+		// order by height, tallest first
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return rects[4 * b + 3] - rects[4 * a + 3];
+			}
+		});
+
+		int x = 0;
+		int shelfY = 0;
+		int shelfHeight = 0;
+		for (int i : order) {
+			int w = rects[4 * i + 2];
+			int h = rects[4 * i + 3];
+			if (x + w > width) {
+				x = 0;
+				shelfY += shelfHeight;
+				shelfHeight = 0;
+			}
+			rects[4 * i] = x;
+			rects[4 * i + 1] = shelfY;
+			x += w;
+			shelfHeight = Math.max(shelfHeight, h);
+		}
+		return shelfY + shelfHeight;
+	}
+
+	private static int ceilPowerOfTwo(int value) {
+		int power = Integer.highestOneBit(Math.max(1, value));
+		return power < value ? power << 1 : power;
+	}
+
+	/**
+	 * draws all the bitmaps into the atlas bitmap
+	 *
+	 * @return null if any of the bitmaps cannot be decoded
+	 */
+	private Bitmap compose(Context context) {
+		Bitmap atlas = Bitmap.createBitmap(width, height,
+			Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(atlas);
+		for (int i = 0; i < resources.length; i++) {
+			Bitmap bitmap = AsyncTexture.decodeResource(context, resources[i]);
+			if (bitmap == null) {
+				atlas.recycle();
+				return null;
+			}
+			canvas.drawBitmap(bitmap, rects[4 * i], rects[4 * i + 1], null);
+			bitmap.recycle();
+		}
+		return atlas;
+	}
+
+	/** @return index of the region with the resource */
+	public int getRegion(int resource) {
+		for (int i = 0; i < resources.length; i++) {
+			if (resources[i] == resource) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Resource not in the atlas: "
+			+ resource);
+	}
+
+	/**
+	 * @return u0, v0, u1, v1 of all the regions, 4 values for each
+	 */
+	public float[] getTexCoords() {
+		return texCoords;
+	}
+
+	public AsyncTexture getTexture() {
+		return texture;
+	}
+
+	public void release() {
+		texture.release();
+	}
+}
@@ -0,0 +1,72 @@
+package com.harmoneye.viz.gl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free exchange of the latest value between a single producer and a
+ * single consumer thread without any allocation.
+ *
+ * There are three preallocated slots. The producer writes into its back slot
+ * and publishes it by swapping it with the middle slot. The consumer swaps its
+ * front slot with the middle one only if there is something new. Each swap is
+ * a single atomic operation, so neither side ever blocks and the consumer
+ * always sees the latest completely written value.
+ *
+ * @param <T> type of the slots
+ */
+public class TripleBuffer<T> {
+
+	/** set in {@link #middle} when it holds a value not seen by the consumer */
+	private static final int FRESH = 4;
+	private static final int INDEX_MASK = 3;
+
+	private final T[] slots;
+	/** index of the middle slot + the FRESH flag */
+	private final AtomicInteger middle = new AtomicInteger(1);
+	/** owned by the producer */
+	private int back = 0;
+	/** owned by the consumer */
+	private int front = 2;
+
+	/** number of values overwritten before the consumer could see them */
+	private final AtomicInteger droppedCount = new AtomicInteger();
+
+	public TripleBuffer(T back, T middle, T front) {
+		@SuppressWarnings("unchecked")
+		T[] slots = (T[]) new Object[] { back, middle, front };
+		this.slots = slots;
+	}
+
+	/**
+	 * @return the slot the producer may write to until the next
+	 * {@link #publish()}
+	 */
+	public T getBack() {
+		return slots[back];
+	}
+
+	/** Makes the back slot visible to the consumer. Producer only. */
+	public void publish() {
+		int previous = middle.getAndSet(back | FRESH);
+		if ((previous & FRESH) != 0) {
+			droppedCount.incrementAndGet();
+		}
+		back = previous & INDEX_MASK;
+	}
+
+	/**
+	 * @return the latest published value (or the previously returned one if
+	 * nothing new was published). It stays unchanged until the next call.
+	 * Consumer only.
+	 */
+	public T acquire() {
+		if ((middle.get() & FRESH) != 0) {
+			front = middle.getAndSet(front) & INDEX_MASK;
+		}
+		return slots[front];
+	}
+
+	public int getDroppedCount() {
+		return droppedCount.get();
+	}
+}
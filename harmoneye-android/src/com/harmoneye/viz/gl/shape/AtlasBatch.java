@@ -0,0 +1,209 @@
+package com.harmoneye.viz.gl.shape;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import android.content.Context;
+import android.opengl.GLES20;
+
+import com.harmoneye.android.R;
+import com.harmoneye.viz.gl.AsyncTexture;
+import com.harmoneye.viz.gl.GlObjects;
+import com.harmoneye.viz.gl.GlState;
+import com.harmoneye.viz.gl.GlState.Blending;
+import com.harmoneye.viz.gl.MyGLRenderer;
+import com.harmoneye.viz.gl.RenderCounters;
+import com.harmoneye.viz.gl.ShaderProgram;
+import com.harmoneye.viz.gl.ShaderProgramRegistry;
+import com.harmoneye.viz.gl.TextureAtlas;
+import com.learnopengles.android.common.RawResourceReader;
+
+/**
+ * Draws rectangles showing regions of a {@link TextureAtlas}. The rectangles
+ * added between {@link #begin(float[])} and {@link #end()} are drawn with a
+ * single texture bind and a single draw call from a shared streaming vertex
+ * buffer.
+ *
+ * Nothing is drawn until the atlas texture is ready.
+ */
+public class AtlasBatch {
+
+	private static final int MAX_QUADS = 32;
+
+	private static final int BYTES_PER_FLOAT = 4;
+	/** x, y, s, t */
+	private static final int FLOATS_PER_VERTEX = 4;
+	private static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+	/** two triangles */
+	private static final int VERTICES_PER_QUAD = 6;
+	private static final int FLOATS_PER_QUAD = VERTICES_PER_QUAD
+		* FLOATS_PER_VERTEX;
+	private static final String[] ATTRIBUTES = { "a_Position",
+		"a_TexCoordinate" };
+
+	private final TextureAtlas atlas;
+	private final ShaderProgramRegistry programs;
+	private final String vertexShaderCode;
+	private ShaderProgram program;
+	private int positionHandle;
+	private int texCoordHandle;
+	private int mvpMatrixHandle;
+	private int textureHandle;
+	private int alphaTextureHandle;
+	private boolean programChosen;
+
+	private final int vertexBufferObject;
+	private final float[] vertices = new float[MAX_QUADS * FLOATS_PER_QUAD];
+	private final FloatBuffer vertexBuffer;
+
+	private float[] mvpMatrix;
+	private int quadCount;
+
+	/**
+	 * Must be called on the GL thread.
+	 */
+	public AtlasBatch(Context context, ShaderProgramRegistry programs,
+		TextureAtlas atlas) {
+		this.atlas = atlas;
+		this.programs = programs;
+		vertexShaderCode = RawResourceReader.readTextFileFromRawResource(
+			context, R.raw.flat_texture_vertex_shader);
+		useProgram(RawResourceReader.readTextFileFromRawResource(context,
+			R.raw.flat_texture_fragment_shader));
+
+		vertexBufferObject = GlObjects.genBuffer();
+		vertexBuffer = ByteBuffer.allocateDirect(vertices.length
+			* BYTES_PER_FLOAT)
+			.order(ByteOrder.nativeOrder())
+			.asFloatBuffer();
+	}
+
+	private void useProgram(String fragmentShaderCode) {
+		program = programs.getProgram(vertexShaderCode, fragmentShaderCode,
+			ATTRIBUTES);
+		positionHandle = program.getAttribLocation("a_Position");
+		texCoordHandle = program.getAttribLocation("a_TexCoordinate");
+		mvpMatrixHandle = program.getUniformLocation("u_MVPMatrix");
+		textureHandle = program.getUniformLocation("u_Texture");
+		alphaTextureHandle = program.getUniformLocation("u_AlphaTexture");
+	}
+
+	/** deletes the vertex buffer, the atlas is released by its owner */
+	public void release() {
+		GlObjects.deleteBuffer(vertexBufferObject);
+	}
+
+	/** @return true if the atlas texture can be drawn */
+	public boolean isReady() {
+		return atlas.getTexture().upload();
+	}
+
+	/** starts a new batch, the matrix must not change until {@link #end()} */
+	public void begin(float[] mvpMatrix) {
+		this.mvpMatrix = mvpMatrix;
+		quadCount = 0;
+	}
+
+	/**
+	 * Adds a rectangle with the given atlas region.
+	 *
+	 * @param region - index from {@link TextureAtlas#getRegion(int)}
+	 */
+	public void add(int region, float centerX, float centerY,
+		float halfWidth, float halfHeight) {
+		if (quadCount == MAX_QUADS) {
+			throw new IllegalStateException("At most " + MAX_QUADS
+				+ " quads per batch are supported");
+		}
+		float[] texCoords = atlas.getTexCoords();
+		float s0 = texCoords[4 * region];
+		float t0 = texCoords[4 * region + 1];
+		float s1 = texCoords[4 * region + 2];
+		float t1 = texCoords[4 * region + 3];
+		float left = centerX - halfWidth;
+		float right = centerX + halfWidth;
+		float bottom = centerY - halfHeight;
+		float top = centerY + halfHeight;
+
+		// the bitmap rows go from the top, t0 is the top edge
+		int offset = quadCount * FLOATS_PER_QUAD;
+		offset = putVertex(offset, left, top, s0, t0);
+		offset = putVertex(offset, left, bottom, s0, t1);
+		offset = putVertex(offset, right, top, s1, t0);
+		offset = putVertex(offset, left, bottom, s0, t1);
+		offset = putVertex(offset, right, bottom, s1, t1);
+		putVertex(offset, right, top, s1, t0);
+		quadCount++;
+	}
+
+	private int putVertex(int offset, float x, float y, float s, float t) {
+		vertices[offset++] = x;
+		vertices[offset++] = y;
+		vertices[offset++] = s;
+		vertices[offset++] = t;
+		return offset;
+	}
+
+	/** draws the batch */
+	public void end() {
+		if (quadCount == 0 || !isReady()) {
+			return;
+		}
+		AsyncTexture texture = atlas.getTexture();
+		if (!programChosen) {
+			programChosen = true;
+			if (texture.getAlphaTexture() != 0) {
+				useProgram(Shaders.SPLIT_ALPHA_FRAGMENT_SHADER);
+			}
+		}
+
+		int floatCount = quadCount * FLOATS_PER_QUAD;
+		vertexBuffer.position(0);
+		vertexBuffer.put(vertices, 0, floatCount);
+		vertexBuffer.position(0);
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferObject);
+		MyGLRenderer.checkGlError("glBindBuffer");
+		// orphan the storage possibly still used by the previous batch
+		GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER,
+			vertices.length * BYTES_PER_FLOAT,
+			null,
+			GLES20.GL_STREAM_DRAW);
+		MyGLRenderer.checkGlError("glBufferData");
+		GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, floatCount
+			* BYTES_PER_FLOAT, vertexBuffer);
+		MyGLRenderer.checkGlError("glBufferSubData");
+
+		program.use();
+		GlState.setBlending(Blending.ALPHA);
+
+		if (texture.getAlphaTexture() != 0) {
+			GlState.bindTexture(1, texture.getAlphaTexture());
+			GLES20.glUniform1i(alphaTextureHandle, 1);
+			MyGLRenderer.checkGlError("glUniform1i");
+		}
+		GlState.bindTexture(0, texture.getTexture());
+		GLES20.glUniform1i(textureHandle, 0);
+		MyGLRenderer.checkGlError("glUniform1i");
+
+		GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvpMatrix, 0);
+		MyGLRenderer.checkGlError("glUniformMatrix4fv");
+
+		GlState.setVertexAttribArrays(positionHandle, texCoordHandle);
+		GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false,
+			VERTEX_STRIDE, 0);
+		MyGLRenderer.checkGlError("glVertexAttribPointer");
+		GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT,
+			false, VERTEX_STRIDE, 2 * BYTES_PER_FLOAT);
+		MyGLRenderer.checkGlError("glVertexAttribPointer");
+
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, quadCount
+			* VERTICES_PER_QUAD);
+		MyGLRenderer.checkGlError("glDrawArrays");
+		RenderCounters.countDrawCall();
+
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+		MyGLRenderer.checkGlError("glBindBuffer");
+		quadCount = 0;
+	}
+}
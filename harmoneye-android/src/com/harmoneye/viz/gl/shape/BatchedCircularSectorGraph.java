@@ -0,0 +1,249 @@
+package com.harmoneye.viz.gl.shape;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import android.opengl.GLES20;
+
+import com.harmoneye.viz.gl.GlObjects;
+import com.harmoneye.viz.gl.GlState;
+import com.harmoneye.viz.gl.GlState.Blending;
+import com.harmoneye.viz.gl.MyGLRenderer;
+import com.harmoneye.viz.gl.RenderCounters;
+import com.harmoneye.viz.gl.ShaderProgram;
+import com.harmoneye.viz.gl.ShaderProgramRegistry;
+import com.harmoneye.viz.scene.FrameSnapshot;
+import com.harmoneye.viz.scene.HsbColor;
+import com.harmoneye.viz.scene.SectorGraphScene;
+
+/**
+ * Draws the same graph as {@link CircularSectorGraph} but with a single draw
+ * call per frame.
+ *
+ * The triangles of all sectors (position and per-vertex color) are computed on
+ * the CPU into a preallocated array which is uploaded once per frame into a
+ * streaming vertex buffer object.
+ */
+public class BatchedCircularSectorGraph implements SectorGraph {
+
+	//@formatter:off
+	private static final String vertexShaderCode =
+	"uniform mat4 mvpMatrix;" +
+	"attribute vec4 position;" +
+	"attribute vec3 color;" +
+	"varying vec3 vColor;" +
+	"void main() {" +
+	"  vColor = color;" +
+	"  gl_Position = mvpMatrix * position;" +
+	"}";
+
+	private static final String fragmentShaderCode =
+		"precision mediump float;" +
+		"varying vec3 vColor;" +
+		"void main() {" +
+		"  gl_FragColor = vec4(vColor, 1.0);" +
+		"}";
+	//@formatter:on
+
+	private static final int BYTES_PER_FLOAT = 4;
+
+	/** x, y */
+	private static final int COORDS_PER_VERTEX = 2;
+	/** r, g, b */
+	private static final int COLORS_PER_VERTEX = 3;
+	private static final int FLOATS_PER_VERTEX = COORDS_PER_VERTEX
+		+ COLORS_PER_VERTEX;
+	private static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+	private static final int VERTICES_PER_SECTOR = 3;
+	private static final int FLOATS_PER_SECTOR = VERTICES_PER_SECTOR
+		* FLOATS_PER_VERTEX;
+
+	private final ShaderProgram program;
+	private final int positionHandle;
+	private final int colorHandle;
+	private final int mvpMatrixHandle;
+	/** handle of the streaming vertex buffer object */
+	private final int vertexBufferObject;
+
+	/** vertex data of all sectors, reused each frame */
+	private float[] vertices = new float[0];
+	private FloatBuffer vertexBuffer;
+	/** size of the vertex buffer object in bytes */
+	private int vertexBufferObjectSize;
+
+	private final SectorGraphScene scene;
+
+	private FrameSnapshot frame;
+	/** frame blended on the CPU when interpolating */
+	private final FrameSnapshot interpolatedFrame = new FrameSnapshot();
+
+	// eg. 1 for straight diagram, 7 for circle of fifths
+	private int pitchStep = 1;
+
+	private int drawCallCount;
+
+	private float[] rgb = new float[3];
+
+	/**
+	 * Sets up the drawing object data for use in an OpenGL ES context.
+	 */
+	public BatchedCircularSectorGraph(ShaderProgramRegistry programs,
+		float scale) {
+		scene = new SectorGraphScene(scale);
+
+		program = programs.getProgram(vertexShaderCode, fragmentShaderCode);
+		positionHandle = program.getAttribLocation("position");
+		colorHandle = program.getAttribLocation("color");
+		mvpMatrixHandle = program.getUniformLocation("mvpMatrix");
+		vertexBufferObject = GlObjects.genBuffer();
+
+		setValue(null);
+	}
+
+	/** (re)allocates the vertex storage only when the sector count grows */
+	private void ensureCapacity(int sectorCount) {
+		int floatCount = sectorCount * FLOATS_PER_SECTOR;
+		if (vertices.length >= floatCount) {
+			return;
+		}
+		vertices = new float[floatCount];
+		vertexBuffer = ByteBuffer.allocateDirect(floatCount * BYTES_PER_FLOAT)
+			.order(ByteOrder.nativeOrder())
+			.asFloatBuffer();
+	}
+
+	/** computes the triangles of all sectors into {@link #vertices} */
+	private void fillVertices() {
+		int sectorCount = scene.getSectorCount();
+		float[] cos = scene.getCos();
+		float[] sin = scene.getSin();
+		float[] lengths = scene.getLengths();
+		float[] halfWidths = scene.getHalfWidths();
+		float[] hues = scene.getHues();
+		float[] saturations = scene.getSaturations();
+		float[] brightnesses = scene.getBrightnesses();
+		float[] v = vertices;
+		int offset = 0;
+		for (int i = 0; i < sectorCount; i++) {
+			HsbColor.toRgb(hues[i], saturations[i], brightnesses[i], rgb, 0);
+
+			float sectorLength = lengths[i];
+			float halfWidth = halfWidths[i];
+			float c = cos[i];
+			float s = sin[i];
+
+			// rotated (-halfWidth, sectorLength)
+			v[offset++] = -halfWidth * c - sectorLength * s;
+			v[offset++] = -halfWidth * s + sectorLength * c;
+			offset = putColor(v, offset);
+			// center
+			v[offset++] = 0;
+			v[offset++] = 0;
+			offset = putColor(v, offset);
+			// rotated (halfWidth, sectorLength)
+			v[offset++] = halfWidth * c - sectorLength * s;
+			v[offset++] = halfWidth * s + sectorLength * c;
+			offset = putColor(v, offset);
+		}
+	}
+
+	private int putColor(float[] v, int offset) {
+		v[offset++] = rgb[0];
+		v[offset++] = rgb[1];
+		v[offset++] = rgb[2];
+		return offset;
+	}
+
+	@Override
+	public void draw(float[] mvpMatrix) {
+		drawCallCount = 0;
+		if (frame == null) {
+			return;
+		}
+
+		scene.prepare(frame, pitchStep);
+		int sectorCount = scene.getSectorCount();
+		ensureCapacity(sectorCount);
+		fillVertices();
+		int floatCount = sectorCount * FLOATS_PER_SECTOR;
+		vertexBuffer.position(0);
+		vertexBuffer.put(vertices, 0, floatCount);
+		vertexBuffer.position(0);
+
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferObject);
+		MyGLRenderer.checkGlError("glBindBuffer");
+		int byteCount = floatCount * BYTES_PER_FLOAT;
+		if (byteCount > vertexBufferObjectSize) {
+			vertexBufferObjectSize = byteCount;
+		}
+		// re-specifying the whole buffer lets the driver orphan the storage
+		// still used by the previous frame instead of waiting for it
+		GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER,
+			vertexBufferObjectSize,
+			null,
+			GLES20.GL_STREAM_DRAW);
+		MyGLRenderer.checkGlError("glBufferData");
+		GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, byteCount, vertexBuffer);
+		MyGLRenderer.checkGlError("glBufferSubData");
+
+		program.use();
+		GlState.setBlending(Blending.OPAQUE);
+
+		GlState.setVertexAttribArrays(positionHandle, colorHandle);
+		GLES20.glVertexAttribPointer(positionHandle,
+			COORDS_PER_VERTEX,
+			GLES20.GL_FLOAT,
+			false,
+			VERTEX_STRIDE,
+			0);
+		MyGLRenderer.checkGlError("glVertexAttribPointer");
+
+		GLES20.glVertexAttribPointer(colorHandle,
+			COLORS_PER_VERTEX,
+			GLES20.GL_FLOAT,
+			false,
+			VERTEX_STRIDE,
+			COORDS_PER_VERTEX * BYTES_PER_FLOAT);
+		MyGLRenderer.checkGlError("glVertexAttribPointer");
+
+		GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvpMatrix, 0);
+		MyGLRenderer.checkGlError("glUniformMatrix4fv");
+
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, sectorCount
+			* VERTICES_PER_SECTOR);
+		MyGLRenderer.checkGlError("glDrawArrays");
+		RenderCounters.countDrawCall();
+		drawCallCount = 1;
+
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+		MyGLRenderer.checkGlError("glBindBuffer");
+	}
+
+	@Override
+	public void setValue(FrameSnapshot frame) {
+		this.frame = frame;
+	}
+
+	@Override
+	public void setValue(FrameSnapshot previous, FrameSnapshot frame,
+		float mix) {
+		interpolatedFrame.interpolate(previous, frame, mix);
+		setValue(interpolatedFrame);
+	}
+
+	@Override
+	public void setPitchStep(int pitchStep) {
+		this.pitchStep = pitchStep;
+	}
+
+	@Override
+	public void release() {
+		GlObjects.deleteBuffer(vertexBufferObject);
+	}
+
+	@Override
+	public int getDrawCallCount() {
+		return drawCallCount;
+	}
+}
@@ -5,34 +5,18 @@ import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 
+import com.harmoneye.viz.gl.GlState;
+import com.harmoneye.viz.gl.GlState.Blending;
 import com.harmoneye.viz.gl.MyGLRenderer;
+import com.harmoneye.viz.gl.RenderCounters;
+import com.harmoneye.viz.gl.ShaderProgram;
+import com.harmoneye.viz.gl.ShaderProgramRegistry;
 
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 
 public class Circle {
 
-	//@formatter:off
-	private static final String vertexShaderCode =
-	// This matrix member variable provides a hook to manipulate
-	// the coordinates of the objects that use this vertex shader
-	"uniform mat4 mvpMatrix;" +
-	"attribute vec4 position;" +
-	"void main() {" +
-	// The matrix must be included as a modifier of gl_Position.
-	// Note that the mvpMatrix factor *must be first* in order
-	// for the matrix multiplication product to be correct.
-	"  gl_Position = mvpMatrix * position;" +
-	"}";
-
-	private static final String fragmentShaderCode =
-		"precision mediump float;" +
-		"uniform vec4 color;" +
-		"void main() {" +
-		"  gl_FragColor = color;" +
-		"}";
-	//@formatter:on
-
 	private static final int BYTES_PER_FLOAT = 4;
 	private static final int BYTES_PER_SHORT = 2;
 	/** number of coordinates per vertex in this array */
@@ -42,8 +26,11 @@ public class Circle {
 
 	private final FloatBuffer vertexBuffer;
 	private final ShortBuffer drawListBuffer;
-	/** handle of the shader program */
-	private final int program;
+	/** the shader program */
+	private final ShaderProgram program;
+	private final int positionHandle;
+	private final int colorHandle;
+	private final int mvpMatrixHandle;
 
 	/** number of outer vertices */
 	private int vertexCount;
@@ -52,6 +39,7 @@ public class Circle {
 	private float scale;
 	private float[] fillColor;
 	private float[] borderColor;
+	private final Blending blending;
 
 	// modified MVP matrix
 	float[] mvp = new float[16];
@@ -59,17 +47,22 @@ public class Circle {
 	/**
 	 * Sets up the drawing object data for use in an OpenGL ES context.
 	 */
-	public Circle(int vertexCount, float scale, float[] fillColor,
-		float[] borderColor) {
+	public Circle(ShaderProgramRegistry programs, int vertexCount, float scale,
+		float[] fillColor, float[] borderColor) {
 		this.vertexCount = vertexCount;
 		vertexCountInv = 1.0f / vertexCount;
 		this.scale = scale;
 		this.fillColor = fillColor;
 		this.borderColor = borderColor;
+		blending = Blending.forColors(fillColor, borderColor);
 
 		vertexBuffer = initVertexBuffer(generateCircleCoords());
 		drawListBuffer = initDrawListBuffer(generateDrawList());
-		program = initShaderProgram();
+		program = programs.getProgram(Shaders.MVP_VERTEX_SHADER,
+			Shaders.FLAT_COLOR_FRAGMENT_SHADER);
+		positionHandle = program.getAttribLocation("position");
+		colorHandle = program.getUniformLocation("color");
+		mvpMatrixHandle = program.getUniformLocation("mvpMatrix");
 	}
 
 	/** initialize vertex byte buffer for shape coordinates */
@@ -113,22 +106,6 @@ public class Circle {
 		return drawOrder;
 	}
 
-	/** prepare shaders and OpenGL program */
-	private int initShaderProgram() {
-		int vertexShader = MyGLRenderer.loadShader(
-			GLES20.GL_VERTEX_SHADER,
-			vertexShaderCode);
-		int fragmentShader = MyGLRenderer.loadShader(
-			GLES20.GL_FRAGMENT_SHADER,
-			fragmentShaderCode);
-
-		int program = GLES20.glCreateProgram();
-		GLES20.glAttachShader(program, vertexShader);
-		GLES20.glAttachShader(program, fragmentShader);
-		GLES20.glLinkProgram(program);
-		return program;
-	}
-
 	/**
 	 * Encapsulates the OpenGL ES instructions for drawing this shape.
 	 * 
@@ -136,11 +113,11 @@ public class Circle {
 	 *          - The Model View Project matrix in which to draw this shape.
 	 */
 	public void draw(float[] mvpMatrix) {
-		GLES20.glUseProgram(program);
+		program.use();
+		GlState.setBlending(blending);
 
 		// vertex position
-		int positionHandle = GLES20.glGetAttribLocation(program, "position");
-		GLES20.glEnableVertexAttribArray(positionHandle);
+		GlState.setVertexAttribArrays(positionHandle);
 		GLES20.glVertexAttribPointer(
 			positionHandle,
 			COORDS_PER_VERTEX,
@@ -148,12 +125,7 @@ public class Circle {
 			false,
 			VERTEX_STRIDE,
 			vertexBuffer);
-
-		int colorHandle = GLES20.glGetUniformLocation(program, "color");
-		MyGLRenderer.checkGlError("glGetUniformLocation");
-
-		int mvpMatrixHandle = GLES20.glGetUniformLocation(program, "mvpMatrix");
-		MyGLRenderer.checkGlError("glGetUniformLocation");
+		MyGLRenderer.checkGlError("glVertexAttribPointer");
 
 		Matrix.scaleM(mvp, 0, mvpMatrix, 0, scale, scale, 1);
 
@@ -169,6 +141,8 @@ public class Circle {
 				vertexCount,
 				GLES20.GL_UNSIGNED_SHORT,
 				drawListBuffer);
+			MyGLRenderer.checkGlError("glDrawElements");
+			RenderCounters.countDrawCall();
 		}
 
 		if (borderColor != null) {
@@ -180,9 +154,9 @@ public class Circle {
 				vertexCount,
 				GLES20.GL_UNSIGNED_SHORT,
 				drawListBuffer);
+			MyGLRenderer.checkGlError("glDrawElements");
+			RenderCounters.countDrawCall();
 		}
-
-		GLES20.glDisableVertexAttribArray(positionHandle);
 	}
 
 }
@@ -5,40 +5,28 @@ import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 
+import com.harmoneye.viz.gl.GlState;
+import com.harmoneye.viz.gl.GlState.Blending;
 import com.harmoneye.viz.gl.MyGLRenderer;
+import com.harmoneye.viz.gl.RenderCounters;
+import com.harmoneye.viz.gl.ShaderProgram;
+import com.harmoneye.viz.gl.ShaderProgramRegistry;
+import com.harmoneye.viz.scene.Transforms;
 
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 
 public class CircularGrid {
 
-	//@formatter:off
-	private static final String vertexShaderCode =
-	// This matrix member variable provides a hook to manipulate
-	// the coordinates of the objects that use this vertex shader
-	"uniform mat4 mvpMatrix;" +
-	"attribute vec4 position;" +
-	"void main() {" +
-	// The matrix must be included as a modifier of gl_Position.
-	// Note that the mvpMatrix factor *must be first* in order
-	// for the matrix multiplication product to be correct.
-	"  gl_Position = mvpMatrix * position;" +
-	"}";
-
-	private static final String fragmentShaderCode =
-		"precision mediump float;" +
-		"uniform vec4 color;" +
-		"void main() {" +
-		"  gl_FragColor = color;" +
-		"}";
-	//@formatter:on
-
 	private static final int BYTES_PER_FLOAT = 4;
 	private static final int BYTES_PER_SHORT = 2;
 
 	private final FloatBuffer vertexBuffer;
 	private final ShortBuffer drawListBuffer;
-	private final int program;
+	private final ShaderProgram program;
+	private final int positionHandle;
+	private final int colorHandle;
+	private final int mvpMatrixHandle;
 
 	// number of coordinates per vertex in this array
 	static final int COORDS_PER_VERTEX = 3;
@@ -57,11 +45,14 @@ public class CircularGrid {
 
 	// number of circular sectors
 	private int sectorCount;
-	// 1 / sectorCount
-	private float sectorCountInv;
+	// direction of each ray
+	private final float[] rayCos;
+	private final float[] raySin;
 
 	private float scale;
 	private float[] color;
+	private final Blending blending;
+	private float lineWidth = 2f;
 
 	private float[] model;
 
@@ -70,16 +61,28 @@ public class CircularGrid {
 	/**
 	 * Sets up the drawing object data for use in an OpenGL ES context.
 	 */
-	public CircularGrid(int sectorCount, float scale, float[] color) {
+	public CircularGrid(ShaderProgramRegistry programs, int sectorCount,
+		float scale, float[] color) {
 		this.sectorCount = sectorCount;
-		this.sectorCountInv = 1.0f / sectorCount;
 		this.scale = scale;
+		rayCos = new float[sectorCount];
+		raySin = new float[sectorCount];
+		for (int i = 0; i < sectorCount; i++) {
+			double angle = (i - 0.5) * 2 * Math.PI / sectorCount;
+			rayCos[i] = (float) Math.cos(angle);
+			raySin[i] = (float) Math.sin(angle);
+		}
 		this.color = color;
+		blending = Blending.forColors(color);
 
 		vertexBuffer = initVertexBuffer();
 		drawListBuffer = initDrawListBuffer();
-		program = initShaderProgram();
-		
+		program = programs.getProgram(Shaders.MVP_VERTEX_SHADER,
+			Shaders.FLAT_COLOR_FRAGMENT_SHADER);
+		positionHandle = program.getAttribLocation("position");
+		colorHandle = program.getUniformLocation("color");
+		mvpMatrixHandle = program.getUniformLocation("mvpMatrix");
+
 		model = new float[16];
 		mvp = new float[16];
 	}
@@ -105,22 +108,6 @@ public class CircularGrid {
 		return drawListBuffer;
 	}
 
-	/** prepare shaders and OpenGL program */
-	private int initShaderProgram() {
-		int vertexShader = MyGLRenderer.loadShader(
-			GLES20.GL_VERTEX_SHADER,
-			vertexShaderCode);
-		int fragmentShader = MyGLRenderer.loadShader(
-			GLES20.GL_FRAGMENT_SHADER,
-			fragmentShaderCode);
-
-		int program = GLES20.glCreateProgram();
-		GLES20.glAttachShader(program, vertexShader);
-		GLES20.glAttachShader(program, fragmentShader);
-		GLES20.glLinkProgram(program);
-		return program;
-	}
-
 	/**
 	 * Encapsulates the OpenGL ES instructions for drawing this shape.
 	 * 
@@ -128,11 +115,11 @@ public class CircularGrid {
 	 *          - The Model View Project matrix in which to draw this shape.
 	 */
 	public void draw(float[] mvpMatrix) {
-		GLES20.glUseProgram(program);
+		program.use();
+		GlState.setBlending(blending);
 
 		// vertex position
-		int positionHandle = GLES20.glGetAttribLocation(program, "position");
-		GLES20.glEnableVertexAttribArray(positionHandle);
+		GlState.setVertexAttribArrays(positionHandle);
 		GLES20.glVertexAttribPointer(
 			positionHandle,
 			COORDS_PER_VERTEX,
@@ -140,29 +127,18 @@ public class CircularGrid {
 			false,
 			vertexStride,
 			vertexBuffer);
-
-		// model-view-position matrix for the sector
-		int mvpMatrixHandle = GLES20.glGetUniformLocation(program, "mvpMatrix");
-		MyGLRenderer.checkGlError("glGetUniformLocation");
-
-		int colorHandle = GLES20.glGetUniformLocation(program, "color");
-		MyGLRenderer.checkGlError("glGetUniformLocation");
+		MyGLRenderer.checkGlError("glVertexAttribPointer");
 
 		GLES20.glUniform4fv(colorHandle, 1, color, 0);
 		MyGLRenderer.checkGlError("glUniform4fv");
 
-		
-
-		float sectorCountInvDegrees = 360 * sectorCountInv;
 
-		GLES20.glLineWidth(2f);
+		GLES20.glLineWidth(lineWidth);
+		MyGLRenderer.checkGlError("glLineWidth");
 		
 		// rays
 		for (int i = 0; i < sectorCount; i++) {
-			Matrix.setIdentityM(model, 0);
-			float angle = (i - 0.5f) * sectorCountInvDegrees;
-			Matrix.setRotateM(model, 0, angle, 0, 0, 1);
-			Matrix.scaleM(model, 0, 1, scale, 1);
+			Transforms.setTransform(model, rayCos[i], raySin[i], 1, scale, 0, 0);
 			Matrix.multiplyMM(mvp, 0, mvpMatrix, 0, model, 0);
 
 			GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvp, 0);
@@ -173,9 +149,13 @@ public class CircularGrid {
 				drawOrder.length,
 				GLES20.GL_UNSIGNED_SHORT,
 				drawListBuffer);
+			MyGLRenderer.checkGlError("glDrawElements");
+			RenderCounters.countDrawCall();
 		}
+	}
 
-		GLES20.glDisableVertexAttribArray(positionHandle);
+	public void setLineWidth(float lineWidth) {
+		this.lineWidth = lineWidth;
 	}
 
 }
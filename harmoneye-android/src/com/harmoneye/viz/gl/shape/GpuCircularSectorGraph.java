@@ -0,0 +1,400 @@
+package com.harmoneye.viz.gl.shape;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import android.opengl.GLES20;
+
+import com.harmoneye.music.TonicDistance;
+import com.harmoneye.viz.gl.GlObjects;
+import com.harmoneye.viz.gl.GlState;
+import com.harmoneye.viz.gl.GlState.Blending;
+import com.harmoneye.viz.gl.MyGLRenderer;
+import com.harmoneye.viz.gl.RenderCounters;
+import com.harmoneye.viz.gl.ShaderProgram;
+import com.harmoneye.viz.gl.ShaderProgramRegistry;
+import com.harmoneye.viz.scene.FrameSnapshot;
+
+/**
+ * Draws the same graph as {@link CircularSectorGraph} but lets the vertex
+ * shader build the sectors.
+ *
+ * A static vertex buffer holds for each sector vertex its angular position,
+ * the index of the bin it displays, its pitch class and which corner of the
+ * triangle it is. It is rebuilt only when the layout (number of bins, pitch
+ * step) changes. Per frame only the bin values are uploaded as a uniform
+ * array, so the CPU cost does not depend on the number of sectors.
+ *
+ * When interpolating between two frames both bin vectors are uploaded and
+ * blended by the vertex shader.
+ */
+public class GpuCircularSectorGraph implements SectorGraph {
+
+	/** maximum number of bins, eg. 12 halftones * 16 bins per halftone */
+	public static final int MAX_BINS = 192;
+	/**
+	 * the bin values are packed in vec4 uniforms to save uniform slots, the
+	 * current and previous values take 96 of the 128 vectors guaranteed by
+	 * OpenGL ES 2.0
+	 */
+	private static final int MAX_BIN_VECTORS = MAX_BINS / 4;
+	/** maximum number of halftones per octave */
+	public static final int MAX_HALFTONES = 12;
+
+	//@formatter:off
+	private static final String vertexShaderCode =
+	"uniform mat4 mvpMatrix;" +
+	"uniform vec4 values[" + MAX_BIN_VECTORS + "];" +
+	"uniform vec4 previousValues[" + MAX_BIN_VECTORS + "];" +
+	// 0 for the previous values, 1 for the current ones
+	"uniform float interpolation;" +
+	"uniform float hues[" + MAX_HALFTONES + "];" +
+	"uniform float hasKey;" +
+	// angle between adjacent sectors (radians)
+	"uniform float sectorAngle;" +
+	// index of the sector which is at the top
+	"uniform float angleOffset;" +
+	// length of a sector with value 1.0
+	"uniform float sectorLength;" +
+	// half-width of a sector relative to its length
+	"uniform float sectorWidth;" +
+	// x: angular position, y: bin index, z: pitch class,
+	// w: corner (-1 = left, 0 = center, 1 = right)
+	"attribute vec4 sector;" +
+	"varying vec3 vColor;" +
+	// http://kristophercollins.blogspot.com/2010/08/glsl-hsb-to-rgb-function.html
+	"vec3 hsbToRgb(vec3 colorIn) {" +
+	"	float h = colorIn.x;" +
+	"	float sl = colorIn.y;" +
+	"	float l = colorIn.z;" +
+	"	float v = (l <= 0.5) ? (l * (1.0 + sl)) : (l + sl - l * sl);" +
+	"	vec3 rgb = vec3(l);" +
+	"	if (v > 0.0) {" +
+	"		float m = l + l - v;" +
+	"		float sv = (v - m ) / v;" +
+	"		h *= 6.0;" +
+	"		int sextant = int(h);" +
+	"		float frac = h - float(sextant);" +
+	"		float vsf = v * sv * frac;" +
+	"		float mid1 = m + vsf;" +
+	"		float mid2 = v - vsf;" +
+	"		if (sextant == 0) {" +
+	"			rgb = vec3(v, mid1, m);" +
+	"		} else if (sextant == 1) {" +
+	"			rgb = vec3(mid2, v, m);" +
+	"		} else if (sextant == 2) {" +
+	"			rgb = vec3(m, v, mid1);" +
+	"		} else if (sextant == 3) {" +
+	"			rgb = vec3(m, mid2, v);" +
+	"		} else if (sextant == 4) {" +
+	"			rgb = vec3(mid1, m, v);" +
+	"		} else if (sextant == 5) {" +
+	"			rgb = vec3(v, m, mid2);" +
+	"		}" +
+	"	}" +
+	"	return rgb;" +
+	"}" +
+	"void main() {" +
+	"  int bin = int(sector.y);" +
+	"  int binVector = bin / 4;" +
+	"  float binComponent = float(bin - 4 * binVector);" +
+	"  vec4 mask = vec4(equal(vec4(binComponent), vec4(0.0, 1.0, 2.0, 3.0)));" +
+	"  vec4 binValues = mix(previousValues[binVector], values[binVector]," +
+	"    interpolation);" +
+	"  float value = clamp(dot(binValues, mask), 0.0, 1.0);" +
+	"" +
+	"  float len = sectorLength * value;" +
+	"  vec2 p = vec2(sector.w * len * sectorWidth, abs(sector.w) * len);" +
+	"  float angle = -(sector.x - angleOffset) * sectorAngle;" +
+	"  float c = cos(angle);" +
+	"  float s = sin(angle);" +
+	"  gl_Position = mvpMatrix * vec4(p.x * c - p.y * s, p.x * s + p.y * c, 0.0, 1.0);" +
+	"" +
+	"  float hue = hasKey * hues[int(sector.z)];" +
+	"  float saturation = hasKey * (0.1 + 0.75 * value);" +
+	"  float brightness = 0.25 + 0.55 * value;" +
+	"  vColor = hsbToRgb(vec3(hue, saturation, brightness));" +
+	"}";
+
+	private static final String fragmentShaderCode =
+		"precision mediump float;" +
+		"varying vec3 vColor;" +
+		"void main() {" +
+		"  gl_FragColor = vec4(vColor, 1.0);" +
+		"}";
+	//@formatter:on
+
+	private static final int BYTES_PER_FLOAT = 4;
+
+	/** angular position, bin index, pitch class, corner */
+	private static final int FLOATS_PER_VERTEX = 4;
+	private static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+	private static final int VERTICES_PER_SECTOR = 3;
+
+	/** hack to prevent holes between adjacent triangles */
+	private static final float EPSILON = 1.01f;
+
+	private final ShaderProgram program;
+	private final int sectorHandle;
+	private final int mvpMatrixHandle;
+	private final int valuesHandle;
+	private final int previousValuesHandle;
+	private final int interpolationHandle;
+	private final int huesHandle;
+	private final int hasKeyHandle;
+	private final int sectorAngleHandle;
+	private final int angleOffsetHandle;
+	private final int sectorLengthHandle;
+	private final int sectorWidthHandle;
+	/** handle of the static vertex buffer object */
+	private final int vertexBufferObject;
+
+	// overall scale of the graph
+	private float scale;
+
+	// number of circular sectors
+	private int sectorCount;
+	/** sector count and pitch step for which the vertex buffer was built */
+	private int builtSectorCount;
+	private int builtPitchStep;
+
+	private FrameSnapshot frame;
+
+	private double values[];
+	/** values to interpolate from or null */
+	private double previousValues[];
+	private float interpolation = 1;
+	private Integer key;
+	/** key for which the hues were computed */
+	private Integer builtKey;
+
+	private int binsPerHalftone;
+	private int halftoneCount;
+
+	// eg. 1 for straight diagram, 7 for circle of fifths
+	private int pitchStep = 1;
+
+	private int drawCallCount;
+
+	/** bin values converted for the upload */
+	private float[] uniformValues = new float[MAX_BINS];
+	private float[] uniformPreviousValues = new float[MAX_BINS];
+	private float[] hues = new float[MAX_HALFTONES];
+
+	private TonicDistance tonicDistance = new TonicDistance(12);
+
+	/**
+	 * Sets up the drawing object data for use in an OpenGL ES context.
+	 */
+	public GpuCircularSectorGraph(ShaderProgramRegistry programs,
+		float scale) {
+		this.scale = scale;
+
+		program = programs.getProgram(vertexShaderCode, fragmentShaderCode);
+		sectorHandle = program.getAttribLocation("sector");
+		mvpMatrixHandle = program.getUniformLocation("mvpMatrix");
+		valuesHandle = program.getUniformLocation("values");
+		previousValuesHandle = program.getUniformLocation("previousValues");
+		interpolationHandle = program.getUniformLocation("interpolation");
+		huesHandle = program.getUniformLocation("hues");
+		hasKeyHandle = program.getUniformLocation("hasKey");
+		sectorAngleHandle = program.getUniformLocation("sectorAngle");
+		angleOffsetHandle = program.getUniformLocation("angleOffset");
+		sectorLengthHandle = program.getUniformLocation("sectorLength");
+		sectorWidthHandle = program.getUniformLocation("sectorWidth");
+		vertexBufferObject = GlObjects.genBuffer();
+
+		setValue(null);
+	}
+
+	/** fills the static vertex buffer for the current layout */
+	private void buildVertexBufferObject() {
+		float[] vertices = new float[sectorCount * VERTICES_PER_SECTOR
+			* FLOATS_PER_VERTEX];
+		int offset = 0;
+		for (int i = 0; i < sectorCount; i++) {
+			int pitchClass = i / binsPerHalftone;
+			int binInPitchClass = i % binsPerHalftone;
+			int movedPitchClass = (pitchClass * pitchStep) % halftoneCount;
+			int index = movedPitchClass * binsPerHalftone + binInPitchClass;
+			for (int corner = -1; corner <= 1; corner++) {
+				vertices[offset++] = i;
+				vertices[offset++] = index;
+				vertices[offset++] = movedPitchClass;
+				vertices[offset++] = corner;
+			}
+		}
+
+		FloatBuffer buffer = ByteBuffer.allocateDirect(vertices.length
+			* BYTES_PER_FLOAT)
+			.order(ByteOrder.nativeOrder())
+			.asFloatBuffer();
+		buffer.put(vertices).position(0);
+
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferObject);
+		MyGLRenderer.checkGlError("glBindBuffer");
+		GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER,
+			vertices.length * BYTES_PER_FLOAT,
+			buffer,
+			GLES20.GL_STATIC_DRAW);
+		MyGLRenderer.checkGlError("glBufferData");
+
+		builtSectorCount = sectorCount;
+		builtPitchStep = pitchStep;
+	}
+
+	private void updateHues() {
+		if (key != null) {
+			for (int i = 0; i < halftoneCount; i++) {
+				hues[i] = tonicDistance.distanceToHue(tonicDistance.distance(i, key));
+			}
+		}
+		builtKey = key;
+	}
+
+	@Override
+	public void draw(float[] mvpMatrix) {
+		drawCallCount = 0;
+		if (frame == null) {
+			return;
+		}
+
+		if (sectorCount != builtSectorCount || pitchStep != builtPitchStep) {
+			buildVertexBufferObject();
+		} else {
+			GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferObject);
+			MyGLRenderer.checkGlError("glBindBuffer");
+		}
+
+		program.use();
+		GlState.setBlending(Blending.OPAQUE);
+
+		GlState.setVertexAttribArrays(sectorHandle);
+		GLES20.glVertexAttribPointer(sectorHandle,
+			FLOATS_PER_VERTEX,
+			GLES20.GL_FLOAT,
+			false,
+			VERTEX_STRIDE,
+			0);
+		MyGLRenderer.checkGlError("glVertexAttribPointer");
+
+		GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvpMatrix, 0);
+		MyGLRenderer.checkGlError("glUniformMatrix4fv");
+
+		for (int i = 0; i < sectorCount; i++) {
+			uniformValues[i] = (float) values[i];
+		}
+		GLES20.glUniform4fv(valuesHandle,
+			(sectorCount + 3) / 4,
+			uniformValues,
+			0);
+		MyGLRenderer.checkGlError("glUniform4fv");
+		if (previousValues != null) {
+			for (int i = 0; i < sectorCount; i++) {
+				uniformPreviousValues[i] = (float) previousValues[i];
+			}
+			GLES20.glUniform4fv(previousValuesHandle,
+				(sectorCount + 3) / 4,
+				uniformPreviousValues,
+				0);
+			MyGLRenderer.checkGlError("glUniform4fv");
+			GLES20.glUniform1f(interpolationHandle, interpolation);
+			MyGLRenderer.checkGlError("glUniform1f");
+		} else {
+			// the previous values are ignored
+			GLES20.glUniform1f(interpolationHandle, 1);
+			MyGLRenderer.checkGlError("glUniform1f");
+		}
+
+		if (key == null ? builtKey != null : !key.equals(builtKey)) {
+			updateHues();
+		}
+		GLES20.glUniform1fv(huesHandle, MAX_HALFTONES, hues, 0);
+		MyGLRenderer.checkGlError("glUniform1fv");
+		GLES20.glUniform1f(hasKeyHandle, key != null ? 1 : 0);
+		MyGLRenderer.checkGlError("glUniform1f");
+
+		GLES20.glUniform1f(sectorAngleHandle,
+			(float) (2 * Math.PI / sectorCount));
+		MyGLRenderer.checkGlError("glUniform1f");
+		GLES20.glUniform1f(angleOffsetHandle, binsPerHalftone / 2);
+		MyGLRenderer.checkGlError("glUniform1f");
+		GLES20.glUniform1f(sectorLengthHandle, 0.65f * scale);
+		MyGLRenderer.checkGlError("glUniform1f");
+		GLES20.glUniform1f(sectorWidthHandle,
+			(float) Math.tan(Math.PI / sectorCount) * EPSILON);
+		MyGLRenderer.checkGlError("glUniform1f");
+
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, sectorCount
+			* VERTICES_PER_SECTOR);
+		MyGLRenderer.checkGlError("glDrawArrays");
+		RenderCounters.countDrawCall();
+		drawCallCount = 1;
+
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+		MyGLRenderer.checkGlError("glBindBuffer");
+	}
+
+	/**
+	 * Tells whether the frame fits in the uniform arrays of the shader, ie.
+	 * has at most {@link #MAX_BINS} bins and {@link #MAX_HALFTONES}
+	 * halftones per octave.
+	 */
+	public static boolean supports(FrameSnapshot frame) {
+		return frame.getOctaveBins().length <= MAX_BINS
+			&& frame.getHalftonesPerOctave() <= MAX_HALFTONES;
+	}
+
+	@Override
+	public void setValue(FrameSnapshot frame) {
+		setValue(null, frame, 1);
+	}
+
+	@Override
+	public void setValue(FrameSnapshot previous, FrameSnapshot frame,
+		float mix) {
+		this.frame = frame;
+
+		if (frame != null) {
+			binsPerHalftone = frame.getBinsPerHalftone();
+			halftoneCount = frame.getHalftonesPerOctave();
+
+			values = frame.getOctaveBins();
+			if (values.length > MAX_BINS) {
+				throw new IllegalArgumentException("At most " + MAX_BINS
+					+ " bins are supported, got: " + values.length);
+			}
+			if (halftoneCount > MAX_HALFTONES) {
+				throw new IllegalArgumentException("At most " + MAX_HALFTONES
+					+ " halftones are supported, got: " + halftoneCount);
+			}
+			key = frame.getKey();
+			sectorCount = values.length;
+
+			previousValues = null;
+			if (previous != null && !previous.isEmpty() && mix < 1) {
+				double[] bins = previous.getOctaveBins();
+				if (bins.length == values.length) {
+					previousValues = bins;
+					interpolation = mix;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void setPitchStep(int pitchStep) {
+		this.pitchStep = pitchStep;
+	}
+
+	@Override
+	public void release() {
+		GlObjects.deleteBuffer(vertexBufferObject);
+	}
+
+	@Override
+	public int getDrawCallCount() {
+		return drawCallCount;
+	}
+}
@@ -0,0 +1,445 @@
+package com.harmoneye.viz.gl.shape;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import android.opengl.GLES20;
+
+import com.harmoneye.viz.gl.GlObjects;
+import com.harmoneye.viz.gl.GlState;
+import com.harmoneye.viz.gl.GlState.Blending;
+import com.harmoneye.viz.gl.MyGLRenderer;
+import com.harmoneye.viz.gl.RenderCounters;
+import com.harmoneye.viz.gl.SectorColorTexture;
+import com.harmoneye.viz.gl.ShaderProgram;
+import com.harmoneye.viz.gl.ShaderProgramRegistry;
+import com.harmoneye.viz.scene.FrameSnapshot;
+import com.harmoneye.viz.scene.SectorGraphScene;
+
+/**
+ * Draws the whole dial - the outer circle, the grid, the sector graph, the
+ * inner circle and the key circle - as a single quad. The fragment shader
+ * computes in polar coordinates which of the shapes cover the pixel and how
+ * much, so the edges are anti-aliased analytically and the surface needs no
+ * multi-sampling.
+ *
+ * The sectors are read from a texture with one texel per sector in the order
+ * of the sectors. It holds the value in 16 bits, so that the sector length
+ * is smooth when interpolating, and the row of the pitch class in the
+ * {@link SectorColorTexture}. Only this texture is uploaded per frame. Each
+ * pixel looks at its own sector and at the neighbor across the nearest
+ * boundary, so the boundaries are smooth too.
+ *
+ * The shapes are the same as those drawn by the geometry, except that the
+ * sectors need no overlap to prevent holes. The result is premultiplied and
+ * blended over what was drawn before, eg. the tone names.
+ */
+public class PolarDial {
+
+	//@formatter:off
+	private static final String vertexShaderCode =
+		"uniform mat4 mvpMatrix;" +
+		"attribute vec2 position;" +
+		"varying vec2 vPosition;" +
+		"void main() {" +
+		"  vPosition = position;" +
+		"  gl_Position = mvpMatrix * vec4(position, 0.0, 1.0);" +
+		"}";
+
+	private static final String fragmentShaderCode =
+	// the angles and distances need more than 10 bits on large screens
+	"#ifdef GL_FRAGMENT_PRECISION_HIGH\n" +
+	"precision highp float;\n" +
+	"#else\n" +
+	"precision mediump float;\n" +
+	"#endif\n" +
+	// r, g: value (high and low byte), b: row in the colors
+	"uniform sampler2D sectors;" +
+	"uniform sampler2D colors;" +
+	"uniform float sectorCount;" +
+	// angle between adjacent sectors (radians)
+	"uniform float sectorAngle;" +
+	// index of the sector which is at the top
+	"uniform float angleOffset;" +
+	// length of a sector with value 1.0
+	"uniform float sectorLength;" +
+	// angle between adjacent grid rays (radians)
+	"uniform float rayAngle;" +
+	"uniform float outerRadius;" +
+	"uniform float innerRadius;" +
+	// x, y: center, z: 1 if there is a key, 0 otherwise
+	"uniform vec3 keyCircle;" +
+	"uniform float keyRadius;" +
+	// size of a pixel in the dial coordinates
+	"uniform float pixelSize;" +
+	// in pixels
+	"uniform float halfLineWidth;" +
+	"uniform vec4 lineColor;" +
+	"uniform vec4 fillColor;" +
+	"varying vec2 vPosition;" +
+	// coverage by a line, the distance from its center in pixels
+	"float line(float distance) {" +
+	"  return clamp(halfLineWidth + 0.5 - distance, 0.0, 1.0);" +
+	"}" +
+	// coverage by an area, the distance from its edge in pixels, inside > 0
+	"float area(float distance) {" +
+	"  return clamp(0.5 + distance, 0.0, 1.0);" +
+	"}" +
+	"vec4 over(vec4 top, vec4 bottom) {" +
+	"  return top + bottom * (1.0 - top.a);" +
+	"}" +
+	// sector i, f: angle from its center in sectors, r: radius of the pixel
+	"vec4 sector(float i, float f, float r) {" +
+	"  vec4 data = texture2D(sectors," +
+	"    vec2((mod(i, sectorCount) + 0.5) / sectorCount, 0.5));" +
+	"  float value = dot(data.rg, vec2(65280.0, 255.0)) / 65535.0;" +
+	"  vec3 color = texture2D(colors," +
+	"    vec2((value * 255.0 + 0.5) / 256.0, data.b)).rgb;" +
+	// the far edge of the triangle is perpendicular to its direction
+	"  float along = r * cos(f * sectorAngle);" +
+	"  return vec4(color, 1.0)" +
+	"    * area((sectorLength * value - along) / pixelSize);" +
+	"}" +
+	"void main() {" +
+	"  vec2 p = vPosition;" +
+	"  float r = length(p);" +
+	// clockwise from the top, the center is covered by the inner circle
+	"  float theta = r > 0.0 ? atan(p.x, p.y) : 0.0;" +
+	"" +
+	// the rays lie between the pitch classes
+	"  float rayOffset = (fract(theta / rayAngle) - 0.5) * rayAngle;" +
+	"  float grid = line(r * abs(sin(rayOffset)) / pixelSize)" +
+	"    * area((outerRadius - r) / pixelSize);" +
+	"  float ring = line(abs(r - outerRadius) / pixelSize);" +
+	"  vec4 color = lineColor * max(grid, ring);" +
+	"" +
+	"  float s = theta / sectorAngle + angleOffset;" +
+	"  float i = floor(s + 0.5);" +
+	"  float f = s - i;" +
+	"  float side = f < 0.0 ? -1.0 : 1.0;" +
+	// the share of the own sector by the distance from the boundary
+	"  float own = area(r * sin((0.5 - abs(f)) * sectorAngle) / pixelSize);" +
+	"  vec4 graph = mix(sector(i + side, f - side, r), sector(i, f, r), own);" +
+	"  color = over(graph, color);" +
+	"" +
+	"  color = over(fillColor * area((innerRadius - r) / pixelSize), color);" +
+	"  color = over(lineColor * line(abs(r - innerRadius) / pixelSize), color);" +
+	"  float key = keyCircle.z" +
+	"    * line(abs(length(p - keyCircle.xy) - keyRadius) / pixelSize);" +
+	"  gl_FragColor = over(lineColor * key, color);" +
+	"}";
+	//@formatter:on
+
+	private static final int BYTES_PER_FLOAT = 4;
+	private static final int COORDS_PER_VERTEX = 2;
+	private static final int VERTEX_STRIDE = COORDS_PER_VERTEX
+		* BYTES_PER_FLOAT;
+	/** covers the dial, the outer circle has a margin for its line */
+	private static final float[] QUAD_COORDS = {
+		-1, -1,
+		1, -1,
+		-1, 1,
+		1, 1 };
+
+	/** value, row of the colors and an unused byte */
+	private static final int BYTES_PER_SECTOR = 4;
+
+	private static final int SECTORS_UNIT = 0;
+	private static final int COLORS_UNIT = 1;
+
+	private final FloatBuffer vertexBuffer;
+	private final ShaderProgram program;
+	private final int positionHandle;
+	private final int mvpMatrixHandle;
+	private final int sectorsHandle;
+	private final int colorsHandle;
+	private final int sectorCountHandle;
+	private final int sectorAngleHandle;
+	private final int angleOffsetHandle;
+	private final int sectorLengthHandle;
+	private final int rayAngleHandle;
+	private final int outerRadiusHandle;
+	private final int innerRadiusHandle;
+	private final int keyCircleHandle;
+	private final int keyRadiusHandle;
+	private final int pixelSizeHandle;
+	private final int halfLineWidthHandle;
+	private final int lineColorHandle;
+	private final int fillColorHandle;
+
+	/** the sectors by their position, one RGBA texel each */
+	private final int sectorTexture;
+	/** sector colors by the pitch class and value */
+	private final SectorColorTexture colors;
+	private ByteBuffer sectorData = ByteBuffer.allocateDirect(0);
+	/** width of the sector texture, 0 if not allocated yet */
+	private int allocatedSectorCount;
+
+	private final SectorGraphScene scene;
+	private final float outerRadius;
+	private final float innerRadius;
+	private final float keyRadius;
+	private final float keyDistance;
+	private final int rayCount;
+	private final float[] lineColor;
+	private final float[] fillColor;
+
+	private float pixelSize;
+	private float lineWidth = 2f;
+
+	private FrameSnapshot frame;
+	/** frame blended on the CPU when interpolating */
+	private final FrameSnapshot interpolatedFrame = new FrameSnapshot();
+
+	// eg. 1 for straight diagram, 7 for circle of fifths
+	private int pitchStep = 1;
+
+	private int drawCallCount;
+
+	/**
+	 * Sets up the drawing object data for use in an OpenGL ES context.
+	 *
+	 * @param outerRadius - radius of the outer circle, the scale of the graph
+	 * @param keyDistance - distance of the key circle from the center
+	 * @param rayCount - number of the grid rays
+	 * @param lineColor - RGBA of the circles and the grid, opaque
+	 * @param fillColor - RGBA of the inner circle, opaque
+	 */
+	public PolarDial(ShaderProgramRegistry programs, float outerRadius,
+		float innerRadius, float keyRadius, float keyDistance, int rayCount,
+		float[] lineColor, float[] fillColor) {
+		this.outerRadius = outerRadius;
+		this.innerRadius = innerRadius;
+		this.keyRadius = keyRadius;
+		this.keyDistance = keyDistance;
+		this.rayCount = rayCount;
+		this.lineColor = lineColor;
+		this.fillColor = fillColor;
+		scene = new SectorGraphScene(outerRadius);
+
+		vertexBuffer = ByteBuffer.allocateDirect(QUAD_COORDS.length
+			* BYTES_PER_FLOAT)
+			.order(ByteOrder.nativeOrder())
+			.asFloatBuffer();
+		vertexBuffer.put(QUAD_COORDS).position(0);
+
+		program = programs.getProgram(vertexShaderCode, fragmentShaderCode);
+		positionHandle = program.getAttribLocation("position");
+		mvpMatrixHandle = program.getUniformLocation("mvpMatrix");
+		sectorsHandle = program.getUniformLocation("sectors");
+		colorsHandle = program.getUniformLocation("colors");
+		sectorCountHandle = program.getUniformLocation("sectorCount");
+		sectorAngleHandle = program.getUniformLocation("sectorAngle");
+		angleOffsetHandle = program.getUniformLocation("angleOffset");
+		sectorLengthHandle = program.getUniformLocation("sectorLength");
+		rayAngleHandle = program.getUniformLocation("rayAngle");
+		outerRadiusHandle = program.getUniformLocation("outerRadius");
+		innerRadiusHandle = program.getUniformLocation("innerRadius");
+		keyCircleHandle = program.getUniformLocation("keyCircle");
+		keyRadiusHandle = program.getUniformLocation("keyRadius");
+		pixelSizeHandle = program.getUniformLocation("pixelSize");
+		halfLineWidthHandle = program.getUniformLocation("halfLineWidth");
+		lineColorHandle = program.getUniformLocation("lineColor");
+		fillColorHandle = program.getUniformLocation("fillColor");
+
+		sectorTexture = GlObjects.genTexture();
+		GlState.bindTexture(sectorTexture);
+		// the texels are looked up exactly, the width is not a power of two
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_MIN_FILTER,
+			GLES20.GL_NEAREST);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_MAG_FILTER,
+			GLES20.GL_NEAREST);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_WRAP_S,
+			GLES20.GL_CLAMP_TO_EDGE);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			GLES20.GL_TEXTURE_WRAP_T,
+			GLES20.GL_CLAMP_TO_EDGE);
+		MyGLRenderer.checkGlError("glTexParameteri");
+		colors = new SectorColorTexture();
+
+		setValue(null);
+	}
+
+	/**
+	 * Must be called when the surface size changes. The dial coordinates from
+	 * -1 to 1 span the shorter side of the surface.
+	 */
+	public void resize(int width, int height) {
+		pixelSize = 2f / Math.min(width, height);
+	}
+
+	public void draw(float[] mvpMatrix) {
+		drawCallCount = 0;
+		if (frame == null) {
+			return;
+		}
+
+		scene.prepare(frame, pitchStep);
+		colors.update(frame.getKey(), frame.getHalftonesPerOctave());
+		uploadSectors();
+
+		program.use();
+		GlState.setBlending(Blending.PREMULTIPLIED);
+
+		GlState.setVertexAttribArrays(positionHandle);
+		GLES20.glVertexAttribPointer(positionHandle,
+			COORDS_PER_VERTEX,
+			GLES20.GL_FLOAT,
+			false,
+			VERTEX_STRIDE,
+			vertexBuffer);
+		MyGLRenderer.checkGlError("glVertexAttribPointer");
+
+		GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvpMatrix, 0);
+		MyGLRenderer.checkGlError("glUniformMatrix4fv");
+		GlState.bindTexture(SECTORS_UNIT, sectorTexture);
+		GLES20.glUniform1i(sectorsHandle, SECTORS_UNIT);
+		MyGLRenderer.checkGlError("glUniform1i");
+		colors.bind(COLORS_UNIT);
+		GLES20.glUniform1i(colorsHandle, COLORS_UNIT);
+		MyGLRenderer.checkGlError("glUniform1i");
+
+		int sectorCount = scene.getSectorCount();
+		GLES20.glUniform1f(sectorCountHandle, sectorCount);
+		MyGLRenderer.checkGlError("glUniform1f");
+		GLES20.glUniform1f(sectorAngleHandle,
+			(float) (2 * Math.PI / sectorCount));
+		MyGLRenderer.checkGlError("glUniform1f");
+		GLES20.glUniform1f(angleOffsetHandle,
+			frame.getBinsPerHalftone() / 2);
+		MyGLRenderer.checkGlError("glUniform1f");
+		GLES20.glUniform1f(sectorLengthHandle, scene.getMaxLength());
+		MyGLRenderer.checkGlError("glUniform1f");
+		GLES20.glUniform1f(rayAngleHandle, (float) (2 * Math.PI / rayCount));
+		MyGLRenderer.checkGlError("glUniform1f");
+		GLES20.glUniform1f(outerRadiusHandle, outerRadius);
+		MyGLRenderer.checkGlError("glUniform1f");
+		GLES20.glUniform1f(innerRadiusHandle, innerRadius);
+		MyGLRenderer.checkGlError("glUniform1f");
+		setKeyCircle(frame.getKey(), frame.getHalftonesPerOctave());
+		GLES20.glUniform1f(keyRadiusHandle, keyRadius);
+		MyGLRenderer.checkGlError("glUniform1f");
+		GLES20.glUniform1f(pixelSizeHandle, pixelSize);
+		MyGLRenderer.checkGlError("glUniform1f");
+		GLES20.glUniform1f(halfLineWidthHandle, 0.5f * lineWidth);
+		MyGLRenderer.checkGlError("glUniform1f");
+		GLES20.glUniform4fv(lineColorHandle, 1, lineColor, 0);
+		MyGLRenderer.checkGlError("glUniform4fv");
+		GLES20.glUniform4fv(fillColorHandle, 1, fillColor, 0);
+		MyGLRenderer.checkGlError("glUniform1f");
+
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0,
+			QUAD_COORDS.length / COORDS_PER_VERTEX);
+		MyGLRenderer.checkGlError("glDrawArrays");
+		RenderCounters.countDrawCall();
+		drawCallCount = 1;
+	}
+
+	/** packs the prepared sectors into the texture */
+	private void uploadSectors() {
+		int sectorCount = scene.getSectorCount();
+		int size = sectorCount * BYTES_PER_SECTOR;
+		if (sectorData.capacity() != size) {
+			sectorData = ByteBuffer.allocateDirect(size).order(
+				ByteOrder.nativeOrder());
+		}
+		float[] values = scene.getValues();
+		int[] pitchClasses = scene.getPitchClasses();
+		sectorData.position(0);
+		for (int i = 0; i < sectorCount; i++) {
+			int value = Math.round(values[i] * 65535);
+			int row = Math.round(255 * colors.getPitchClassCoord(
+				pitchClasses[i]));
+			sectorData.put((byte) (value >> 8));
+			sectorData.put((byte) value);
+			sectorData.put((byte) row);
+			sectorData.put((byte) 255);
+		}
+		sectorData.position(0);
+
+		GlState.bindTexture(sectorTexture);
+		if (sectorCount != allocatedSectorCount) {
+			GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D,
+				0,
+				GLES20.GL_RGBA,
+				sectorCount,
+				1,
+				0,
+				GLES20.GL_RGBA,
+				GLES20.GL_UNSIGNED_BYTE,
+				sectorData);
+			MyGLRenderer.checkGlError("glTexImage2D");
+			allocatedSectorCount = sectorCount;
+		} else {
+			GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D,
+				0,
+				0,
+				0,
+				sectorCount,
+				1,
+				GLES20.GL_RGBA,
+				GLES20.GL_UNSIGNED_BYTE,
+				sectorData);
+			MyGLRenderer.checkGlError("glTexSubImage2D");
+		}
+	}
+
+	/** the key circle in the direction of the key from the center */
+	private void setKeyCircle(Integer key, int halftoneCount) {
+		if (key == null) {
+			GLES20.glUniform3f(keyCircleHandle, 0, 0, 0);
+			MyGLRenderer.checkGlError("glUniform3f");
+			return;
+		}
+		double angle = Math.PI / 2 - 2 * Math.PI * key / halftoneCount;
+		GLES20.glUniform3f(keyCircleHandle,
+			(float) (keyDistance * Math.cos(angle)),
+			(float) (keyDistance * Math.sin(angle)),
+			1);
+		MyGLRenderer.checkGlError("glUniform3f");
+	}
+
+	public void setValue(FrameSnapshot frame) {
+		this.frame = frame;
+	}
+
+	/**
+	 * Shows the bins blended between two frames. The snapshots must not change
+	 * until the next call.
+	 *
+	 * @param mix - 0 for the previous frame, 1 for the current one
+	 */
+	public void setValue(FrameSnapshot previous, FrameSnapshot frame,
+		float mix) {
+		interpolatedFrame.interpolate(previous, frame, mix);
+		setValue(interpolatedFrame);
+	}
+
+	/** eg. 1 for straight diagram, 7 for circle of fifths */
+	public void setPitchStep(int pitchStep) {
+		this.pitchStep = pitchStep;
+	}
+
+	/** @param lineWidth - width of the circles and the grid in pixels */
+	public void setLineWidth(float lineWidth) {
+		this.lineWidth = lineWidth;
+	}
+
+	/** deletes the GL objects owned by the dial */
+	public void release() {
+		GlObjects.deleteTexture(sectorTexture);
+		colors.release();
+	}
+
+	/** number of draw calls issued by the last {@link #draw(float[])} */
+	public int getDrawCallCount() {
+		return drawCallCount;
+	}
+}
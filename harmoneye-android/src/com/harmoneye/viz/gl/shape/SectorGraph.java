@@ -0,0 +1,38 @@
+package com.harmoneye.viz.gl.shape;
+
+import com.harmoneye.viz.scene.FrameSnapshot;
+
+/**
+ * A circular graph of the octave bins where each bin is drawn as a circular
+ * sector. There are several implementations which differ in how the work is
+ * split between the CPU and the GPU.
+ */
+public interface SectorGraph {
+
+	/**
+	 * Encapsulates the OpenGL ES instructions for drawing this shape.
+	 *
+	 * @param mvpMatrix - The Model View Project matrix in which to draw this
+	 * shape.
+	 */
+	void draw(float[] mvpMatrix);
+
+	void setValue(FrameSnapshot frame);
+
+	/**
+	 * Shows the bins blended between two frames. The snapshots must not change
+	 * until the next call.
+	 *
+	 * @param mix - 0 for the previous frame, 1 for the current one
+	 */
+	void setValue(FrameSnapshot previous, FrameSnapshot frame, float mix);
+
+	/** eg. 1 for straight diagram, 7 for circle of fifths */
+	void setPitchStep(int pitchStep);
+
+	/** deletes the GL objects owned by the graph */
+	void release();
+
+	/** number of draw calls issued by the last {@link #draw(float[])} */
+	int getDrawCallCount();
+}
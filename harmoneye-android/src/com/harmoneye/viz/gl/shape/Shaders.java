@@ -0,0 +1,46 @@
+package com.harmoneye.viz.gl.shape;
+
+/**
+ * Shader sources shared by several shapes. Shapes using the same sources share
+ * the same program via the {@link com.harmoneye.viz.gl.ShaderProgramRegistry}.
+ */
+final class Shaders {
+
+	//@formatter:off
+	static final String MVP_VERTEX_SHADER =
+	// This matrix member variable provides a hook to manipulate
+	// the coordinates of the objects that use this vertex shader
+	"uniform mat4 mvpMatrix;" +
+	"attribute vec4 position;" +
+	"void main() {" +
+	// The matrix must be included as a modifier of gl_Position.
+	// Note that the mvpMatrix factor *must be first* in order
+	// for the matrix multiplication product to be correct.
+	"  gl_Position = mvpMatrix * position;" +
+	"}";
+
+	static final String FLAT_COLOR_FRAGMENT_SHADER =
+		"precision mediump float;" +
+		"uniform vec4 color;" +
+		"void main() {" +
+		"  gl_FragColor = color;" +
+		"}";
+
+	/**
+	 * Combines a compressed color texture with a separate alpha texture, works
+	 * with the flat_texture_vertex_shader.
+	 */
+	static final String SPLIT_ALPHA_FRAGMENT_SHADER =
+		"precision mediump float;" +
+		"uniform sampler2D u_Texture;" +
+		"uniform sampler2D u_AlphaTexture;" +
+		"varying vec2 v_TexCoordinate;" +
+		"void main() {" +
+		"  gl_FragColor = vec4(texture2D(u_Texture, v_TexCoordinate).rgb," +
+		"    texture2D(u_AlphaTexture, v_TexCoordinate).r);" +
+		"}";
+	//@formatter:on
+
+	private Shaders() {
+	}
+}
@@ -9,10 +9,19 @@ import android.opengl.GLES20;
 import android.opengl.Matrix;
 
 import com.harmoneye.android.R;
+import com.harmoneye.viz.gl.AsyncTexture;
+import com.harmoneye.viz.gl.GlState;
+import com.harmoneye.viz.gl.GlState.Blending;
+import com.harmoneye.viz.gl.MyGLRenderer;
+import com.harmoneye.viz.gl.RenderCounters;
+import com.harmoneye.viz.gl.ShaderProgram;
+import com.harmoneye.viz.gl.ShaderProgramRegistry;
 import com.learnopengles.android.common.RawResourceReader;
-import com.learnopengles.android.common.ShaderHelper;
-import com.learnopengles.android.common.TextureHelper;
 
+/**
+ * A square with a texture which is decoded in the background. Nothing is
+ * drawn until the texture is ready.
+ */
 public class TexturedQuad {
 
 	private final Context mActivityContext;
@@ -36,6 +45,9 @@ public class TexturedQuad {
 		
 	/** This will be used to pass in the texture. */
 	private int mTextureUniformHandle;
+
+	/** This will be used to pass in the alpha texture, if any. */
+	private int mAlphaTextureUniformHandle;
 	
 	/** This will be used to pass in model position information. */
 	private int mPositionHandle;
@@ -52,21 +64,23 @@ public class TexturedQuad {
 	/** Size of the texture coordinate data in elements. */
 	private final int mTextureCoordinateDataSize = 2;
 	
-	/** This is a handle to our cube shading program. */
-	private int mProgramHandle;
+	/** This is our cube shading program. */
+	private ShaderProgram mProgram;
 		
-	/** This is a handle to our texture data. */
-	private int mTextureDataHandle;
+	/** This is our texture data. */
+	private final AsyncTexture mTexture;
 
-	private int textureResource;
+	private final ShaderProgramRegistry mPrograms;
+	private boolean mProgramChosen;
 
 	/**
 	 * Initialize the model data.
 	 */
-	public TexturedQuad(final Context activityContext, int textureResource, float scaleFactor)
+	public TexturedQuad(final Context activityContext, ShaderProgramRegistry programs, int textureResource, float scaleFactor)
 	{	
 		this.mActivityContext = activityContext;
-		this.textureResource = textureResource;
+		this.mPrograms = programs;
+		this.mTexture = new AsyncTexture(activityContext, textureResource);
 		
 		// Define points for a cube.		
 		
@@ -135,60 +149,84 @@ public class TexturedQuad {
 		// Use culling to remove back faces.
 //		GLES20.glEnable(GLES20.GL_CULL_FACE);
 		
-		GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
-		GLES20.glEnable(GLES20.GL_BLEND);
-		
-		final String vertexShader = getVertexShader();   		
- 		final String fragmentShader = getFragmentShader();			
-		
-		final int vertexShaderHandle = ShaderHelper.compileShader(GLES20.GL_VERTEX_SHADER, vertexShader);		
-		final int fragmentShaderHandle = ShaderHelper.compileShader(GLES20.GL_FRAGMENT_SHADER, fragmentShader);		
-		
-		mProgramHandle = ShaderHelper.createAndLinkProgram(vertexShaderHandle, fragmentShaderHandle, 
-				new String[] {"a_Position",  "a_TexCoordinate"});								                                							       
-        
-        // Load the texture
-        mTextureDataHandle = TextureHelper.loadTexture(mActivityContext, textureResource, GLES20.GL_LINEAR, GLES20.GL_LINEAR);
+		useProgram(getFragmentShader());
 	}	
+
+	private void useProgram(String fragmentShader)
+	{
+		mProgram = mPrograms.getProgram(getVertexShader(), fragmentShader, 
+				new String[] {"a_Position",  "a_TexCoordinate"});								                                							       
+		
+		// Set program handles for cube drawing.
+		mMVPMatrixHandle = mProgram.getUniformLocation("u_MVPMatrix"); 
+		mTextureUniformHandle = mProgram.getUniformLocation("u_Texture");
+		mAlphaTextureUniformHandle = mProgram.getUniformLocation("u_AlphaTexture");
+		mPositionHandle = mProgram.getAttribLocation("a_Position");
+		mTextureCoordinateHandle = mProgram.getAttribLocation("a_TexCoordinate");
+	}
+
+	/** uploads the texture if decoded, @return true if it can be drawn */
+	public boolean isReady()
+	{
+		return mTexture.upload();
+	}
+
+	/** deletes the texture, the quad cannot be drawn afterwards */
+	public void release()
+	{
+		mTexture.release();
+	}
 	
 
 	public void draw(float[] mvpMatrix) { 
+		if (!mTexture.upload()) {
+			return;
+		}
+		if (!mProgramChosen) {
+			mProgramChosen = true;
+			if (mTexture.getAlphaTexture() != 0) {
+				useProgram(Shaders.SPLIT_ALPHA_FRAGMENT_SHADER);
+			}
+		}
+
         // Set our per-vertex lighting program.
-        GLES20.glUseProgram(mProgramHandle);
+        mProgram.use();
+        GlState.setBlending(Blending.ALPHA);
         
-        // Set program handles for cube drawing.
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_MVPMatrix"); 
-        mTextureUniformHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_Texture");
-        mPositionHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_Position");
-        mTextureCoordinateHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_TexCoordinate");
-        
-        // Set the active texture unit to texture unit 0.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        
-        // Bind the texture to this unit.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureDataHandle);
+        if (mTexture.getAlphaTexture() != 0) {
+            GlState.bindTexture(1, mTexture.getAlphaTexture());
+            GLES20.glUniform1i(mAlphaTextureUniformHandle, 1);
+            MyGLRenderer.checkGlError("glUniform1i");
+        }
+
+        // Bind the texture to texture unit 0.
+        GlState.bindTexture(0, mTexture.getTexture());
         
         // Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0.
         GLES20.glUniform1i(mTextureUniformHandle, 0);        
+        MyGLRenderer.checkGlError("glUniform1i");
         
+        GlState.setVertexAttribArrays(mPositionHandle, mTextureCoordinateHandle);
+
         // Pass in the position information
 		mCubePositions.position(0);		
 		GLES20.glVertexAttribPointer(mPositionHandle, mPositionDataSize, GLES20.GL_FLOAT, false,
 				0, mCubePositions);        
-		        
-		GLES20.glEnableVertexAttribArray(mPositionHandle);        
+		MyGLRenderer.checkGlError("glVertexAttribPointer");
 		
 		// Pass in the texture coordinate information
 		mCubeTextureCoordinates.position(0);
 		GLES20.glVertexAttribPointer(mTextureCoordinateHandle, mTextureCoordinateDataSize, GLES20.GL_FLOAT, false, 
 				0, mCubeTextureCoordinates);
-		
-		GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
+		MyGLRenderer.checkGlError("glVertexAttribPointer");
 
 		Matrix.multiplyMM(mMVPMatrix, 0, mvpMatrix, 0, mModelMatrix, 0);
 		
 		GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mMVPMatrix, 0);
+		MyGLRenderer.checkGlError("glUniformMatrix4fv");
 
 		GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 6);
+		MyGLRenderer.checkGlError("glDrawArrays");
+		RenderCounters.countDrawCall();
 	}
 }
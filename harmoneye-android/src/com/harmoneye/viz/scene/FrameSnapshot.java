@@ -0,0 +1,129 @@
+package com.harmoneye.viz.scene;
+
+import com.harmoneye.analysis.MusicAnalyzer.AnalyzedFrame;
+import com.harmoneye.math.cqt.CqtContext;
+
+/**
+ * A copy of the data from an {@link AnalyzedFrame} needed for rendering, owned
+ * by the renderer so that the analysis thread cannot change it while it is
+ * being drawn.
+ *
+ * The bin array is reused and reallocated only when the number of bins
+ * changes.
+ */
+public class FrameSnapshot {
+
+	private double[] octaveBins = new double[0];
+	private int binsPerHalftone;
+	private int halftonesPerOctave;
+	private Integer key;
+	/** number of the copied frame, 0 for no data */
+	private long sequence;
+	/** System.nanoTime() when the frame was copied */
+	private long timestampNanos;
+
+	/**
+	 * @param sequence - number of the frame, must be positive
+	 */
+	public void copyFrom(AnalyzedFrame frame, long sequence) {
+		CqtContext ctx = frame.getCqtContext();
+		set(frame.getOctaveBins(), ctx.getBinsPerHalftone(),
+			ctx.getHalftonesPerOctave(), frame.getKey(), sequence);
+	}
+
+	/**
+	 * Copies the given values, eg. of a synthetic frame.
+	 *
+	 * @param key - the detected key or null
+	 * @param sequence - number of the frame, must be positive
+	 */
+	public void set(double[] bins, int binsPerHalftone,
+		int halftonesPerOctave, Integer key, long sequence) {
+		if (octaveBins.length != bins.length) {
+			octaveBins = new double[bins.length];
+		}
+		System.arraycopy(bins, 0, octaveBins, 0, bins.length);
+
+		this.binsPerHalftone = binsPerHalftone;
+		this.halftonesPerOctave = halftonesPerOctave;
+		this.key = key;
+
+		timestampNanos = System.nanoTime();
+		this.sequence = sequence;
+	}
+
+	/** makes this an exact copy of the other snapshot */
+	public void copyFrom(FrameSnapshot other) {
+		copyFieldsFrom(other);
+		System.arraycopy(other.octaveBins, 0, octaveBins, 0, octaveBins.length);
+	}
+
+	/**
+	 * Blends the bins linearly between two snapshots, the rest is taken from
+	 * the next one. The previous snapshot may be this one. If it is empty or
+	 * has a different number of bins, the next one is just copied.
+	 *
+	 * @param mix - 0 for the previous snapshot, 1 for the next one
+	 */
+	public void interpolate(FrameSnapshot previous, FrameSnapshot next,
+		float mix) {
+		double[] from = previous.octaveBins;
+		if (previous.isEmpty() || from.length != next.octaveBins.length) {
+			copyFrom(next);
+			return;
+		}
+		// copy the previous bins first, the arrays may be reallocated
+		if (previous != this) {
+			if (octaveBins.length != from.length) {
+				octaveBins = new double[from.length];
+			}
+			System.arraycopy(from, 0, octaveBins, 0, from.length);
+		}
+		copyFieldsFrom(next);
+		double[] to = next.octaveBins;
+		for (int i = 0; i < octaveBins.length; i++) {
+			octaveBins[i] += mix * (to[i] - octaveBins[i]);
+		}
+	}
+
+	/** copies everything but the bin values, which are only reallocated */
+	private void copyFieldsFrom(FrameSnapshot other) {
+		if (octaveBins.length != other.octaveBins.length) {
+			octaveBins = new double[other.octaveBins.length];
+		}
+		binsPerHalftone = other.binsPerHalftone;
+		halftonesPerOctave = other.halftonesPerOctave;
+		key = other.key;
+		sequence = other.sequence;
+		timestampNanos = other.timestampNanos;
+	}
+
+	public boolean isEmpty() {
+		return sequence == 0;
+	}
+
+	public double[] getOctaveBins() {
+		return octaveBins;
+	}
+
+	public int getBinsPerHalftone() {
+		return binsPerHalftone;
+	}
+
+	public int getHalftonesPerOctave() {
+		return halftonesPerOctave;
+	}
+
+	/** @return the detected key or null */
+	public Integer getKey() {
+		return key;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public long getTimestampNanos() {
+		return timestampNanos;
+	}
+}
@@ -0,0 +1,79 @@
+package com.harmoneye.viz.scene;
+
+/**
+ * CPU version of the hsbToRgb() function from the vertex shader of the
+ * GpuCircularSectorGraph, so that the colors can be computed once per sector
+ * or once per key in a {@link SectorColorTable} instead of once per pixel.
+ */
+public class HsbColor {
+
+	private HsbColor() {
+	}
+
+	/**
+	 * Converts a color to RGB in the same way as the shader does (including its
+	 * behavior for hue == 1.0).
+	 *
+	 * @param h hue in [0; 1]
+	 * @param sl saturation in [0; 1]
+	 * @param l brightness in [0; 1]
+	 * @param rgb output array
+	 * @param offset index of the red component in the output array
+	 */
+	public static void toRgb(float h, float sl, float l, float[] rgb, int offset) {
+		// default to gray
+		float r = l;
+		float g = l;
+		float b = l;
+
+		float v = (l <= 0.5f) ? (l * (1.0f + sl)) : (l + sl - l * sl);
+
+		if (v > 0.0f) {
+			float m = l + l - v;
+			float sv = (v - m) / v;
+			h *= 6.0f;
+			int sextant = (int) h;
+			float frac = h - sextant;
+			float vsf = v * sv * frac;
+			float mid1 = m + vsf;
+			float mid2 = v - vsf;
+
+			switch (sextant) {
+			case 0:
+				r = v;
+				g = mid1;
+				b = m;
+				break;
+			case 1:
+				r = mid2;
+				g = v;
+				b = m;
+				break;
+			case 2:
+				r = m;
+				g = v;
+				b = mid1;
+				break;
+			case 3:
+				r = m;
+				g = mid2;
+				b = v;
+				break;
+			case 4:
+				r = mid1;
+				g = m;
+				b = v;
+				break;
+			case 5:
+				r = v;
+				g = m;
+				b = mid2;
+				break;
+			}
+		}
+
+		rgb[offset] = r;
+		rgb[offset + 1] = g;
+		rgb[offset + 2] = b;
+	}
+}
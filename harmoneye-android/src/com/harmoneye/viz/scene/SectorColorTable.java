@@ -0,0 +1,143 @@
+package com.harmoneye.viz.scene;
+
+import com.harmoneye.music.TonicDistance;
+
+/**
+ * Colors of the sectors precomputed for each pitch class and a range of
+ * values, so that a sector color is a single lookup instead of an HSB to RGB
+ * conversion.
+ *
+ * The table has one row per pitch class colored by its distance to the key
+ * and a last row of grays used when there is no key. Each row has
+ * {@link #VALUE_STEPS} RGBA colors for the values evenly spaced from 0 to 1.
+ * The rows depend on the key, the table is rebuilt only when it changes.
+ */
+public class SectorColorTable {
+
+	/** number of values in a row, ie. the width of the table */
+	public static final int VALUE_STEPS = 256;
+
+	/** RGBA */
+	public static final int BYTES_PER_COLOR = 4;
+
+	private final TonicDistance tonicDistance = new TonicDistance(12);
+	private final float[] rgb = new float[3];
+
+	private byte[] colors = new byte[0];
+	private int halftoneCount;
+	private Integer key;
+	private boolean built;
+
+	/** @return saturation of a sector with the given value */
+	public static float saturation(float value) {
+		return 0.1f + 0.75f * value;
+	}
+
+	/** @return brightness of a sector with the given value */
+	public static float brightness(float value) {
+		return 0.25f + 0.55f * value;
+	}
+
+	/**
+	 * Rebuilds the table if the key or the number of halftones changed.
+	 *
+	 * @param key - the detected key or null
+	 * @return true if the table was rebuilt
+	 */
+	public boolean update(Integer key, int halftoneCount) {
+		boolean sameKey = key == null ? this.key == null : key
+			.equals(this.key);
+		if (built && sameKey && halftoneCount == this.halftoneCount) {
+			return false;
+		}
+		this.key = key;
+		this.halftoneCount = halftoneCount;
+		built = true;
+
+		int rowCount = halftoneCount + 1;
+		int size = rowCount * VALUE_STEPS * BYTES_PER_COLOR;
+		if (colors.length != size) {
+			colors = new byte[size];
+		}
+		for (int pitchClass = 0; pitchClass < halftoneCount; pitchClass++) {
+			// without a key the pitch class rows are not used
+			float hue = key != null ? tonicDistance
+				.distanceToHue(tonicDistance.distance(pitchClass, key)) : 0;
+			fillRow(pitchClass, hue, true);
+		}
+		fillRow(halftoneCount, 0, false);
+		return true;
+	}
+
+	private void fillRow(int row, float hue, boolean colored) {
+		int offset = row * VALUE_STEPS * BYTES_PER_COLOR;
+		for (int i = 0; i < VALUE_STEPS; i++) {
+			float value = i / (float) (VALUE_STEPS - 1);
+			HsbColor.toRgb(hue, colored ? saturation(value) : 0,
+				brightness(value), rgb, 0);
+			colors[offset++] = toByte(rgb[0]);
+			colors[offset++] = toByte(rgb[1]);
+			colors[offset++] = toByte(rgb[2]);
+			colors[offset++] = (byte) 255;
+		}
+	}
+
+	private static byte toByte(float component) {
+		return (byte) Math.round(255 * component);
+	}
+
+	/**
+	 * Finds the largest difference between the colors interpolated from the
+	 * table (as the linear texture filtering does it) and the colors computed
+	 * directly, for the current key. Only the rows in use are compared, ie.
+	 * the gray one without a key.
+	 *
+	 * @param samples - number of values to compare in each row
+	 * @return the difference in [0; 1] of the worst color component
+	 */
+	public float getMaxError(int samples) {
+		float maxError = 0;
+		int firstRow = key != null ? 0 : halftoneCount;
+		for (int row = firstRow; row <= halftoneCount; row++) {
+			boolean colored = row < halftoneCount;
+			float hue = colored ? tonicDistance.distanceToHue(tonicDistance
+				.distance(row, key)) : 0;
+			for (int s = 0; s < samples; s++) {
+				float value = s / (float) (samples - 1);
+				HsbColor.toRgb(hue, colored ? saturation(value) : 0,
+					brightness(value), rgb, 0);
+				float position = value * (VALUE_STEPS - 1);
+				int i = Math.min((int) position, VALUE_STEPS - 2);
+				float frac = position - i;
+				for (int c = 0; c < 3; c++) {
+					float low = component(row, i, c);
+					float high = component(row, i + 1, c);
+					float interpolated = low + frac * (high - low);
+					maxError = Math.max(maxError,
+						Math.abs(interpolated - rgb[c]));
+				}
+			}
+		}
+		return maxError;
+	}
+
+	private float component(int row, int column, int c) {
+		int index = (row * VALUE_STEPS + column) * BYTES_PER_COLOR + c;
+		return (colors[index] & 0xff) / 255f;
+	}
+
+	/** @return RGBA bytes of the rows one after another */
+	public byte[] getColors() {
+		return colors;
+	}
+
+	/** @return number of rows including the gray one */
+	public int getRowCount() {
+		return halftoneCount + 1;
+	}
+
+	/** @return index of the row to use for the pitch class */
+	public int getRow(int pitchClass) {
+		return key != null ? pitchClass : halftoneCount;
+	}
+}
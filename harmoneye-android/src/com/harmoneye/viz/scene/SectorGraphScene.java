@@ -0,0 +1,191 @@
+package com.harmoneye.viz.scene;
+
+import com.harmoneye.music.TonicDistance;
+
+/**
+ * The per-frame CPU work of the sector graphs, separated from the GL calls.
+ * The bins are reordered by the pitch step and clamped, and each sector gets
+ * its size, direction and color. It depends neither on GL nor on Android.
+ *
+ * Sector i is centered at the angle -(i - binsPerHalftone / 2) * 2 * pi /
+ * sectorCount from the vertical axis. It is a triangle with the apex in the
+ * center, the height of its length and the base of twice its half-width.
+ *
+ * The arrays are reallocated only when the number of sectors changes. The
+ * directions are computed only when the layout changes and the hues only when
+ * the key changes.
+ */
+public class SectorGraphScene {
+
+	/** widens the sectors to prevent holes between adjacent triangles */
+	public static final float EPSILON = 1.01f;
+
+	/** length of a sector with the value 1 relative to the scale */
+	private static final float LENGTH_RATIO = 0.65f;
+
+	private final float scale;
+	private final TonicDistance tonicDistance = new TonicDistance(12);
+
+	private int sectorCount;
+	private int binsPerHalftone;
+	/** tangent of the half-angle of the sector near the circle center */
+	private float tanAlpha;
+	private float[] cos = new float[0];
+	private float[] sin = new float[0];
+
+	private float[] values = new float[0];
+	private int[] pitchClasses = new int[0];
+	private float[] lengths = new float[0];
+	private float[] halfWidths = new float[0];
+	private float[] hues = new float[0];
+	private float[] saturations = new float[0];
+	private float[] brightnesses = new float[0];
+	/** hue of each pitch class for the current key */
+	private float[] pitchClassHues = new float[0];
+	/** key for which the hues were computed */
+	private Integer huesKey;
+	private boolean hasKey;
+
+	/**
+	 * @param scale - overall scale of the graph
+	 */
+	public SectorGraphScene(float scale) {
+		this.scale = scale;
+	}
+
+	/**
+	 * Computes the sectors of a frame.
+	 *
+	 * @param pitchStep - eg. 1 for straight diagram, 7 for circle of fifths
+	 */
+	public void prepare(FrameSnapshot frame, int pitchStep) {
+		double[] bins = frame.getOctaveBins();
+		int binsPerHalftone = frame.getBinsPerHalftone();
+		int halftoneCount = frame.getHalftonesPerOctave();
+		if (bins.length != sectorCount
+			|| binsPerHalftone != this.binsPerHalftone) {
+			updateLayout(bins.length, binsPerHalftone);
+		}
+
+		Integer key = frame.getKey();
+		hasKey = key != null;
+		if (hasKey
+			&& (!key.equals(huesKey) || pitchClassHues.length != halftoneCount)) {
+			updateHues(key, halftoneCount);
+		}
+
+		for (int i = 0; i < sectorCount; i++) {
+			int pitchClass = i / binsPerHalftone;
+			int binInPitchClass = i % binsPerHalftone;
+			int movedPitchClass = (pitchClass * pitchStep) % halftoneCount;
+			int index = movedPitchClass * binsPerHalftone + binInPitchClass;
+			float value = (float) bins[index];
+			value = Math.max(Math.min(value, 1.0f), 0.0f);
+			values[i] = value;
+			pitchClasses[i] = movedPitchClass;
+
+			float length = LENGTH_RATIO * scale * value;
+			lengths[i] = length;
+			halfWidths[i] = length * tanAlpha * EPSILON;
+
+			if (hasKey) {
+				hues[i] = pitchClassHues[movedPitchClass];
+				saturations[i] = SectorColorTable.saturation(value);
+			} else {
+				hues[i] = 0;
+				saturations[i] = 0;
+			}
+			brightnesses[i] = SectorColorTable.brightness(value);
+		}
+	}
+
+	private void updateHues(int key, int halftoneCount) {
+		if (pitchClassHues.length != halftoneCount) {
+			pitchClassHues = new float[halftoneCount];
+		}
+		for (int i = 0; i < halftoneCount; i++) {
+			pitchClassHues[i] = tonicDistance.distanceToHue(tonicDistance
+				.distance(i, key));
+		}
+		huesKey = key;
+	}
+
+	private void updateLayout(int sectorCount, int binsPerHalftone) {
+		if (sectorCount != this.sectorCount) {
+			cos = new float[sectorCount];
+			sin = new float[sectorCount];
+			values = new float[sectorCount];
+			pitchClasses = new int[sectorCount];
+			lengths = new float[sectorCount];
+			halfWidths = new float[sectorCount];
+			hues = new float[sectorCount];
+			saturations = new float[sectorCount];
+			brightnesses = new float[sectorCount];
+		}
+		this.sectorCount = sectorCount;
+		this.binsPerHalftone = binsPerHalftone;
+
+		tanAlpha = (float) Math.tan(Math.PI / sectorCount);
+		int halfBinsPerHalftone = binsPerHalftone / 2;
+		double sectorAngle = 2 * Math.PI / sectorCount;
+		for (int i = 0; i < sectorCount; i++) {
+			double angle = -(i - halfBinsPerHalftone) * sectorAngle;
+			cos[i] = (float) Math.cos(angle);
+			sin[i] = (float) Math.sin(angle);
+		}
+	}
+
+	public int getSectorCount() {
+		return sectorCount;
+	}
+
+	/** @return length of a sector with the value 1 */
+	public float getMaxLength() {
+		return LENGTH_RATIO * scale;
+	}
+
+	/** @return the clamped bin values in the order of the sectors */
+	public float[] getValues() {
+		return values;
+	}
+
+	/** @return the pitch class displayed by each sector */
+	public int[] getPitchClasses() {
+		return pitchClasses;
+	}
+
+	/** @return the cosines of the sector directions */
+	public float[] getCos() {
+		return cos;
+	}
+
+	/** @return the sines of the sector directions */
+	public float[] getSin() {
+		return sin;
+	}
+
+	public float[] getLengths() {
+		return lengths;
+	}
+
+	public float[] getHalfWidths() {
+		return halfWidths;
+	}
+
+	public float[] getHues() {
+		return hues;
+	}
+
+	public float[] getSaturations() {
+		return saturations;
+	}
+
+	public float[] getBrightnesses() {
+		return brightnesses;
+	}
+
+	/** @return true if the sectors are colored by the distance to the key */
+	public boolean hasKey() {
+		return hasKey;
+	}
+}
@@ -0,0 +1,44 @@
+package com.harmoneye.viz.scene;
+
+/**
+ * Builds 2D model matrices directly, without the chain of matrix operations
+ * which would compute the same result in several passes.
+ *
+ * The matrices are 4x4 in the column-major order used by OpenGL and
+ * android.opengl.Matrix.
+ */
+public final class Transforms {
+
+	private Transforms() {
+	}
+
+	/**
+	 * Sets the matrix to translate(x, y) * rotate(angle) * scale(xScale,
+	 * yScale), ie. the shape is scaled first.
+	 *
+	 * @param cos - cosine of the rotation angle
+	 * @param sin - sine of the rotation angle
+	 */
+	public static void setTransform(float[] m, float cos, float sin,
+		float xScale, float yScale, float x, float y) {
+		m[0] = cos * xScale;
+		m[1] = sin * xScale;
+		m[2] = 0;
+		m[3] = 0;
+
+		m[4] = -sin * yScale;
+		m[5] = cos * yScale;
+		m[6] = 0;
+		m[7] = 0;
+
+		m[8] = 0;
+		m[9] = 0;
+		m[10] = 1;
+		m[11] = 0;
+
+		m[12] = x;
+		m[13] = y;
+		m[14] = 0;
+		m[15] = 1;
+	}
+}
@@ -0,0 +1,112 @@
+package com.harmoneye.capture;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.harmoneye.capture.CaptureFormatResolver.Prober;
+import com.harmoneye.capture.CaptureFormatResolver.RecorderFactory;
+
+public class CaptureFormatResolverTest {
+
+	private static final String FINGERPRINT = "vendor/device:4.4/KRT16M";
+
+	private final FakePreferences preferences = new FakePreferences();
+	private final FakeRecorderFactory recorders = new FakeRecorderFactory();
+	private final FakeProber prober = new FakeProber();
+
+	@Test
+	public void probesAndStoresOnTheFirstLaunch() {
+		prober.format = new CaptureFormat(44100, 16);
+
+		CaptureFormat format = resolver(FINGERPRINT).resolve();
+
+		assertFormat(44100, 16, format);
+		assertEquals(1, prober.calls);
+		// nothing stored to validate
+		assertEquals(0, recorders.checked.size());
+	}
+
+	@Test
+	public void validatesTheStoredFormatOnCacheHit() {
+		prober.format = new CaptureFormat(22050, 16);
+		resolver(FINGERPRINT).resolve();
+
+		CaptureFormat format = resolver(FINGERPRINT).resolve();
+
+		assertFormat(22050, 16, format);
+		assertEquals(1, prober.calls);
+		assertEquals(1, recorders.checked.size());
+		assertFormat(22050, 16, recorders.checked.get(0));
+	}
+
+	@Test
+	public void probesAgainWhenTheFingerprintChanges() {
+		prober.format = new CaptureFormat(44100, 16);
+		resolver(FINGERPRINT).resolve();
+		prober.format = new CaptureFormat(48000, 16);
+
+		CaptureFormat format = resolver("vendor/device:5.0/LRX21T").resolve();
+
+		assertFormat(48000, 16, format);
+		assertEquals(2, prober.calls);
+		assertEquals(0, recorders.checked.size());
+	}
+
+	@Test
+	public void fallsBackToTheProbeWhenTheStoredFormatFails() {
+		prober.format = new CaptureFormat(44100, 16);
+		resolver(FINGERPRINT).resolve();
+		recorders.working = false;
+		prober.format = new CaptureFormat(8000, 8);
+
+		CaptureFormat format = resolver(FINGERPRINT).resolve();
+
+		assertFormat(8000, 8, format);
+		assertEquals(2, prober.calls);
+		assertEquals(1, recorders.checked.size());
+
+		// the new format is stored
+		recorders.working = true;
+		assertFormat(8000, 8, resolver(FINGERPRINT).resolve());
+		assertEquals(2, prober.calls);
+	}
+
+	private CaptureFormatResolver resolver(String fingerprint) {
+		return new CaptureFormatResolver(preferences, recorders, prober,
+			fingerprint);
+	}
+
+	private static void assertFormat(int sampleRate, int bitsPerSample,
+		CaptureFormat format) {
+		assertEquals(sampleRate, format.getSampleRate());
+		assertEquals(bitsPerSample, format.getBitsPerSample());
+	}
+
+	private static class FakeRecorderFactory implements RecorderFactory {
+
+		boolean working = true;
+		final List<CaptureFormat> checked = new ArrayList<CaptureFormat>();
+
+		@Override
+		public boolean canRecord(CaptureFormat format) {
+			checked.add(format);
+			return working;
+		}
+	}
+
+	private static class FakeProber implements Prober {
+
+		CaptureFormat format;
+		int calls;
+
+		@Override
+		public CaptureFormat findFormat() {
+			calls++;
+			return format;
+		}
+	}
+}
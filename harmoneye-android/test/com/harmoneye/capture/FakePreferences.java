@@ -0,0 +1,139 @@
+package com.harmoneye.capture;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.SharedPreferences;
+
+/**
+ * In-memory preferences, the edits are applied right away. The listeners are
+ * not supported.
+ */
+class FakePreferences implements SharedPreferences {
+
+	private final Map<String, Object> values = new HashMap<String, Object>();
+
+	@Override
+	public Map<String, ?> getAll() {
+		return new HashMap<String, Object>(values);
+	}
+
+	@Override
+	public int getInt(String key, int defValue) {
+		Object value = values.get(key);
+		return value != null ? (Integer) value : defValue;
+	}
+
+	@Override
+	public long getLong(String key, long defValue) {
+		Object value = values.get(key);
+		return value != null ? (Long) value : defValue;
+	}
+
+	@Override
+	public String getString(String key, String defValue) {
+		Object value = values.get(key);
+		return value != null ? (String) value : defValue;
+	}
+
+	@Override
+	public float getFloat(String key, float defValue) {
+		Object value = values.get(key);
+		return value != null ? (Float) value : defValue;
+	}
+
+	@Override
+	public boolean getBoolean(String key, boolean defValue) {
+		Object value = values.get(key);
+		return value != null ? (Boolean) value : defValue;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Set<String> getStringSet(String key, Set<String> defValues) {
+		Object value = values.get(key);
+		return value != null ? (Set<String>) value : defValues;
+	}
+
+	@Override
+	public boolean contains(String key) {
+		return values.containsKey(key);
+	}
+
+	@Override
+	public Editor edit() {
+		return new Editor() {
+			@Override
+			public Editor putInt(String key, int value) {
+				values.put(key, value);
+				return this;
+			}
+
+			@Override
+			public Editor putLong(String key, long value) {
+				values.put(key, value);
+				return this;
+			}
+
+			@Override
+			public Editor putString(String key, String value) {
+				values.put(key, value);
+				return this;
+			}
+
+			@Override
+			public Editor putFloat(String key, float value) {
+				values.put(key, value);
+				return this;
+			}
+
+			@Override
+			public Editor putBoolean(String key, boolean value) {
+				values.put(key, value);
+				return this;
+			}
+
+			@Override
+			public Editor putStringSet(String key, Set<String> value) {
+				values.put(key, value != null ? new HashSet<String>(value)
+					: null);
+				return this;
+			}
+
+			@Override
+			public Editor remove(String key) {
+				values.remove(key);
+				return this;
+			}
+
+			@Override
+			public Editor clear() {
+				values.clear();
+				return this;
+			}
+
+			@Override
+			public boolean commit() {
+				return true;
+			}
+
+			@Override
+			public void apply() {
+			}
+		};
+	}
+
+	@Override
+	public void registerOnSharedPreferenceChangeListener(
+		OnSharedPreferenceChangeListener listener) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void unregisterOnSharedPreferenceChangeListener(
+		OnSharedPreferenceChangeListener listener) {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,80 @@
+package com.harmoneye.capture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+public class PcmConverterTest {
+
+	@Test
+	public void converts16BitSamplesIncludingTheFullScale() {
+		ByteBuffer buffer = newBuffer(10);
+		short[] values = { 0, 1, -1, Short.MAX_VALUE, Short.MIN_VALUE };
+		for (int i = 0; i < values.length; i++) {
+			buffer.putShort(2 * i, values[i]);
+		}
+		float[] samples = new float[values.length];
+
+		int count = new PcmConverter(buffer, 16).convert(10, samples);
+
+		assertEquals(5, count);
+		assertArrayEquals(new float[] { 0, 1f / 32768, -1f / 32768,
+			32767f / 32768, -1 }, samples, 0);
+	}
+
+	@Test
+	public void converts8BitUnsignedSamplesIncludingTheFullScale() {
+		ByteBuffer buffer = newBuffer(5);
+		int[] values = { 128, 129, 127, 255, 0 };
+		for (int i = 0; i < values.length; i++) {
+			buffer.put(i, (byte) values[i]);
+		}
+		float[] samples = new float[values.length];
+
+		int count = new PcmConverter(buffer, 8).convert(5, samples);
+
+		assertEquals(5, count);
+		assertArrayEquals(new float[] { 0, 1f / 128, -1f / 128, 127f / 128,
+			-1 }, samples, 0);
+	}
+
+	@Test
+	public void ignoresTheIncompleteLast16BitSample() {
+		ByteBuffer buffer = newBuffer(6);
+		buffer.putShort(0, (short) 16384);
+		buffer.putShort(2, (short) -16384);
+		buffer.putShort(4, Short.MAX_VALUE);
+		float[] samples = { 9, 9, 9 };
+
+		int count = new PcmConverter(buffer, 16).convert(5, samples);
+
+		assertEquals(2, count);
+		assertArrayEquals(new float[] { 0.5f, -0.5f, 9 }, samples, 0);
+	}
+
+	@Test
+	public void converts8BitSamplesOfAnOddByteCount() {
+		ByteBuffer buffer = newBuffer(4);
+		buffer.put(0, (byte) 192).put(1, (byte) 64).put(2, (byte) 128);
+		float[] samples = { 9, 9, 9, 9 };
+
+		int count = new PcmConverter(buffer, 8).convert(3, samples);
+
+		assertEquals(3, count);
+		assertArrayEquals(new float[] { 0.5f, -0.5f, 0, 9 }, samples, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsOtherSampleSizes() {
+		new PcmConverter(newBuffer(4), 24);
+	}
+
+	/** as the recorder fills it */
+	private static ByteBuffer newBuffer(int size) {
+		return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+	}
+}
@@ -0,0 +1,214 @@
+package com.harmoneye.capture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.harmoneye.audio.SoundConsumer;
+
+public class RingSoundCaptureTest {
+
+	private static final int CHUNK_SIZE = 1024;
+	/** a low rate gives the starvation a long threshold, 256 ms */
+	private static final CaptureFormat STRESS_FORMAT = new CaptureFormat(8000,
+		16);
+	/** minutes of audio at the stress rate */
+	private static final int STRESS_SAMPLES = 1 << 21;
+
+	private final RingSoundCapture capture = new RingSoundCapture(
+		new CaptureFormat(44100, 16));
+	private final SampleRingBuffer ring = capture.getRing();
+
+	private int consumedChunks;
+	private final SoundConsumer consumer = new SoundConsumer() {
+		@Override
+		public void consume(double[] samples) {
+			assertEquals(CHUNK_SIZE, samples.length);
+			assertEquals(consumedChunks * CHUNK_SIZE, samples[0], 0);
+			consumedChunks++;
+		}
+	};
+	private int written;
+
+	@Test
+	public void passesOnlyCompleteChunks() {
+		write(2 * CHUNK_SIZE + 100);
+
+		assertEquals(2, capture.drainTo(consumer));
+		assertEquals(100, ring.getAvailable());
+
+		write(CHUNK_SIZE - 100);
+		assertEquals(1, capture.drainTo(consumer));
+		assertEquals(3, consumedChunks);
+	}
+
+	@Test
+	public void drainingMoreOftenThanCapturingIsNoUnderrun() {
+		for (int i = 0; i < 100; i++) {
+			write(CHUNK_SIZE / 4);
+			capture.drainTo(consumer);
+		}
+
+		assertEquals(25, consumedChunks);
+		assertEquals(0, ring.getUnderrunCount());
+		assertEquals(0, capture.getStarvationCount());
+	}
+
+	@Test
+	public void passesEverySampleOnceAndInOrderUnderLoad() throws Exception {
+		final RingSoundCapture capture = new RingSoundCapture(STRESS_FORMAT);
+		final SampleRingBuffer ring = capture.getRing();
+		FakeRecorder recorder = new FakeRecorder(capture, true);
+		recorder.start();
+
+		final int[] consumed = new int[1];
+		SoundConsumer checker = new SoundConsumer() {
+			@Override
+			public void consume(double[] samples) {
+				for (double sample : samples) {
+					assertEquals("lost, duplicated or reordered",
+						pcmValue(consumed[0]), sample, 0);
+					consumed[0]++;
+				}
+			}
+		};
+		while (consumed[0] < STRESS_SAMPLES && recorder.isAlive()) {
+			if (capture.drainTo(checker) == 0) {
+				Thread.yield();
+			}
+		}
+		recorder.join();
+		capture.drainTo(checker);
+
+		assertNull(recorder.error.get());
+		assertEquals(STRESS_SAMPLES, consumed[0]);
+		assertEquals(0, ring.getOverrunCount());
+		assertEquals(0, ring.getUnderrunCount());
+		assertEquals(0, capture.getStarvationCount());
+	}
+
+	@Test
+	public void accountsForEveryDroppedSampleWhenTheConsumerLags()
+		throws Exception {
+		final RingSoundCapture capture = new RingSoundCapture(STRESS_FORMAT);
+		final SampleRingBuffer ring = capture.getRing();
+		FakeRecorder recorder = new FakeRecorder(capture, false);
+		recorder.start();
+		// let the ring overflow before draining
+		while (recorder.isAlive()
+			&& recorder.written.get() < 2 * ring.getCapacity()) {
+			Thread.yield();
+		}
+
+		final int[] consumed = new int[1];
+		final int[] previous = { -1 };
+		SoundConsumer checker = new SoundConsumer() {
+			@Override
+			public void consume(double[] samples) {
+				for (double sample : samples) {
+					int value = (int) Math.round(sample * 32768) & 0xffff;
+					// the samples which did not fit are cut off the end of
+					// a read, so a gap ends at the start of another read
+					assertTrue("duplicated or reordered after " + previous[0]
+						+ ": " + value, previous[0] < 0
+						|| value == ((previous[0] + 1) & 0xffff)
+						|| value % CHUNK_SIZE == 0);
+					previous[0] = value;
+					consumed[0]++;
+				}
+			}
+		};
+		while (recorder.isAlive()) {
+			capture.drainTo(checker);
+			Thread.sleep(1);
+		}
+		recorder.join();
+		capture.drainTo(checker);
+
+		assertNull(recorder.error.get());
+		assertTrue(ring.getOverrunCount() > 0);
+		assertEquals(recorder.shortWrites, ring.getOverrunCount());
+		assertEquals(recorder.droppedSamples, ring.getDroppedSampleCount());
+		assertEquals(STRESS_SAMPLES, consumed[0] + ring.getDroppedSampleCount()
+			+ ring.getAvailable());
+		assertEquals(0, capture.getStarvationCount());
+	}
+
+	/** the float of the n-th sample of the 16-bit ramp */
+	private static double pcmValue(int n) {
+		return (short) n * (1f / 32768);
+	}
+
+	/**
+	 * Plays the recorder of the capture: fills the byte buffer with a 16-bit
+	 * ramp and writes it, as fast as it can. The reads vary in length.
+	 */
+	private static class FakeRecorder extends Thread {
+
+		private final RingSoundCapture capture;
+		/** waits for free space instead of dropping samples */
+		private final boolean lossless;
+
+		final AtomicReference<Throwable> error =
+			new AtomicReference<Throwable>();
+		final AtomicLong written = new AtomicLong();
+		/** read after the thread was joined */
+		long shortWrites;
+		long droppedSamples;
+
+		FakeRecorder(RingSoundCapture capture, boolean lossless) {
+			super("fake recorder");
+			this.capture = capture;
+			this.lossless = lossless;
+		}
+
+		@Override
+		public void run() {
+			try {
+				ByteBuffer bytes = capture.getByteBuffer();
+				SampleRingBuffer ring = capture.getRing();
+				int position = 0;
+				while (position < STRESS_SAMPLES) {
+					// the lossy reads are whole, so that a gap is recognized
+					int length = lossless ? 1 + position % CHUNK_SIZE
+						: CHUNK_SIZE;
+					length = Math.min(length, STRESS_SAMPLES - position);
+					for (int i = 0; i < length; i++) {
+						bytes.putShort(2 * i, (short) (position + i));
+					}
+					while (lossless
+						&& ring.getCapacity() - ring.getAvailable() < length) {
+						Thread.yield();
+					}
+					int count = capture.write(2 * length);
+					if (count < length) {
+						shortWrites++;
+						droppedSamples += length - count;
+					}
+					if (lossless) {
+						assertEquals(length, count);
+					}
+					position += length;
+					written.set(position);
+				}
+			} catch (Throwable e) {
+				error.set(e);
+			}
+		}
+	}
+
+	private void write(int count) {
+		float[] samples = new float[count];
+		for (int i = 0; i < count; i++) {
+			samples[i] = written + i;
+		}
+		written += count;
+		assertEquals(count, ring.write(samples, 0, count));
+	}
+}
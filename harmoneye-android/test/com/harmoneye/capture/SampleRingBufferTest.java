@@ -0,0 +1,146 @@
+package com.harmoneye.capture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class SampleRingBufferTest {
+
+	/** exact as floats, minutes of audio */
+	private static final int STRESS_SAMPLES = 1 << 22;
+	private static final int STRESS_CAPACITY = 64;
+	private static final int STRESS_READ_SIZE = 16;
+
+	@Test
+	public void readsAcrossTheEndOfTheRing() {
+		SampleRingBuffer ring = new SampleRingBuffer(8);
+		float[] read = new float[6];
+		ring.write(samples(0, 6), 0, 6);
+		assertTrue(ring.readFully(read, 0, 6));
+
+		ring.write(samples(6, 6), 0, 6);
+		assertTrue(ring.readFully(read, 0, 6));
+
+		assertArrayEquals(samples(6, 6), read, 0);
+		assertEquals(0, ring.getAvailable());
+	}
+
+	@Test
+	public void dropsWhatDoesNotFit() {
+		SampleRingBuffer ring = new SampleRingBuffer(8);
+
+		assertEquals(8, ring.write(samples(0, 10), 0, 10));
+
+		assertEquals(1, ring.getOverrunCount());
+		assertEquals(2, ring.getDroppedSampleCount());
+		assertEquals(8, ring.getAvailable());
+	}
+
+	@Test
+	public void countsAnUnderrunWhenReadingTooMuch() {
+		SampleRingBuffer ring = new SampleRingBuffer(8);
+		ring.write(samples(0, 3), 0, 3);
+
+		assertFalse(ring.readFully(new float[4], 0, 4));
+
+		assertEquals(1, ring.getUnderrunCount());
+		assertEquals(3, ring.getAvailable());
+	}
+
+	@Test
+	public void discardsTheSamplesOnClear() {
+		SampleRingBuffer ring = new SampleRingBuffer(8);
+		ring.write(samples(0, 5), 0, 5);
+
+		ring.clear();
+
+		assertEquals(0, ring.getAvailable());
+		assertEquals(8, ring.write(samples(100, 8), 0, 8));
+		float[] read = new float[8];
+		assertTrue(ring.readFully(read, 0, 8));
+		assertArrayEquals(samples(100, 8), read, 0);
+	}
+
+	@Test
+	public void passesEverySampleOnceAndInOrderBetweenThreads()
+		throws Exception {
+		final SampleRingBuffer ring = new SampleRingBuffer(STRESS_CAPACITY);
+		final AtomicReference<Throwable> producerError =
+			new AtomicReference<Throwable>();
+		// written by the producer, read after it was joined
+		final long[] shortWrites = new long[1];
+		final long[] droppedSamples = new long[1];
+
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					float[] src = new float[STRESS_CAPACITY];
+					int position = 0;
+					while (position < STRESS_SAMPLES) {
+						// varying lengths, so the writes wrap anywhere
+						int length = Math.min(1 + position % 37,
+							STRESS_SAMPLES - position);
+						for (int i = 0; i < length; i++) {
+							src[i] = position + i;
+						}
+						int written = ring.write(src, 0, length);
+						if (written < length) {
+							// the rest is written again
+							shortWrites[0]++;
+							droppedSamples[0] += length - written;
+						}
+						position += written;
+						if (written == 0) {
+							Thread.yield();
+						}
+					}
+				} catch (Throwable e) {
+					producerError.set(e);
+				}
+			}
+		}, "producer");
+		producer.start();
+
+		float[] read = new float[STRESS_READ_SIZE];
+		int expected = 0;
+		long underruns = 0;
+		while (expected < STRESS_SAMPLES) {
+			if (ring.readFully(read, 0, read.length)) {
+				for (float sample : read) {
+					assertEquals("lost, duplicated or reordered", expected,
+						sample, 0);
+					expected++;
+				}
+			} else {
+				underruns++;
+				if (!producer.isAlive()) {
+					break;
+				}
+				Thread.yield();
+			}
+		}
+		producer.join();
+
+		assertNull(producerError.get());
+		assertEquals(STRESS_SAMPLES, expected);
+		assertEquals(0, ring.getAvailable());
+		assertEquals(shortWrites[0], ring.getOverrunCount());
+		assertEquals(droppedSamples[0], ring.getDroppedSampleCount());
+		assertEquals(underruns, ring.getUnderrunCount());
+	}
+
+	private static float[] samples(int first, int count) {
+		float[] samples = new float[count];
+		for (int i = 0; i < count; i++) {
+			samples[i] = first + i;
+		}
+		return samples;
+	}
+}
@@ -0,0 +1,162 @@
+package com.harmoneye.schedule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Simulates the steps on a fake clock, each one scheduled a period after the
+ * previous one started, with the given step costs.
+ */
+public class AnalysisRateGovernorTest {
+
+	// the same as in the activity
+	private static final long MIN_PERIOD = 16000000L;
+	private static final long MAX_PERIOD = 100000000L;
+	private static final double TARGET_DUTY_CYCLE = 0.3;
+	private static final int WINDOW_SIZE = 30;
+	private static final double PERCENTILE = 0.9;
+
+	private static final long MILLIS = 1000000L;
+
+	private FakeClock clock;
+	private AnalysisRateGovernor governor;
+
+	@Before
+	public void setUp() {
+		clock = new FakeClock();
+		clock.set(5000 * MILLIS);
+		governor = new AnalysisRateGovernor(clock, MIN_PERIOD, MAX_PERIOD,
+			TARGET_DUTY_CYCLE, WINDOW_SIZE, PERCENTILE);
+	}
+
+	@Test
+	public void convergesToTheTargetDutyCycle() {
+		simulate(constant(9 * MILLIS), 100);
+
+		assertEquals(30 * MILLIS, governor.getPeriodNanos(), 3 * MILLIS);
+		assertEquals(TARGET_DUTY_CYCLE, governor.getDutyCycle(), 0.03);
+	}
+
+	@Test
+	public void keepsTheDutyCycleWithNoisyCosts() {
+		// 6 to 12 ms, the percentile is about 11.4 ms
+		simulate(uniform(6 * MILLIS, 12 * MILLIS), 300);
+
+		assertEquals(38 * MILLIS, governor.getPeriodNanos(), 4 * MILLIS);
+		// measured by the mean cost, so below the target
+		assertTrue(governor.getDutyCycle() <= TARGET_DUTY_CYCLE + 0.03);
+		assertTrue(governor.getDutyCycle() >= 0.2);
+	}
+
+	@Test
+	public void followsAChangeOfTheCost() {
+		simulate(constant(6 * MILLIS), 60);
+		assertEquals(20 * MILLIS, governor.getPeriodNanos(), 2 * MILLIS);
+
+		// a heavier load, eg. the device got throttled
+		simulate(constant(15 * MILLIS), WINDOW_SIZE);
+		assertEquals(50 * MILLIS, governor.getPeriodNanos(), 5 * MILLIS);
+
+		// the percentile drops only when the costly steps leave the window,
+		// the measured duty cycle follows during the next window
+		simulate(constant(6 * MILLIS), 2 * WINDOW_SIZE);
+		assertEquals(20 * MILLIS, governor.getPeriodNanos(), 2 * MILLIS);
+		assertEquals(TARGET_DUTY_CYCLE, governor.getDutyCycle(), 0.03);
+	}
+
+	@Test
+	public void keepsTheMinimumPeriodForCheapSteps() {
+		simulate(constant(1 * MILLIS), 100);
+
+		assertEquals(MIN_PERIOD, governor.getPeriodNanos());
+		assertTrue(governor.getDutyCycle() < TARGET_DUTY_CYCLE);
+	}
+
+	@Test
+	public void keepsTheMaximumPeriodForExpensiveSteps() {
+		simulate(constant(60 * MILLIS), 100);
+
+		assertEquals(MAX_PERIOD, governor.getPeriodNanos());
+		assertEquals(0.6, governor.getDutyCycle(), 0.01);
+	}
+
+	@Test
+	public void staysWithinTheBoundsForAnyCosts() {
+		Random random = new Random(42);
+		for (int i = 0; i < 5000; i++) {
+			// occasional spikes like GC pauses
+			long cost = random.nextInt(10) == 0
+				? random.nextInt(300) * MILLIS
+				: random.nextInt(20) * MILLIS;
+			simulate(constant(cost), 1);
+			long period = governor.getPeriodNanos();
+			assertTrue("period " + period, period >= MIN_PERIOD);
+			assertTrue("period " + period, period <= MAX_PERIOD);
+		}
+	}
+
+	@Test
+	public void ignoresSmallChangesOfTheCost() {
+		simulate(constant(9 * MILLIS), 60);
+		long period = governor.getPeriodNanos();
+
+		simulate(constant(9 * MILLIS + MILLIS / 2), 60);
+
+		assertEquals(period, governor.getPeriodNanos());
+	}
+
+	@Test
+	public void convertsThePeriodToFrames() {
+		simulate(constant(9 * MILLIS), 100);
+		long period = governor.getPeriodNanos();
+
+		long frame = 16666667;
+		int divisor = governor.getFrameDivisor(frame);
+		assertTrue(divisor * frame >= period);
+		assertTrue((divisor - 1) * frame < period);
+	}
+
+	private void simulate(final Costs costs, int stepCount) {
+		for (int i = 0; i < stepCount; i++) {
+			long start = clock.nanoTime();
+			governor.runMeasured(new Runnable() {
+				@Override
+				public void run() {
+					clock.advance(costs.next());
+				}
+			});
+			// the next step is triggered a period after this one started, or
+			// right away if this one was longer
+			clock.set(Math.max(start + governor.getPeriodNanos(),
+				clock.nanoTime()));
+		}
+	}
+
+	private interface Costs {
+		long next();
+	}
+
+	private static Costs constant(final long cost) {
+		return new Costs() {
+			@Override
+			public long next() {
+				return cost;
+			}
+		};
+	}
+
+	private static Costs uniform(final long min, final long max) {
+		final Random random = new Random(7);
+		return new Costs() {
+			@Override
+			public long next() {
+				return min + (long) (random.nextDouble() * (max - min));
+			}
+		};
+	}
+}
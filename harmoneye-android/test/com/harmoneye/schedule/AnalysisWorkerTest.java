@@ -0,0 +1,138 @@
+package com.harmoneye.schedule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class AnalysisWorkerTest {
+
+	private static final long TIMEOUT_SECONDS = 5;
+
+	@Test
+	public void dropsTriggersWhileTheStepRuns() throws Exception {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger runs = new AtomicInteger();
+		AnalysisWorker worker = new AnalysisWorker("test", new Runnable() {
+			@Override
+			public void run() {
+				runs.incrementAndGet();
+				entered.countDown();
+				awaitQuietly(release);
+			}
+		});
+		worker.start();
+		try {
+			assertTrue(worker.trigger());
+			assertTrue(entered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+			assertFalse(worker.trigger());
+			assertFalse(worker.trigger());
+			assertEquals(2, worker.getDroppedCount());
+		} finally {
+			release.countDown();
+			worker.stop();
+		}
+		assertEquals(1, runs.get());
+	}
+
+	@Test
+	public void stopWaitsForTheRunningStep() throws Exception {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final AtomicInteger finished = new AtomicInteger();
+		AnalysisWorker worker = new AnalysisWorker("test", new Runnable() {
+			@Override
+			public void run() {
+				entered.countDown();
+				// a step which ignores the interruption
+				long end = System.nanoTime() + 100000000L;
+				while (System.nanoTime() < end) {
+					Thread.yield();
+				}
+				finished.incrementAndGet();
+			}
+		});
+		worker.start();
+		worker.trigger();
+		assertTrue(entered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		worker.stop();
+
+		assertEquals(1, finished.get());
+	}
+
+	@Test
+	public void stepsOfARestartedWorkerNeverOverlap() throws Exception {
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger overlaps = new AtomicInteger();
+		final AtomicInteger runs = new AtomicInteger();
+		AnalysisWorker worker = new AnalysisWorker("test", new Runnable() {
+			@Override
+			public void run() {
+				if (active.incrementAndGet() > 1) {
+					overlaps.incrementAndGet();
+				}
+				runs.incrementAndGet();
+				long end = System.nanoTime() + 200000L;
+				while (System.nanoTime() < end) {
+					Thread.yield();
+				}
+				active.decrementAndGet();
+			}
+		});
+
+		for (int cycle = 0; cycle < 200; cycle++) {
+			worker.start();
+			for (int i = 0; i < 20; i++) {
+				worker.trigger();
+				Thread.sleep(0, 100000);
+			}
+			worker.stop();
+			assertEquals(0, active.get());
+		}
+
+		assertEquals(0, overlaps.get());
+		assertTrue(runs.get() > 0);
+	}
+
+	@Test
+	public void runsAfterBeingStoppedWithAPendingStep() throws Exception {
+		final AtomicInteger runs = new AtomicInteger();
+		final CountDownLatch ran = new CountDownLatch(1);
+		AnalysisWorker worker = new AnalysisWorker("test", new Runnable() {
+			@Override
+			public void run() {
+				runs.incrementAndGet();
+				ran.countDown();
+			}
+		});
+		// triggered but never run
+		worker.trigger();
+		worker.start();
+		worker.stop();
+		int runsBeforeRestart = runs.get();
+
+		worker.start();
+		try {
+			assertTrue(worker.trigger());
+			assertTrue(ran.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		} finally {
+			worker.stop();
+		}
+		assertEquals(runsBeforeRestart + 1, runs.get());
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			// stopped
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package com.harmoneye.schedule;
+
+/** A clock which moves only when told to. */
+class FakeClock implements Clock {
+
+	private long nanoTime;
+
+	@Override
+	public long nanoTime() {
+		return nanoTime;
+	}
+
+	void set(long nanoTime) {
+		this.nanoTime = nanoTime;
+	}
+
+	void advance(long nanos) {
+		nanoTime += nanos;
+	}
+}
@@ -0,0 +1,125 @@
+package com.harmoneye.schedule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class VsyncTickGateTest {
+
+	private static final long FRAME = 16666667;
+	/** the frame times do not start at zero */
+	private static final long START = 123456789;
+
+	private FakeClock clock;
+
+	@Before
+	public void setUp() {
+		clock = new FakeClock();
+	}
+
+	@Test
+	public void runsOnEveryDivisorthFrame() {
+		VsyncTickGate gate = new VsyncTickGate(clock, FRAME, 3);
+
+		StringBuilder ticks = new StringBuilder();
+		for (int frame = 0; frame < 9; frame++) {
+			ticks.append(onTimeFrame(gate, frame) ? 'x' : '.');
+		}
+
+		assertEquals("x..x..x..", ticks.toString());
+		assertEquals(0, gate.getMissedTickCount());
+	}
+
+	@Test
+	public void dropsTheTicksOfSkippedFrames() {
+		VsyncTickGate gate = new VsyncTickGate(clock, FRAME, 2);
+		assertTrue(onTimeFrame(gate, 0));
+
+		// frames 1 to 6 never came, the ticks at 2 and 4 are missed
+		assertTrue(onTimeFrame(gate, 7));
+		assertEquals(2, gate.getMissedTickCount());
+
+		// not bursting to catch up
+		assertFalse(onTimeFrame(gate, 8));
+		assertTrue(onTimeFrame(gate, 9));
+		assertFalse(onTimeFrame(gate, 10));
+		assertEquals(2, gate.getMissedTickCount());
+	}
+
+	@Test
+	public void dropsTheTickOfALateCallback() {
+		VsyncTickGate gate = new VsyncTickGate(clock, FRAME, 1);
+		assertTrue(onTimeFrame(gate, 0));
+
+		long frameTime = START + FRAME;
+		clock.set(frameTime + FRAME + 1);
+		assertFalse(gate.onFrame(frameTime));
+		assertEquals(1, gate.getMissedTickCount());
+
+		// a callback late within its frame still runs
+		frameTime += FRAME;
+		clock.set(frameTime + FRAME - 1);
+		assertTrue(gate.onFrame(frameTime));
+		assertEquals(1, gate.getMissedTickCount());
+	}
+
+	@Test
+	public void toleratesJitterOfTheFrameTimes() {
+		VsyncTickGate gate = new VsyncTickGate(clock, FRAME, 2);
+
+		assertTrue(frameAt(gate, START));
+		assertFalse(frameAt(gate, START + FRAME + FRAME / 3));
+		assertTrue(frameAt(gate, START + 2 * FRAME - FRAME / 3));
+		assertEquals(0, gate.getMissedTickCount());
+	}
+
+	@Test
+	public void appliesANewDivisorFromTheNextTick() {
+		VsyncTickGate gate = new VsyncTickGate(clock, FRAME, 2);
+		assertTrue(onTimeFrame(gate, 0));
+
+		gate.setDivisor(4);
+		assertFalse(onTimeFrame(gate, 1));
+		// the tick already planned for frame 2 keeps its place
+		assertTrue(onTimeFrame(gate, 2));
+		assertFalse(onTimeFrame(gate, 3));
+		assertFalse(onTimeFrame(gate, 4));
+		assertFalse(onTimeFrame(gate, 5));
+		assertTrue(onTimeFrame(gate, 6));
+		assertFalse(onTimeFrame(gate, 8));
+		assertTrue(onTimeFrame(gate, 10));
+		assertEquals(0, gate.getMissedTickCount());
+	}
+
+	@Test
+	public void startsCountingAgainAfterReset() {
+		VsyncTickGate gate = new VsyncTickGate(clock, FRAME, 2);
+		assertTrue(onTimeFrame(gate, 0));
+		assertFalse(onTimeFrame(gate, 1));
+
+		// resumed much later, at an odd frame of the old grid
+		gate.reset();
+		assertTrue(onTimeFrame(gate, 1001));
+		assertFalse(onTimeFrame(gate, 1002));
+		assertTrue(onTimeFrame(gate, 1003));
+		assertEquals(0, gate.getMissedTickCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsZeroDivisor() {
+		new VsyncTickGate(clock, FRAME, 0);
+	}
+
+	private boolean onTimeFrame(VsyncTickGate gate, int frame) {
+		return frameAt(gate, START + frame * FRAME);
+	}
+
+	/** the callback comes shortly after the frame time */
+	private boolean frameAt(VsyncTickGate gate, long frameTime) {
+		clock.set(frameTime + FRAME / 4);
+		return gate.onFrame(frameTime);
+	}
+}
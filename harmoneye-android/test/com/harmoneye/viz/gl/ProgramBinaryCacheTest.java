@@ -0,0 +1,91 @@
+package com.harmoneye.viz.gl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProgramBinaryCacheTest {
+
+	private static final int FORMAT = 0x8741;
+	private static final byte[] BINARY = { 1, 2, 3, 4, 5, 6, 7 };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsWhatWasWritten() throws IOException {
+		File file = new File(folder.getRoot(), "program.bin");
+		ProgramBinaryCache.writeBinary(file, FORMAT, BINARY);
+
+		int[] format = new int[1];
+		ByteBuffer binary = ProgramBinaryCache.readBinary(file, format);
+
+		assertEquals(FORMAT, format[0]);
+		byte[] bytes = new byte[binary.capacity()];
+		binary.get(bytes);
+		assertArrayEquals(BINARY, bytes);
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+
+	@Test
+	public void rejectsANegativeLength() throws IOException {
+		assertCorrupt(write(-1, BINARY));
+	}
+
+	@Test
+	public void rejectsAHugeLength() throws IOException {
+		assertCorrupt(write(Integer.MAX_VALUE, BINARY));
+	}
+
+	@Test
+	public void rejectsATruncatedBinary() throws IOException {
+		assertCorrupt(write(BINARY.length + 1, BINARY));
+	}
+
+	@Test
+	public void rejectsTrailingBytes() throws IOException {
+		assertCorrupt(write(BINARY.length - 1, BINARY));
+	}
+
+	@Test
+	public void rejectsATruncatedHeader() throws IOException {
+		File file = folder.newFile();
+		FileOutputStream output = new FileOutputStream(file);
+		output.write(new byte[] { 0, 0, (byte) 0x87 });
+		output.close();
+		assertCorrupt(file);
+	}
+
+	private static void assertCorrupt(File file) {
+		assertTrue(file.exists());
+		assertNull(ProgramBinaryCache.readBinary(file, new int[1]));
+		assertFalse(file.exists());
+	}
+
+	/** writes the binary with the given length in the header */
+	private File write(int length, byte[] binary) throws IOException {
+		File file = folder.newFile();
+		DataOutputStream output = new DataOutputStream(new FileOutputStream(
+			file));
+		try {
+			output.writeInt(FORMAT);
+			output.writeInt(length);
+			output.write(binary);
+		} finally {
+			output.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,106 @@
+package com.harmoneye.viz.gl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.harmoneye.viz.scene.FrameSnapshot;
+
+public class TripleBufferTest {
+
+	private static final int FRAMES = 200000;
+	private static final int BINS = 60;
+	private static final int HALFTONES = 12;
+
+	@Test
+	public void returnsTheLatestPublishedValue() {
+		TripleBuffer<StringBuilder> buffer = newBuffer();
+		StringBuilder initial = buffer.acquire();
+
+		buffer.getBack().append("a");
+		buffer.publish();
+		buffer.getBack().append("b");
+		buffer.publish();
+
+		assertEquals("b", buffer.acquire().toString());
+		assertEquals(1, buffer.getDroppedCount());
+		// nothing new, the same slot again
+		assertSame(buffer.acquire(), buffer.acquire());
+		assertTrue(initial != buffer.acquire());
+	}
+
+	@Test
+	public void neverTearsFramesBetweenThreads() throws Exception {
+		final TripleBuffer<FrameSnapshot> buffer =
+			new TripleBuffer<FrameSnapshot>(new FrameSnapshot(),
+				new FrameSnapshot(), new FrameSnapshot());
+		final AtomicReference<Throwable> producerError =
+			new AtomicReference<Throwable>();
+
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					double[] bins = new double[BINS];
+					for (int sequence = 1; sequence <= FRAMES; sequence++) {
+						// every field is derived from the sequence
+						for (int i = 0; i < bins.length; i++) {
+							bins[i] = sequence;
+						}
+						buffer.getBack().set(bins, sequence,
+							HALFTONES, sequence % HALFTONES, sequence);
+						buffer.publish();
+					}
+				} catch (Throwable e) {
+					producerError.set(e);
+				}
+			}
+		}, "producer");
+		producer.start();
+
+		long lastSequence = 0;
+		int seenFrames = 0;
+		while (lastSequence < FRAMES) {
+			FrameSnapshot frame = buffer.acquire();
+			long sequence = frame.getSequence();
+			assertTrue("the frames went back from " + lastSequence + " to "
+				+ sequence, sequence >= lastSequence);
+			if (sequence != lastSequence) {
+				seenFrames++;
+				assertConsistent(frame);
+				lastSequence = sequence;
+			}
+			if (!producer.isAlive() && producerError.get() != null) {
+				break;
+			}
+		}
+		producer.join();
+
+		assertNull(producerError.get());
+		assertEquals(FRAMES, lastSequence);
+		assertEquals(FRAMES, seenFrames + buffer.getDroppedCount());
+	}
+
+	private static void assertConsistent(FrameSnapshot frame) {
+		long sequence = frame.getSequence();
+		assertEquals(sequence, frame.getBinsPerHalftone());
+		assertEquals(HALFTONES, frame.getHalftonesPerOctave());
+		assertEquals(Integer.valueOf((int) (sequence % HALFTONES)),
+			frame.getKey());
+		double[] bins = frame.getOctaveBins();
+		assertEquals(BINS, bins.length);
+		for (double bin : bins) {
+			assertEquals("torn frame " + sequence, sequence, bin, 0);
+		}
+	}
+
+	private static TripleBuffer<StringBuilder> newBuffer() {
+		return new TripleBuffer<StringBuilder>(new StringBuilder(),
+			new StringBuilder(), new StringBuilder());
+	}
+}
@@ -0,0 +1,55 @@
+package com.harmoneye.viz.scene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SectorColorTableTest {
+
+	private static final int HALFTONES = 12;
+	/** the colors of the table differ from the shader by at most 2 levels */
+	private static final float TOLERANCE = 2 / 255f;
+	private static final int SAMPLES = 1000;
+
+	private final SectorColorTable table = new SectorColorTable();
+
+	@Test
+	public void interpolatesWithinTheToleranceForEachKey() {
+		for (int key = 0; key < HALFTONES; key++) {
+			table.update(key, HALFTONES);
+			float error = table.getMaxError(SAMPLES);
+			assertTrue("key " + key + ": " + error, error <= TOLERANCE);
+		}
+	}
+
+	@Test
+	public void interpolatesWithinTheToleranceWithoutAKey() {
+		table.update(null, HALFTONES);
+		float error = table.getMaxError(SAMPLES);
+		assertTrue("no key: " + error, error <= TOLERANCE);
+	}
+
+	@Test
+	public void hasARowPerPitchClassAndAGrayOne() {
+		table.update(3, HALFTONES);
+
+		assertEquals(HALFTONES + 1, table.getRowCount());
+		assertEquals(table.getRowCount() * SectorColorTable.VALUE_STEPS
+			* SectorColorTable.BYTES_PER_COLOR, table.getColors().length);
+		assertEquals(5, table.getRow(5));
+
+		table.update(null, HALFTONES);
+		assertEquals(HALFTONES, table.getRow(5));
+	}
+
+	@Test
+	public void rebuildsOnlyWhenTheKeyChanges() {
+		assertTrue(table.update(null, HALFTONES));
+		assertFalse(table.update(null, HALFTONES));
+		assertTrue(table.update(7, HALFTONES));
+		assertFalse(table.update(Integer.valueOf(7), HALFTONES));
+		assertTrue(table.update(7, 2 * HALFTONES));
+	}
+}